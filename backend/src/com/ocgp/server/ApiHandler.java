@@ -13,22 +13,76 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.time.Instant;
 
 public class ApiHandler implements HttpHandler {
     private static final String API_ROOT = "/api";
     private static final int EMPTY_ROOM_TTL_SECONDS = 30;
+    private static final int MAX_LEADERBOARD_PAGE = 100;
 
     private final DataStore dataStore;
     private final WebSocketHub wsHub;
+    private final ClusterRouter cluster;
+    private final Matchmaker matchmaker;
+    private final RateLimiter rateLimiter;
+    private final RouteTable routes = new RouteTable();
 
-    public ApiHandler(DataStore dataStore, WebSocketHub wsHub) {
+    public ApiHandler(DataStore dataStore, WebSocketHub wsHub, Matchmaker matchmaker, RateLimiter rateLimiter) {
         this.dataStore = dataStore;
         this.wsHub = wsHub;
+        this.matchmaker = matchmaker;
+        this.rateLimiter = rateLimiter;
+        this.cluster = dataStore.getCluster();
+        registerRoutes();
+    }
+
+    private void registerRoutes() {
+        RouteTable.Middleware auth = this::authenticate;
+        RouteTable.Middleware room = this::resolveRoom;
+        routes.use(this::rateLimit);
+
+        routes.post("/register", this::handleRegister).limit(RateLimiter.RouteClass.AUTH);
+        routes.post("/login", this::handleLogin).limit(RateLimiter.RouteClass.AUTH);
+        routes.post("/logout", this::handleLogout).with(auth);
+        routes.get("/me", this::handleMe).with(auth);
+        routes.get("/me/games", this::handleMyGameRecords).with(auth);
+        routes.get("/games", this::handleGames);
+        routes.get("/games/{gameId}/record", this::handleGameRecord).with(auth);
+        routes.get("/games/{gameId}/position", this::handleGamePosition).with(auth);
+        routes.get("/ping", this::handlePing);
+        routes.get("/telemetry/latency", this::handleLatency).with(auth);
+        routes.get("/telemetry/ratelimit", (exchange, call) -> HttpUtils.sendJson(exchange, 200, rateLimiter.stats())).with(auth);
+        routes.get("/telemetry/websocket", (exchange, call) -> HttpUtils.sendJson(exchange, 200, wsHub.sendStats())).with(auth);
+        routes.get("/telemetry/sessions", (exchange, call) -> HttpUtils.sendJson(exchange, 200, dataStore.sessionStats())).with(auth);
+        routes.get("/telemetry/routes", (exchange, call) -> HttpUtils.sendJson(exchange, 200, routes.stats())).with(auth);
+        routes.get("/leaderboard", this::handleLeaderboard).with(auth);
+        routes.post("/matchmaking", this::handleEnqueue).with(auth);
+        routes.get("/matchmaking", this::handleMatchStatus).with(auth);
+        routes.delete("/matchmaking", this::handleLeaveQueue).with(auth);
+
+        routes.get("/rooms", this::handleListRooms);
+        // 建房自己決定房間 id 與擁有節點，轉送前不驗證
+        routes.post("/rooms", this::handleCreateRoom);
+        // 房間路由：先轉送到擁有節點，再由擁有節點驗證
+        routes.get("/rooms/{roomId}", this::handleGetRoom).with(room).with(auth);
+        routes.get("/rooms/{roomId}/legal-moves", this::handleLegalMoves).with(room).with(auth);
+        routes.get("/rooms/{roomId}/record", this::handleRoomRecord).with(room).with(auth);
+        routes.post("/rooms/{roomId}/join", this::handleJoinRoom).with(room).with(auth);
+        routes.post("/rooms/{roomId}/leave", this::handleLeaveRoom).with(room).with(auth);
+        routes.post("/rooms/{roomId}/start", this::handleStartRoom).with(room).with(auth);
+        routes.post("/rooms/{roomId}/move", this::handleRoomMove).with(room).with(auth).limit(RateLimiter.RouteClass.MOVE);
+        routes.post("/rooms/{roomId}/restart", this::handleRestartRoom).with(room).with(auth);
+        routes.post("/rooms/{roomId}/edit", this::handleEditRoom).with(room).with(auth);
+        routes.post("/rooms/{roomId}/chat", this::handlePostChat).with(room).with(auth).limit(RateLimiter.RouteClass.CHAT);
+        routes.get("/rooms/{roomId}/chat", this::handleGetChat).with(room).with(auth);
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+        long started = System.nanoTime();
+        RouteTable.Route route = null;
         try {
             addCorsHeaders(exchange.getResponseHeaders());
             String method = exchange.getRequestMethod().toUpperCase();
@@ -37,23 +91,20 @@ public class ApiHandler implements HttpHandler {
                 return;
             }
             String path = normalizePath(exchange.getRequestURI().getPath());
-            if ("POST".equals(method) && "/register".equals(path)) {
-                handleRegister(exchange);
-            } else if ("POST".equals(method) && "/login".equals(path)) {
-                handleLogin(exchange);
-            } else if ("GET".equals(method) && "/me".equals(path)) {
-                handleMe(exchange);
-            } else if ("GET".equals(method) && "/games".equals(path)) {
-                handleGames(exchange);
-            } else if ("GET".equals(method) && "/ping".equals(path)) {
-                handlePing(exchange);
-            } else if ("/rooms".equals(path)) {
-                handleRoomsRoot(exchange);
-            } else if (path.startsWith("/rooms/")) {
-                handleRoomsSubresource(exchange, path.substring("/rooms/".length()));
-            } else {
-                throw new HttpStatusException(404, "Unknown API endpoint");
+            RouteTable.Match match = routes.match(method, path);
+            if (match == null || match.route() == null) {
+                // 不存在的路徑也要計入限流，避免掃描式請求繞過
+                if (admit(exchange, RateLimiter.RouteClass.LOBBY)) {
+                    if (match == null) {
+                        throw new HttpStatusException(404, "Unknown API endpoint");
+                    }
+                    exchange.getResponseHeaders().set("Allow", match.allowedMethods());
+                    throw new HttpStatusException(405, "Method not allowed");
+                }
+                return;
             }
+            route = match.route();
+            route.run(exchange, new RouteTable.Call(route, match.params()));
         } catch (HttpStatusException ex) {
             Map<String, Object> error = Map.of("error", ex.getMessage());
             HttpUtils.sendJson(exchange, ex.getStatus(), error);
@@ -63,10 +114,50 @@ public class ApiHandler implements HttpHandler {
         } catch (Exception ex) {
             Map<String, Object> error = Map.of("error", "Internal server error", "detail", ex.getMessage());
             HttpUtils.sendJson(exchange, 500, error);
+        } finally {
+            if (route != null) {
+                route.record(exchange.getResponseCode(), System.nanoTime() - started);
+            }
+        }
+    }
+
+    // 在解析 body、查 DB 之前就擋下洪水請求；被擋時直接回 429
+    private void rateLimit(HttpExchange exchange, RouteTable.Call call, RouteTable.Chain next) throws IOException {
+        if (admit(exchange, call.route().limit())) {
+            next.proceed();
+        }
+    }
+
+    private boolean admit(HttpExchange exchange, RateLimiter.RouteClass routeClass) throws IOException {
+        String token = exchange.getRequestHeaders().getFirst("X-Auth-Token");
+        // 位址桶一律要計：驗證過的轉送請求用轉送節點簽進來的原始客戶端位址，其餘用連線位址
+        RateLimiter.Decision decision = rateLimiter.check(routeClass, token, cluster.clientAddress(exchange));
+        if (decision.allowed()) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf(decision.retryAfterSeconds()));
+        HttpUtils.sendJson(exchange, 429, Map.of("error", "Too many requests",
+                "retryAfterMs", TimeUnit.NANOSECONDS.toMillis(decision.retryAfterNanos())));
+        return false;
+    }
+
+    private void authenticate(HttpExchange exchange, RouteTable.Call call, RouteTable.Chain next) throws IOException {
+        call.setUser(requireUser(exchange));
+        next.proceed();
+    }
+
+    // 房間 id 決定擁有節點：不屬於本節點時整個請求轉給擁有者
+    private void resolveRoom(HttpExchange exchange, RouteTable.Call call, RouteTable.Chain next) throws IOException {
+        String roomId = call.param("roomId");
+        if (!cluster.isLocal(roomId) && !cluster.isForwarded(exchange)) {
+            cluster.forward(exchange, roomId, Map.of());
+            return;
         }
+        call.setRoom(dataStore.findRoom(roomId));
+        next.proceed();
     }
 
-    private void handleRegister(HttpExchange exchange) throws IOException {
+    private void handleRegister(HttpExchange exchange, RouteTable.Call call) throws IOException {
         Map<String, Object> payload = readJsonObject(exchange);
         String username = asString(payload.get("username"), "username");
         String password = asString(payload.get("password"), "password");
@@ -78,7 +169,7 @@ public class ApiHandler implements HttpHandler {
         HttpUtils.sendJson(exchange, 201, response);
     }
 
-    private void handleLogin(HttpExchange exchange) throws IOException {
+    private void handleLogin(HttpExchange exchange, RouteTable.Call call) throws IOException {
         Map<String, Object> payload = readJsonObject(exchange);
         String username = asString(payload.get("username"), "username");
         String password = asString(payload.get("password"), "password");
@@ -90,95 +181,225 @@ public class ApiHandler implements HttpHandler {
         HttpUtils.sendJson(exchange, 200, response);
     }
 
-    private void handleMe(HttpExchange exchange) throws IOException {
-        User user = requireUser(exchange);
+    private void handleLogout(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        dataStore.logout(exchange.getRequestHeaders().getFirst("X-Auth-Token"));
+        HttpUtils.sendNoContent(exchange);
+    }
+
+    private void handleMe(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        User user = call.user();
         HttpUtils.sendJson(exchange, 200, Map.of("user", user.toPublicDto()));
     }
 
-    private void handleGames(HttpExchange exchange) throws IOException {
+    private void handleGames(HttpExchange exchange, RouteTable.Call call) throws IOException {
         HttpUtils.sendJson(exchange, 200, Map.of("games", dataStore.getGameCatalog()));
     }
 
-    private void handlePing(HttpExchange exchange) throws IOException {
-        HttpUtils.sendJson(exchange, 200, Map.of("now", Instant.now().toString()));
+    private void handleGameRecord(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        sendGameRecord(exchange, dataStore.findGameRecord(call.param("gameId")));
     }
 
-    private void handleRoomsRoot(HttpExchange exchange) throws IOException {
-        String method = exchange.getRequestMethod().toUpperCase();
-        if ("GET".equals(method)) {
-            Map<String, String> query = parseQuery(exchange);
-            Optional<GameType> filter = Optional.empty();
-            if (query.containsKey("gameType")) {
-                filter = Optional.of(GameType.fromString(query.get("gameType")));
-            }
-            String nameQuery = query.getOrDefault("name", "").trim().toLowerCase();
-            String inviteQuery = query.getOrDefault("inviteCode", "").trim();
-            List<Map<String, Object>> rooms = new ArrayList<>();
-            for (Room room : dataStore.listRooms(filter)) {
-                if (!nameQuery.isEmpty() && !room.getName().toLowerCase().contains(nameQuery)) {
+    // 任一手之後的盤面：從最近的檢查點重播，不必解開整局
+    private void handleGamePosition(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        GameArchive archive = dataStore.findGameArchive(call.param("gameId"));
+        String rawPly = parseQuery(exchange).get("ply");
+        int ply;
+        try {
+            ply = rawPly == null ? archive.moveCount() : Integer.parseInt(rawPly);
+        } catch (NumberFormatException ex) {
+            throw new HttpStatusException(400, "Invalid ply");
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("gameId", archive.id());
+        response.put("gameType", archive.gameType().name());
+        response.put("ply", ply);
+        response.put("moveCount", archive.moveCount());
+        response.put("board", archive.positionAt(ply));
+        HttpUtils.sendJson(exchange, 200, response);
+    }
+
+    private void sendGameRecord(HttpExchange exchange, GameRecord record) throws IOException {
+        GameRecordExporter.Format format = GameRecordExporter.Format.resolve(parseQuery(exchange).get("format"), record.gameType());
+        HttpUtils.sendStream(exchange, 200, format.contentType(),
+                out -> GameRecordExporter.write(record, format, this::usernameOf, out));
+    }
+
+    /** 匯出自己下過的所有對局，每行一局（NDJSON），逐局讀取逐局寫出 */
+    private void handleMyGameRecords(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        User user = call.user();
+        GameRecordExporter.Format format = GameRecordExporter.Format.parse(parseQuery(exchange).get("format"));
+        List<String> gameIds = dataStore.findGameIdsByUser(user.getId());
+        HttpUtils.sendStream(exchange, 200, "application/x-ndjson; charset=utf-8", out -> {
+            for (String gameId : gameIds) {
+                GameRecord record;
+                try {
+                    record = dataStore.findGameRecord(gameId);
+                } catch (HttpStatusException ex) {
                     continue;
                 }
-                if (room.isPrivateRoom()) {
-                    if (inviteQuery.isEmpty() || !room.getInviteCode().equals(inviteQuery)) {
-                        continue;
-                    }
-                }
-                rooms.add(room.toDto(dataStore));
+                GameRecordExporter.writeNdjsonLine(record, format, this::usernameOf, out);
             }
-            HttpUtils.sendJson(exchange, 200, Map.of("rooms", rooms));
-        } else if ("POST".equals(method)) {
-            User user = requireUser(exchange);
-            Map<String, Object> payload = readJsonObject(exchange);
-            String name = asString(payload.get("name"), "name");
-            String gameTypeRaw = asString(payload.get("gameType"), "gameType");
-            GameType gameType = GameType.fromString(gameTypeRaw);
-            boolean privateRoom = asBoolean(payload.getOrDefault("private", Boolean.FALSE));
-            Room room = dataStore.createRoom(user, name, gameType, privateRoom);
-            HttpUtils.sendJson(exchange, 201, Map.of("room", room.toDto(dataStore)));
-        } else {
-            throw new HttpStatusException(405, "Method not allowed");
+        });
+    }
+
+    private String usernameOf(String userId) {
+        try {
+            return dataStore.getUserById(userId).getUsername();
+        } catch (HttpStatusException ex) {
+            return userId;
         }
     }
 
-    private void handleRoomsSubresource(HttpExchange exchange, String remainder) throws IOException {
-        String[] parts = remainder.split("/");
-        if (parts.length == 0 || parts[0].isBlank()) {
-            throw new HttpStatusException(404, "Room not specified");
+    private void handlePing(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        long receivedAt = System.currentTimeMillis();
+        Map<String, Object> response = new HashMap<>();
+        response.put("now", Instant.now().toString());
+        // 帶 t0 時回傳 NTP 式對時欄位（WebSocket 不可用時的備援）
+        String t0 = parseQuery(exchange).get("t0");
+        if (t0 != null) {
+            try {
+                response.put("t0", Long.parseLong(t0));
+            } catch (NumberFormatException ex) {
+                throw new HttpStatusException(400, "Invalid t0");
+            }
+            response.put("t1", receivedAt);
+            response.put("t2", System.currentTimeMillis());
         }
-        String roomId = parts[0];
-        Room room = dataStore.findRoom(roomId);
-        String method = exchange.getRequestMethod().toUpperCase();
+        HttpUtils.sendJson(exchange, 200, response);
+    }
 
-        if (parts.length == 1) {
-            if ("GET".equals(method)) {
-                // 查看房間詳情需驗證
-                requireUser(exchange);
-                HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
-            } else {
-                throw new HttpStatusException(405, "Unsupported method for room");
+    private void handleLatency(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        LatencyTracker latency = wsHub.getLatencyTracker();
+        // 全體使用者與連線位址只給本機維運（loopback 且未經反向代理）；其他人只看得到自己
+        boolean operator = isLocalOperator(exchange);
+        String self = call.user().getId();
+        Map<String, Object> response = new HashMap<>();
+        response.put("nodeId", cluster.getNodeId());
+        if (query.containsKey("userId")) {
+            if (!operator && !self.equals(query.get("userId"))) {
+                throw new HttpStatusException(403, "Only your own latency is visible");
             }
-            return;
+            response.put("user", latency.userStats(query.get("userId")));
+        } else if (query.containsKey("roomId")) {
+            response.put("room", latency.roomStats(query.get("roomId")));
+        } else if (operator) {
+            response.putAll(latency.toDto());
+            response.put("connections", wsHub.connectionLatency(null));
+        } else {
+            response.put("user", latency.userStats(self));
+            response.put("connections", wsHub.connectionLatency(self));
+        }
+        HttpUtils.sendJson(exchange, 200, response);
+    }
+
+    private void handleLeaderboard(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        User user = call.user();
+        Map<String, String> query = parseQuery(exchange);
+        String rawType = query.get("gameType");
+        if (rawType == null || rawType.isBlank()) {
+            throw new HttpStatusException(400, "gameType is required");
+        }
+        GameType gameType = GameType.fromString(rawType);
+        int offset;
+        int limit;
+        try {
+            offset = Math.max(0, Integer.parseInt(query.getOrDefault("offset", "0")));
+            limit = Math.min(MAX_LEADERBOARD_PAGE, Math.max(1, Integer.parseInt(query.getOrDefault("limit", "20"))));
+        } catch (NumberFormatException ex) {
+            throw new HttpStatusException(400, "Invalid offset or limit");
+        }
+        HttpUtils.sendJson(exchange, 200, dataStore.leaderboardPage(gameType, offset, limit, user.getId()));
+    }
+
+    // 配對佇列在收到請求的節點上；配到後房間也建在這個節點
+    private void handleEnqueue(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        User user = call.user();
+        Map<String, Object> payload = readJsonObject(exchange);
+        GameType gameType = GameType.fromString(asString(payload.get("gameType"), "gameType"));
+        long rtt = payload.get("rttMs") instanceof Number n
+                ? n.longValue()
+                : wsHub.getLatencyTracker().userMedianMillis(user.getId());
+        int rating = (int) Math.round(dataStore.ratingOf(user.getId(), gameType).rating());
+        Matchmaker.Ticket ticket = matchmaker.enqueue(user.getId(), gameType, rating, rtt);
+        HttpUtils.sendJson(exchange, 202, Map.of("match", ticket.toDto(), "queues", matchmaker.stats()));
+    }
+
+    private void handleMatchStatus(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Matchmaker.Ticket ticket = matchmaker.ticketOf(call.user().getId());
+        if (ticket == null) {
+            throw new HttpStatusException(404, "Not in matchmaking queue");
+        }
+        HttpUtils.sendJson(exchange, 200, Map.of("match", ticket.toDto()));
+    }
+
+    private void handleLeaveQueue(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        if (!matchmaker.cancel(call.user().getId())) {
+            throw new HttpStatusException(404, "Not in matchmaking queue");
         }
+        HttpUtils.sendNoContent(exchange);
+    }
 
-        String action = parts[1];
-        switch (action) {
-            case "join" -> handleJoinRoom(exchange, room);
-            case "leave" -> handleLeaveRoom(exchange, room);
-            case "start" -> handleStartRoom(exchange, room);
-            case "move" -> handleRoomMove(exchange, room);
-            case "restart" -> handleRestartRoom(exchange, room); // ✅ 新增
-            case "edit" -> handleEditRoom(exchange, room);
-            case "chat" -> handleChat(exchange, room);
-            default -> throw new HttpStatusException(404, "Unknown room action: " + action);
+    private void handleListRooms(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        Optional<GameType> filter = Optional.empty();
+        if (query.containsKey("gameType")) {
+            filter = Optional.of(GameType.fromString(query.get("gameType")));
         }
+        List<Map<String, Object>> rooms = dataStore.searchRooms(query.getOrDefault("name", ""), filter,
+                query.getOrDefault("inviteCode", ""));
+        HttpUtils.sendJson(exchange, 200, Map.of("rooms", rooms));
     }
 
-    private void handleRestartRoom(HttpExchange exchange, Room room) throws IOException {
-        ensurePost(exchange);
+    private void handleCreateRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        // 房間 id 決定擁有節點：不屬於本節點時轉給擁有者建立
+        String roomId = exchange.getRequestHeaders().getFirst(ClusterRouter.ROOM_ID_HEADER);
+        if (roomId == null || !cluster.isForwarded(exchange)) {
+            roomId = UUID.randomUUID().toString();
+            if (!cluster.isLocal(roomId)) {
+                cluster.forward(exchange, roomId, Map.of(ClusterRouter.ROOM_ID_HEADER, roomId));
+                return;
+            }
+        } else if (!isUuid(roomId) || !cluster.isLocal(roomId)) {
+            // 簽章正確但 id 不合格式或不歸本節點（例如節點清單不一致）：拒絕而不是代管
+            throw new HttpStatusException(421, "Room id is not owned by this node");
+        }
         User user = requireUser(exchange);
+        Map<String, Object> payload = readJsonObject(exchange);
+        String name = asString(payload.get("name"), "name");
+        String gameTypeRaw = asString(payload.get("gameType"), "gameType");
+        GameType gameType = GameType.fromString(gameTypeRaw);
+        boolean privateRoom = asBoolean(payload.getOrDefault("private", Boolean.FALSE));
+        GameClock.TimeControl timeControl = GameClock.TimeControl.parse(
+                payload.containsKey("timeControl") ? asString(payload.get("timeControl"), "timeControl") : null);
+        Room room = dataStore.createRoom(roomId, user, name, gameType, privateRoom, timeControl);
+        wsHub.broadcastRoom(room);
+        HttpUtils.sendJson(exchange, 201, Map.of("room", room.toDto(dataStore)));
+    }
+
+    private void handleGetRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        HttpUtils.sendJson(exchange, 200, Map.of("room", call.room().toDto(dataStore)));
+    }
+
+    private void handleLegalMoves(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        HttpUtils.sendJson(exchange, 200, Map.of("legalMoves", call.room().legalMoves(parseQuery(exchange).get("from"))));
+    }
+
+    private void handleRoomRecord(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        GameRecord record = call.room().currentGameRecord();
+        if (record == null) {
+            throw new HttpStatusException(404, "No game in this room");
+        }
+        sendGameRecord(exchange, record);
+    }
+
+    private void handleRestartRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
 
         // 只允許房主，且必須是 FINISHED 才能 restart
         room.restartGame(user.getId());
+        dataStore.scheduleFlagFall(room);
 
         dataStore.persistRoom(room);
         wsHub.broadcastRoom(room);
@@ -186,9 +407,9 @@ public class ApiHandler implements HttpHandler {
         HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
     }
 
-    private void handleJoinRoom(HttpExchange exchange, Room room) throws IOException {
-        ensurePost(exchange);
-        User user = requireUser(exchange);
+    private void handleJoinRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
 
         // 重新加入：先取消「空房延遲刪除」排程
         dataStore.cancelScheduledRoomDeletion(room.getId());
@@ -206,9 +427,9 @@ public class ApiHandler implements HttpHandler {
         HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
     }
 
-    private void handleLeaveRoom(HttpExchange exchange, Room room) throws IOException {
-        ensurePost(exchange);
-        User user = requireUser(exchange);
+    private void handleLeaveRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
 
         Instant expiry = room.removePlayer(user.getId());
         dataStore.persistRoom(room);
@@ -231,29 +452,34 @@ public class ApiHandler implements HttpHandler {
         HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
     }
 
-    private void handleStartRoom(HttpExchange exchange, Room room) throws IOException {
-        ensurePost(exchange);
-        User user = requireUser(exchange);
+    private void handleStartRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
         room.ensureHost(user.getId());
         room.startGame();
+        dataStore.scheduleFlagFall(room);
         dataStore.persistRoom(room);
         wsHub.broadcastRoom(room);
         addSystemMessage(room.getId(), user.getId(), "開始對局");
         HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
     }
 
-    private void handleRoomMove(HttpExchange exchange, Room room) throws IOException {
-        ensurePost(exchange);
-        User user = requireUser(exchange);
+    private void handleRoomMove(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        // 收到著手即取時間：讀 body、等房間鎖、驗證與落子的耗時都不計入行棋方
+        long receivedAt = System.nanoTime();
+        Room room = call.room();
+        User user = call.user();
         Map<String, Object> payload = readJsonObject(exchange);
-        room.submitMove(user.getId(), payload);
+        room.submitMove(user.getId(), payload, receivedAt);
+        dataStore.scheduleFlagFall(room);
+        dataStore.archiveFinishedGame(room);
         wsHub.broadcastRoom(room);
         HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
     }
 
-    private void handleEditRoom(HttpExchange exchange, Room room) throws IOException {
-        ensurePost(exchange);
-        User user = requireUser(exchange);
+    private void handleEditRoom(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
         Map<String, Object> payload = readJsonObject(exchange);
         String newName = payload.containsKey("name") ? asString(payload.get("name"), "name") : room.getName();
         GameType newGameType = payload.containsKey("gameType") ? GameType.fromString(asString(payload.get("gameType"), "gameType")) : room.getGameType();
@@ -264,7 +490,9 @@ public class ApiHandler implements HttpHandler {
         } else if (newPrivate && room.getInviteCode() != null) {
             inviteCode = room.getInviteCode();
         }
-        room.updateSettings(user.getId(), newName, newGameType, newPrivate, inviteCode);
+        GameClock.TimeControl timeControl = payload.containsKey("timeControl")
+                ? GameClock.TimeControl.parse(asString(payload.get("timeControl"), "timeControl")) : null;
+        room.updateSettings(user.getId(), newName, newGameType, newPrivate, inviteCode, timeControl);
         dataStore.persistRoom(room);
         wsHub.broadcastRoom(room);
         HttpUtils.sendJson(exchange, 200, Map.of("room", room.toDto(dataStore)));
@@ -273,47 +501,35 @@ public class ApiHandler implements HttpHandler {
     private void addSystemMessage(String roomId, String actorId, String text) {
         if (text == null || text.isBlank()) return;
         try {
-            dataStore.addChatMessage(roomId, actorId, "[系統] " + text);
-            List<Map<String, Object>> latest = dataStore.getChatMessages(roomId, 0);
-            Map<String, Object> msg = latest.isEmpty() ? Map.of() : latest.get(latest.size() - 1);
-            wsHub.broadcastChat(roomId, msg);
+            wsHub.broadcastChat(roomId, dataStore.addChatMessage(roomId, actorId, "[系統] " + text));
         } catch (Exception ignored) {
         }
     }
 
-    private void handleChat(HttpExchange exchange, Room room) throws IOException {
-        String method = exchange.getRequestMethod().toUpperCase();
-        if ("POST".equals(method)) {
-            User user = requireUser(exchange);
-            room.ensurePlayer(user.getId());
-            Map<String, Object> payload = readJsonObject(exchange);
-            String content = asString(payload.get("content"), "content");
-            dataStore.addChatMessage(room.getId(), user.getId(), content);
-            List<Map<String, Object>> latest = dataStore.getChatMessages(room.getId(), 0);
-            Map<String, Object> message = latest.isEmpty() ? Map.of() : latest.get(latest.size() - 1);
-            wsHub.broadcastChat(room.getId(), message);
-            HttpUtils.sendJson(exchange, 201, Map.of("ok", true, "message", message));
-        } else if ("GET".equals(method)) {
-            User user = requireUser(exchange);
-            room.ensurePlayer(user.getId());
-            Map<String, String> query = parseQuery(exchange);
-            long since = 0;
-            if (query.containsKey("sinceId")) {
-                try {
-                    since = Long.parseLong(query.get("sinceId"));
-                } catch (NumberFormatException ignored) { }
-            }
-            List<Map<String, Object>> messages = dataStore.getChatMessages(room.getId(), since);
-            HttpUtils.sendJson(exchange, 200, Map.of("messages", messages));
-        } else {
-            throw new HttpStatusException(405, "Unsupported chat method");
-        }
+    private void handlePostChat(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
+        room.ensurePlayer(user.getId());
+        Map<String, Object> payload = readJsonObject(exchange);
+        String content = asString(payload.get("content"), "content");
+        Map<String, Object> message = dataStore.addChatMessage(room.getId(), user.getId(), content);
+        wsHub.broadcastChat(room.getId(), message);
+        HttpUtils.sendJson(exchange, 201, Map.of("ok", true, "message", message));
     }
 
-    private void ensurePost(HttpExchange exchange) {
-        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-            throw new HttpStatusException(405, "Method not allowed");
+    private void handleGetChat(HttpExchange exchange, RouteTable.Call call) throws IOException {
+        Room room = call.room();
+        User user = call.user();
+        room.ensurePlayer(user.getId());
+        Map<String, String> query = parseQuery(exchange);
+        long since = 0;
+        if (query.containsKey("sinceId")) {
+            try {
+                since = Long.parseLong(query.get("sinceId"));
+            } catch (NumberFormatException ignored) { }
         }
+        List<Map<String, Object>> messages = dataStore.getChatMessages(room.getId(), since);
+        HttpUtils.sendJson(exchange, 200, Map.of("messages", messages));
     }
 
     private User requireUser(HttpExchange exchange) {
@@ -370,6 +586,20 @@ public class ApiHandler implements HttpHandler {
         return false;
     }
 
+    private boolean isLocalOperator(HttpExchange exchange) {
+        return exchange.getRemoteAddress().getAddress().isLoopbackAddress()
+                && !exchange.getRequestHeaders().containsKey("X-Forwarded-For")
+                && !exchange.getRequestHeaders().containsKey("Forwarded");
+    }
+
+    private boolean isUuid(String value) {
+        try {
+            return UUID.fromString(value).toString().equals(value);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     private Map<String, String> parseQuery(HttpExchange exchange) {
         String query = exchange.getRequestURI().getRawQuery();
         Map<String, String> params = new HashMap<>();
@@ -400,6 +630,6 @@ public class ApiHandler implements HttpHandler {
     private void addCorsHeaders(Headers headers) {
         headers.set("Access-Control-Allow-Origin", "*");
         headers.set("Access-Control-Allow-Headers", "Content-Type,X-Auth-Token");
-        headers.set("Access-Control-Allow-Methods", "GET,POST,OPTIONS");
+        headers.set("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
     }
 }
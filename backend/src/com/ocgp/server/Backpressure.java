@@ -0,0 +1,224 @@
+package com.ocgp.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Slow-consumer policy for WebSocket sends. The library buffers outbound frames per connection
+ * without a bound; this watches that buffer and either disconnects the client or downgrades it
+ * (chat dropped) once it exceeds {@code OCGP_WS_MAX_BUFFER_BYTES}.
+ *
+ * <p>Room updates are latest-wins: while a connection still has unsent data, a new update only
+ * replaces the pending one, and a flusher sends whatever is pending once the buffer drains.
+ * Admitting and flushing take the connection's outbox lock, and every update gets a sequence
+ * number, so a deferred update is never sent after a newer one and is dropped if a newer one
+ * already went out.
+ */
+public class Backpressure implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(Backpressure.class.getName());
+    private static final long DEFAULT_MAX_BUFFER_BYTES = 1024 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 50;
+    private static final String RESYNC = "{\"type\":\"resync\"}";
+
+    public enum Policy { DISCONNECT, DOWNGRADE }
+
+    private final long maxBufferedBytes;
+    private final Policy policy;
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder downgrades = new LongAdder();
+    private final Map<WebSocket, Outbox> deferred = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public Backpressure(long maxBufferedBytes, Policy policy) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.policy = policy;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-backpressure");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static Backpressure fromEnvironment() {
+        long max = DEFAULT_MAX_BUFFER_BYTES;
+        String env = System.getenv("OCGP_WS_MAX_BUFFER_BYTES");
+        if (env != null && !env.isBlank()) {
+            try {
+                max = Math.max(1024, Long.parseLong(env.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Policy policy = Policy.DISCONNECT;
+        String raw = System.getenv("OCGP_WS_SLOW_POLICY");
+        if (raw != null && !raw.isBlank()) {
+            try {
+                policy = Policy.valueOf(raw.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                LOGGER.warning("Ignoring invalid OCGP_WS_SLOW_POLICY: " + raw);
+            }
+        }
+        return new Backpressure(max, policy);
+    }
+
+    /** 連線送出佇列中尚未寫入 socket 的位元組數 */
+    public static long bufferedBytes(WebSocket conn) {
+        if (!(conn instanceof WebSocketImpl impl)) {
+            return 0;
+        }
+        long total = 0;
+        for (ByteBuffer buffer : impl.outQueue) {
+            total += buffer.remaining();
+        }
+        return total;
+    }
+
+    /**
+     * Returns true if a room update may be sent to {@code conn} right now. Otherwise the update
+     * replaces any pending one and goes out when the connection's buffer has drained.
+     */
+    public boolean admitUpdate(WebSocket conn, Outbox outbox, Object payload) {
+        synchronized (outbox) {
+            long sequence = ++outbox.admitted;
+            if (!conn.hasBufferedData() && outbox.pendingUpdate == null) {
+                outbox.lastSent = sequence;
+                return true;
+            }
+            if (outbox.pendingUpdate != null) {
+                coalesced.increment();
+            }
+            outbox.pendingUpdate = payload;
+            outbox.pendingSequence = sequence;
+        }
+        deferred.put(conn, outbox);
+        check(conn, outbox);
+        return false;
+    }
+
+    /** Returns true if a chat message may be sent; downgraded connections drop chat. */
+    public boolean admitChat(WebSocket conn, Outbox outbox) {
+        if (!check(conn, outbox) || outbox.downgraded) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the policy when {@code conn}'s buffer is over the limit.
+     * Returns false if the connection was dropped.
+     */
+    boolean check(WebSocket conn, Outbox outbox) {
+        if (!conn.hasBufferedData() || bufferedBytes(conn) <= maxBufferedBytes) {
+            return true;
+        }
+        if (policy == Policy.DISCONNECT) {
+            disconnects.increment();
+            LOGGER.info(() -> "Disconnecting slow WebSocket consumer " + conn.getRemoteSocketAddress());
+            // 直接關閉，不必等待塞滿的佇列送出 close frame
+            conn.closeConnection(CloseFrame.TRY_AGAIN_LATER, "Slow consumer");
+            return false;
+        }
+        if (!outbox.downgraded) {
+            outbox.downgraded = true;
+            downgrades.increment();
+            deferred.put(conn, outbox);
+        }
+        return true;
+    }
+
+    private void flush() {
+        for (Map.Entry<WebSocket, Outbox> entry : deferred.entrySet()) {
+            WebSocket conn = entry.getKey();
+            Outbox outbox = entry.getValue();
+            if (!conn.isOpen()) {
+                deferred.remove(conn);
+                continue;
+            }
+            if (conn.hasBufferedData()) {
+                check(conn, outbox);
+                continue;
+            }
+            // 先移出再取值：之後進來的更新會自行重新登記
+            deferred.remove(conn);
+            // 取出與送出都持有 outbox 鎖，admitUpdate 不會在兩者之間插隊直送較新的更新
+            synchronized (outbox) {
+                Object payload = outbox.pendingUpdate;
+                outbox.pendingUpdate = null;
+                try {
+                    if (payload != null && outbox.pendingSequence > outbox.lastSent) {
+                        send(conn, payload);
+                        outbox.lastSent = outbox.pendingSequence;
+                    } else if (payload != null) {
+                        coalesced.increment();
+                    }
+                    if (outbox.downgraded) {
+                        outbox.downgraded = false;
+                        // 降級期間丟掉的聊天由 client 自行補抓
+                        conn.send(RESYNC);
+                    }
+                } catch (WebsocketNotConnectedException ignored) {
+                }
+            }
+        }
+    }
+
+    /** Sends a text ({@code String}) or binary ({@code ByteBuffer}) payload; buffers may be shared. */
+    static void send(WebSocket conn, Object payload) {
+        if (payload instanceof ByteBuffer buffer) {
+            conn.send(buffer.duplicate());
+        } else {
+            conn.send((String) payload);
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+    }
+
+    public Map<String, Object> toDto() {
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("policy", policy.name().toLowerCase(Locale.ROOT));
+        dto.put("maxBufferedBytes", maxBufferedBytes);
+        dto.put("coalescedFrames", coalesced.sum());
+        dto.put("droppedFrames", dropped.sum());
+        dto.put("slowDisconnects", disconnects.sum());
+        dto.put("downgrades", downgrades.sum());
+        dto.put("deferredConnections", deferred.size());
+        return dto;
+    }
+
+    /**
+     * Per-connection send state: the frame format negotiated at handshake, the newest room update
+     * waiting for the buffer to drain, and whether the connection is currently downgraded. The
+     * update fields are guarded by the outbox itself.
+     */
+    public static final class Outbox {
+        final boolean binary;
+        private Object pendingUpdate;
+        private long pendingSequence;
+        private long admitted;
+        private long lastSent;
+        volatile boolean downgraded;
+
+        public Outbox(boolean binary) {
+            this.binary = binary;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.ocgp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoder for the opt-in {@value #SUBPROTOCOL} WebSocket subprotocol.
+ *
+ * <p>A room update becomes one binary frame (big-endian):
+ * <pre>
+ * u8   kind         1 = room state
+ * u32  metaLength   followed by the room DTO as UTF-8 JSON, without gameState.board/moves
+ * u8   game         0 = none, 1 = Gobang, 2 = Xiangqi
+ * Gobang:  u8 boardSize, board at 2 bits per cell (x-major; 0 empty, 1 black, 2 white),
+ *          u16 moveCount, 1 byte per move (x * boardSize + y)
+ * Xiangqi: 90 bytes row-major, 1 byte per cell (0 empty, else color &lt;&lt; 3 | pieceType + 1),
+ *          u16 moveCount, 3 bytes per move: from (r * 9 + c), to, flags
+ *          (bits 0-2 piece type, bits 3-5 captured type + 1, bit 6 check)
+ * </pre>
+ * Move authors and colors alternate from {@code playerOrder}, so they are not sent.
+ * Works from the room DTO (or its parsed JSON), so updates relayed from other nodes can be encoded too.
+ */
+public final class BinaryRoomCodec {
+    public static final String SUBPROTOCOL = "ocgp.bin.v1";
+    static final int KIND_ROOM_STATE = 1;
+    static final int GAME_NONE = 0;
+    static final int GAME_GOBANG = 1;
+    static final int GAME_XIANGQI = 2;
+    private static final List<String> PIECE_TYPES =
+            List.of("GENERAL", "ADVISOR", "ELEPHANT", "HORSE", "CHARIOT", "CANNON", "SOLDIER");
+    private static final int XIANGQI_COLS = 9;
+    private static final int XIANGQI_CELLS = 90;
+
+    private BinaryRoomCodec() {
+    }
+
+    /** Encodes a {@code roomUpdate} message ({@code {"type":"roomUpdate","room":{...}}}). */
+    public static ByteBuffer encodeRoomUpdate(Map<String, Object> message) {
+        return encodeRoom(asMap(message.get("room")));
+    }
+
+    public static ByteBuffer encodeRoom(Map<String, Object> room) {
+        Map<String, Object> gameState = room.get("gameState") instanceof Map<?, ?> ? asMap(room.get("gameState")) : null;
+        Map<String, Object> meta = new LinkedHashMap<>(room);
+        if (gameState != null) {
+            Map<String, Object> slimState = new LinkedHashMap<>(gameState);
+            slimState.remove("board");
+            slimState.remove("moves");
+            meta.put("gameState", slimState);
+        }
+        byte[] metaBytes = JsonUtil.stringify(meta).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(metaBytes.length + 160);
+        out.write(KIND_ROOM_STATE);
+        writeInt(out, metaBytes.length);
+        out.write(metaBytes, 0, metaBytes.length);
+        if (gameState == null || gameState.get("board") == null) {
+            out.write(GAME_NONE);
+        } else if ("CHINESE_CHESS".equals(gameState.get("type"))) {
+            out.write(GAME_XIANGQI);
+            writeXiangqi(out, gameState);
+        } else {
+            out.write(GAME_GOBANG);
+            writeGobang(out, gameState);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static void writeGobang(ByteArrayOutputStream out, Map<String, Object> state) {
+        List<?> board = (List<?>) state.get("board");
+        int size = board.size();
+        out.write(size);
+        byte[] packed = new byte[(size * size * 2 + 7) / 8];
+        int cell = 0;
+        for (Object rawRow : board) {
+            for (Object value : (List<?>) rawRow) {
+                int stone = ((Number) value).intValue();
+                int code = stone == 1 ? 1 : stone == -1 ? 2 : 0;
+                packed[cell >> 2] |= (byte) (code << ((cell & 3) * 2));
+                cell++;
+            }
+        }
+        out.write(packed, 0, packed.length);
+        List<?> moves = (List<?>) state.get("moves");
+        writeShort(out, moves.size());
+        for (Object rawMove : moves) {
+            Map<String, Object> move = asMap(rawMove);
+            out.write(intOf(move, "x") * size + intOf(move, "y"));
+        }
+    }
+
+    private static void writeXiangqi(ByteArrayOutputStream out, Map<String, Object> state) {
+        byte[] cells = new byte[XIANGQI_CELLS];
+        int idx = 0;
+        for (Object rawRow : (List<?>) state.get("board")) {
+            for (Object rawCell : (List<?>) rawRow) {
+                if (rawCell != null) {
+                    Map<String, Object> piece = asMap(rawCell);
+                    int color = "BLACK".equals(piece.get("color")) ? 1 : 0;
+                    cells[idx] = (byte) (color << 3 | (PIECE_TYPES.indexOf(piece.get("type")) + 1));
+                }
+                idx++;
+            }
+        }
+        out.write(cells, 0, cells.length);
+        List<?> moves = (List<?>) state.get("moves");
+        writeShort(out, moves.size());
+        for (Object rawMove : moves) {
+            Map<String, Object> move = asMap(rawMove);
+            out.write(intOf(move, "fromRow") * XIANGQI_COLS + intOf(move, "fromCol"));
+            out.write(intOf(move, "toRow") * XIANGQI_COLS + intOf(move, "toCol"));
+            int flags = PIECE_TYPES.indexOf(move.get("piece"));
+            Object captured = move.get("captured");
+            if (captured != null) {
+                flags |= (PIECE_TYPES.indexOf(captured) + 1) << 3;
+            }
+            if (Boolean.TRUE.equals(move.get("isCheck"))) {
+                flags |= 1 << 6;
+            }
+            out.write(flags);
+        }
+    }
+
+    private static int intOf(Map<String, Object> map, String key) {
+        return ((Number) map.get(key)).intValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,181 @@
+package com.ocgp.server;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for chat inserts. Senders enqueue and wait; a single thread takes whatever
+ * piled up while the previous batch was committing, optionally lingers up to
+ * {@code OCGP_CHAT_COMMIT_MS} (default 0) for more, caps the batch at
+ * {@code OCGP_CHAT_COMMIT_BATCH} messages and inserts it in one transaction. A sender returns
+ * only after its batch has committed.
+ */
+final class ChatGroupCommit implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ChatGroupCommit.class.getName());
+    private static final long DEFAULT_DELAY_MS = 0;
+    private static final int DEFAULT_BATCH = 64;
+
+    private record Pending(String roomId, String userId, String content, Instant createdAt,
+                           CompletableFuture<ChatMessage> done) {
+    }
+
+    private final SqliteConnectionPool db;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    static ChatGroupCommit fromEnvironment(SqliteConnectionPool db) {
+        long delayMs = resolve("OCGP_CHAT_COMMIT_MS", DEFAULT_DELAY_MS, 0);
+        int batch = (int) resolve("OCGP_CHAT_COMMIT_BATCH", DEFAULT_BATCH, 1);
+        return new ChatGroupCommit(db, TimeUnit.MILLISECONDS.toNanos(delayMs), batch);
+    }
+
+    ChatGroupCommit(SqliteConnectionPool db, long maxDelayNanos, int maxBatch) {
+        this.db = db;
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::run, "ocgp-chat-commit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Blocks until the message is committed; the returned message carries its row id. */
+    ChatMessage append(String roomId, String userId, String content) {
+        if (closed) {
+            throw new HttpStatusException(503, "Server is shutting down");
+        }
+        Pending pending = new Pending(roomId, userId, content, Instant.now(), new CompletableFuture<>());
+        queue.add(pending);
+        try {
+            return pending.done().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpStatusException(500, "Failed to save chat message");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HttpStatusException status) {
+                throw status;
+            }
+            throw new HttpStatusException(500, "Failed to save chat message");
+        }
+    }
+
+    /** Commits what is still queued, then stops the writer thread. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch && !closed) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            commit(batch);
+            batch.clear();
+        }
+        for (Pending late; (late = queue.poll()) != null; ) {
+            late.done().completeExceptionally(new HttpStatusException(503, "Server is shutting down"));
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        List<ChatMessage> saved = new ArrayList<>(batch.size());
+        try {
+            db.transaction(c -> {
+                PreparedStatement insert = c.prepare("""
+                        INSERT INTO chat_messages(room_id, user_id, content, created_at)
+                        VALUES (?, ?, ?, ?)
+                        """);
+                PreparedStatement lastId = c.prepare("SELECT last_insert_rowid()");
+                for (Pending pending : batch) {
+                    insert.setString(1, pending.roomId());
+                    insert.setString(2, pending.userId());
+                    insert.setString(3, pending.content());
+                    insert.setString(4, pending.createdAt().toString());
+                    try {
+                        insert.executeUpdate();
+                    } catch (SQLException e) {
+                        // 只影響這一筆（例如房間剛被刪除），同批其他訊息照常提交
+                        LOGGER.log(Level.WARNING, "Failed to add chat message to room " + pending.roomId(), e);
+                        saved.add(null);
+                        continue;
+                    }
+                    try (ResultSet rs = lastId.executeQuery()) {
+                        long id = rs.next() ? rs.getLong(1) : 0L;
+                        saved.add(new ChatMessage(id, pending.roomId(), pending.userId(), pending.content(), pending.createdAt()));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to commit chat batch", e);
+            for (Pending pending : batch) {
+                pending.done().completeExceptionally(new HttpStatusException(500, "Failed to save chat message"));
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            ChatMessage message = saved.get(i);
+            if (message != null) {
+                batch.get(i).done().complete(message);
+            } else {
+                batch.get(i).done().completeExceptionally(new HttpStatusException(500, "Failed to save chat message"));
+            }
+        }
+    }
+
+    private static long resolve(String name, long fallback, long min) {
+        String env = System.getenv(name);
+        if (env == null || env.isBlank()) {
+            return fallback;
+        }
+        try {
+            long value = Long.parseLong(env.trim());
+            if (value >= min) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+            // fall through
+        }
+        LOGGER.warning("Ignoring invalid " + name + ": " + env);
+        return fallback;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public record ChatMessage(long id, String roomId, String userId, String content, Instant createdAt) {
+
+    public Map<String, Object> toDto() {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("id", id);
+        entry.put("roomId", roomId);
+        entry.put("userId", userId);
+        entry.put("content", content);
+        entry.put("createdAt", createdAt.toString());
+        return entry;
+    }
+}
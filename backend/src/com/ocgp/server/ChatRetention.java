@@ -0,0 +1,115 @@
+package com.ocgp.server;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background chat pruning. Every minute deletes messages older than {@code OCGP_CHAT_MAX_AGE_DAYS}
+ * (default 30) and trims rooms to their newest {@code OCGP_CHAT_MAX_PER_ROOM} messages (default
+ * 500); {@code 0} turns either rule off. Work is done in small batches with a pause in between,
+ * so chat inserts never wait long behind the pruner.
+ */
+public class ChatRetention implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ChatRetention.class.getName());
+    private static final long DEFAULT_MAX_AGE_DAYS = 30;
+    private static final int DEFAULT_MAX_PER_ROOM = 500;
+    private static final long INTERVAL_SECONDS = 60;
+    private static final int BATCH = 500;
+    private static final long PAUSE_MS = 10;
+
+    private final StorageEngine storage;
+    private final Duration maxAge;
+    private final int maxPerRoom;
+    private final ScheduledExecutorService executor;
+
+    public static ChatRetention fromEnvironment(StorageEngine storage) {
+        long days = resolve("OCGP_CHAT_MAX_AGE_DAYS", DEFAULT_MAX_AGE_DAYS);
+        int perRoom = (int) resolve("OCGP_CHAT_MAX_PER_ROOM", DEFAULT_MAX_PER_ROOM);
+        return new ChatRetention(storage, days > 0 ? Duration.ofDays(days) : null, perRoom);
+    }
+
+    public ChatRetention(StorageEngine storage, Duration maxAge, int maxPerRoom) {
+        this.storage = storage;
+        this.maxAge = maxAge;
+        this.maxPerRoom = maxPerRoom;
+        if (maxAge == null && maxPerRoom <= 0) {
+            this.executor = null;
+            return;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(new DataStore.DaemonThreadFactory("ocgp-chat-retention"));
+        executor.scheduleWithFixedDelay(this::prune, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Runs one full pass; returns the number of messages deleted. */
+    public long prune() {
+        long started = System.nanoTime();
+        long deleted = 0;
+        try {
+            if (maxAge != null) {
+                Instant cutoff = Instant.now().minus(maxAge);
+                int batch;
+                do {
+                    batch = storage.deleteChatBefore(cutoff, BATCH);
+                    deleted += batch;
+                } while (batch == BATCH && pause());
+            }
+            if (maxPerRoom > 0) {
+                for (String roomId : storage.findRoomsWithChatOver(maxPerRoom)) {
+                    int batch;
+                    do {
+                        batch = storage.trimChat(roomId, maxPerRoom, BATCH);
+                        deleted += batch;
+                    } while (batch == BATCH && pause());
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Chat retention pass failed", e);
+        }
+        if (deleted > 0) {
+            long total = deleted;
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            LOGGER.info(() -> String.format("Chat retention removed %d messages in %d ms", total, ms));
+        }
+        return deleted;
+    }
+
+    // 批次之間讓出寫入連線；被中斷（關機）時停止這一輪
+    private static boolean pause() {
+        try {
+            Thread.sleep(PAUSE_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long resolve(String name, long fallback) {
+        String env = System.getenv(name);
+        if (env == null || env.isBlank()) {
+            return fallback;
+        }
+        try {
+            long value = Long.parseLong(env.trim());
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+            // fall through
+        }
+        LOGGER.warning("Ignoring invalid " + name + ": " + env);
+        return fallback;
+    }
+}
@@ -1,6 +1,7 @@
 package com.ocgp.server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,14 +10,23 @@ import java.time.Instant;
 public class ChineseChessGameSession implements GameSession {
     private static final int ROWS = 10;
     private static final int COLS = 9;
+    private static final PieceType[] PIECE_TYPES = PieceType.values();
+    private static final PieceColor[] PIECE_COLORS = PieceColor.values();
+    // 車、炮最多 17 個去處
+    private static final int MAX_PIECE_MOVES = 17;
 
     private final Piece[][] board = new Piece[ROWS][COLS];
-    private final List<Map<String, Object>> moves = new ArrayList<>();
+    // 每步一個 int，位元配置見 encodeMove
+    private final MoveLog moves = new MoveLog();
     private List<String> players = List.of();
     private int currentPlayerIndex = 0;
     private String status = "READY";
     private String winnerId;
     private Instant startedAt;
+    // 每次盤面或輪次變動就遞增；合法著法依此快取
+    private int positionVersion;
+    private int legalMovesVersion = -1;
+    private int[] legalMovesCache;
 
     @Override
     public GameType getGameType() {
@@ -35,6 +45,7 @@ public class ChineseChessGameSession implements GameSession {
         status = "IN_PROGRESS";
         winnerId = null;
         startedAt = Instant.now();
+        positionVersion++;
     }
 
     @Override
@@ -90,25 +101,10 @@ public class ChineseChessGameSession implements GameSession {
         }
 
 
-        Map<String, Object> move = new HashMap<>();
-        move.put("playerId", playerId);
-        move.put("fromRow", fromRow);
-        move.put("fromCol", fromCol);
-        move.put("toRow", toRow);
-        move.put("toCol", toCol);
-        move.put("piece", piece.type.name());
-        move.put("color", piece.color.name());
-        move.put("moveNumber", moves.size() + 1);
-
         PieceColor opponentColor = (piece.color == PieceColor.RED) ? PieceColor.BLACK : PieceColor.RED;
         boolean isCheck = isPlayerInCheck(opponentColor);
-        move.put("isCheck", isCheck);
-
-        if (captured != null) {
-            move.put("captured", captured.type.name());
-            move.put("capturedColor", captured.color.name());
-        }
-        moves.add(move);
+        moves.add(encodeMove(fromRow, fromCol, toRow, toCol, piece, captured, isCheck));
+        positionVersion++;
 
         if (captured != null && captured.type == PieceType.GENERAL) {
             winnerId = playerId;
@@ -151,7 +147,8 @@ public class ChineseChessGameSession implements GameSession {
         dto.put("board", state);
         dto.put("status", status);
         dto.put("winnerId", winnerId);
-        dto.put("moves", List.copyOf(moves));
+        List<String> order = players;
+        dto.put("moves", moves.view((index, code) -> decodeMove(order.get(index % order.size()), index, code)));
         dto.put("playerOrder", players);
         dto.put("currentPlayerColor", currentPlayerIndex == 0 ? "RED" : "BLACK");
         dto.put("startedAt", startedAt != null ? startedAt.toString() : null);
@@ -178,6 +175,7 @@ public class ChineseChessGameSession implements GameSession {
         }
         status = "FINISHED";
         winnerId = winner;
+        positionVersion++;
     }
 
     @Override
@@ -190,6 +188,93 @@ public class ChineseChessGameSession implements GameSession {
         return startedAt;
     }
 
+    @Override
+    public synchronized void restoreStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    @Override
+    public synchronized void discardMoves() {
+        moves.clear();
+    }
+
+    /**
+     * Legal moves of the side to move, or of the piece on {@code from} ({@code "row,col"});
+     * empty once the game is over. Generated from {@link XiangqiTables} and kept until the
+     * position changes.
+     */
+    @Override
+    public synchronized Map<String, Object> legalMoves(String from) {
+        int fromSquare = -1;
+        if (from != null && !from.isBlank()) {
+            String[] parts = from.split(",");
+            if (parts.length != 2) {
+                throw new HttpStatusException(400, "from must be row,col");
+            }
+            int row = extractInt(parts[0], "from");
+            int col = extractInt(parts[1], "from");
+            validateBounds(row, col);
+            fromSquare = XiangqiTables.square(row, col);
+        }
+        if (legalMovesVersion != positionVersion) {
+            legalMovesCache = "IN_PROGRESS".equals(status) ? generateLegalMoves(currentPlayerIndex == 0 ? PieceColor.RED : PieceColor.BLACK) : new int[0];
+            legalMovesVersion = positionVersion;
+        }
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (int code : legalMovesCache) {
+            int source = code / XiangqiTables.SQUARES;
+            int target = code % XiangqiTables.SQUARES;
+            if (fromSquare >= 0 && source != fromSquare) {
+                continue;
+            }
+            Map<String, Object> move = new HashMap<>();
+            move.put("fromRow", source / COLS);
+            move.put("fromCol", source % COLS);
+            move.put("toRow", target / COLS);
+            move.put("toCol", target % COLS);
+            move.put("capture", board[target / COLS][target % COLS] != null);
+            list.add(move);
+        }
+        Map<String, Object> dto = new HashMap<>();
+        dto.put("type", getGameType().name());
+        dto.put("version", positionVersion);
+        dto.put("currentPlayerColor", currentPlayerIndex == 0 ? "RED" : "BLACK");
+        dto.put("moves", list);
+        return dto;
+    }
+
+    /*
+     * bits 0-15 fromRow, fromCol, toRow, toCol (4 bits each), 16-18 piece type, 19 color,
+     * 20-22 captured type + 1 (0 = none), 23 captured color, 24 check
+     */
+    private static int encodeMove(int fromRow, int fromCol, int toRow, int toCol, Piece piece, Piece captured, boolean isCheck) {
+        int code = fromRow | fromCol << 4 | toRow << 8 | toCol << 12
+                | piece.type.ordinal() << 16 | piece.color.ordinal() << 19;
+        if (captured != null) {
+            code |= (captured.type.ordinal() + 1) << 20 | captured.color.ordinal() << 23;
+        }
+        return isCheck ? code | 1 << 24 : code;
+    }
+
+    private static Map<String, Object> decodeMove(String playerId, int index, int code) {
+        Map<String, Object> move = new HashMap<>();
+        move.put("playerId", playerId);
+        move.put("fromRow", code & 0xF);
+        move.put("fromCol", code >> 4 & 0xF);
+        move.put("toRow", code >> 8 & 0xF);
+        move.put("toCol", code >> 12 & 0xF);
+        move.put("piece", PIECE_TYPES[code >> 16 & 0x7].name());
+        move.put("color", PIECE_COLORS[code >> 19 & 0x1].name());
+        move.put("moveNumber", index + 1);
+        move.put("isCheck", (code >> 24 & 0x1) != 0);
+        int captured = code >> 20 & 0x7;
+        if (captured != 0) {
+            move.put("captured", PIECE_TYPES[captured - 1].name());
+            move.put("capturedColor", PIECE_COLORS[code >> 23 & 0x1].name());
+        }
+        return move;
+    }
+
     private void ensureInProgress() {
         if (!"IN_PROGRESS".equals(status)) {
             throw new HttpStatusException(409, "Game already finished");
@@ -299,37 +384,99 @@ public class ChineseChessGameSession implements GameSession {
     }
 
     private boolean hasAnyLegalMove(PieceColor color) {
-        for (int fromRow = 0; fromRow < ROWS; fromRow++) {
-            for (int fromCol = 0; fromCol < COLS; fromCol++) {
-                Piece piece = board[fromRow][fromCol];
-                if (piece == null || piece.color != color) {
+        int[] buffer = new int[MAX_PIECE_MOVES];
+        for (int sq = 0; sq < XiangqiTables.SQUARES; sq++) {
+            Piece piece = board[sq / COLS][sq % COLS];
+            if (piece == null || piece.color != color) {
+                continue;
+            }
+            int count = pseudoMoves(piece, sq, buffer);
+            for (int i = 0; i < count; i++) {
+                if (isMoveSafeForOwnGeneral(piece, sq / COLS, sq % COLS, buffer[i] / COLS, buffer[i] % COLS)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 每個合法著法編為 from * 90 + to
+    private int[] generateLegalMoves(PieceColor color) {
+        int[] buffer = new int[MAX_PIECE_MOVES];
+        int[] legal = new int[64];
+        int size = 0;
+        for (int sq = 0; sq < XiangqiTables.SQUARES; sq++) {
+            Piece piece = board[sq / COLS][sq % COLS];
+            if (piece == null || piece.color != color) {
+                continue;
+            }
+            int count = pseudoMoves(piece, sq, buffer);
+            for (int i = 0; i < count; i++) {
+                if (!isMoveSafeForOwnGeneral(piece, sq / COLS, sq % COLS, buffer[i] / COLS, buffer[i] % COLS)) {
                     continue;
                 }
+                if (size == legal.length) {
+                    legal = Arrays.copyOf(legal, size * 2);
+                }
+                legal[size++] = sq * XiangqiTables.SQUARES + buffer[i];
+            }
+        }
+        return Arrays.copyOf(legal, size);
+    }
 
-                for (int toRow = 0; toRow < ROWS; toRow++) {
-                    for (int toCol = 0; toCol < COLS; toCol++) {
-                        if (fromRow == toRow && fromCol == toCol) {
+    /**
+     * Destinations of the piece on {@code sq} by movement rules alone (own-general safety is
+     * checked separately), written to {@code out}; returns how many.
+     */
+    private int pseudoMoves(Piece piece, int sq, int[] out) {
+        int side = piece.color.ordinal();
+        int count = 0;
+        switch (piece.type) {
+            case GENERAL -> count = stepMoves(piece, XiangqiTables.GENERAL_TARGETS[side][sq], null, out, count);
+            case ADVISOR -> count = stepMoves(piece, XiangqiTables.ADVISOR_TARGETS[side][sq], null, out, count);
+            case ELEPHANT -> count = stepMoves(piece, XiangqiTables.ELEPHANT_TARGETS[side][sq], XiangqiTables.ELEPHANT_EYES[side][sq], out, count);
+            case HORSE -> count = stepMoves(piece, XiangqiTables.HORSE_TARGETS[sq], XiangqiTables.HORSE_LEGS[sq], out, count);
+            case SOLDIER -> count = stepMoves(piece, XiangqiTables.SOLDIER_TARGETS[side][sq], null, out, count);
+            case CHARIOT, CANNON -> {
+                boolean cannon = piece.type == PieceType.CANNON;
+                for (int[] ray : XiangqiTables.RAYS[sq]) {
+                    boolean screened = false;
+                    for (int target : ray) {
+                        Piece occupant = board[target / COLS][target % COLS];
+                        if (occupant == null) {
+                            if (!screened) {
+                                out[count++] = target;
+                            }
                             continue;
                         }
-
-                        Piece target = board[toRow][toCol];
-                        if (target != null && target.color == color) {
-                            continue; // 不能吃己方
-                        }
-
-                        boolean capturing = (target != null);
-                        if (!isLegalMove(piece, fromRow, fromCol, toRow, toCol, capturing)) {
+                        if (cannon && !screened) {
+                            screened = true;
                             continue;
                         }
-
-                        if (isMoveSafeForOwnGeneral(piece, fromRow, fromCol, toRow, toCol)) {
-                            return true;
+                        if (occupant.color != piece.color) {
+                            out[count++] = target;
                         }
+                        break;
                     }
                 }
             }
         }
-        return false;
+        return count;
+    }
+
+    // blockers 與 targets 同索引：該格有子則不能走
+    private int stepMoves(Piece piece, int[] targets, int[] blockers, int[] out, int count) {
+        for (int i = 0; i < targets.length; i++) {
+            int target = targets[i];
+            if (blockers != null && board[blockers[i] / COLS][blockers[i] % COLS] != null) {
+                continue;
+            }
+            Piece occupant = board[target / COLS][target % COLS];
+            if (occupant == null || occupant.color != piece.color) {
+                out[count++] = target;
+            }
+        }
+        return count;
     }
 
     private boolean isMoveSafeForOwnGeneral(Piece piece, int fromRow, int fromCol, int toRow, int toCol) {
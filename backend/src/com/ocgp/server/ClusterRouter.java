@@ -0,0 +1,217 @@
+package com.ocgp.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Room ownership and command forwarding between nodes.
+ *
+ * <p>Configured with {@code OCGP_NODE_ID} and {@code OCGP_CLUSTER_NODES}
+ * ({@code id=http://host:port,...}). Without cluster configuration this node owns every room.
+ * A cluster also needs {@code OCGP_CLUSTER_SECRET}: forwarded requests carry an HMAC over the
+ * sending node, a timestamp, the request line, the assigned room id and the client's address, and
+ * only requests with a valid, recent signature are treated as coming from another node.
+ */
+public class ClusterRouter {
+    public static final String FORWARDED_HEADER = "X-OCGP-Forwarded-By";
+    public static final String ROOM_ID_HEADER = "X-OCGP-Room-Id";
+    static final String FORWARD_TIME_HEADER = "X-OCGP-Forward-Time";
+    static final String FORWARD_SIGNATURE_HEADER = "X-OCGP-Forward-Signature";
+    static final String CLIENT_ADDRESS_HEADER = "X-OCGP-Client-Address";
+    private static final long MAX_FORWARD_SKEW_SECONDS = 30;
+    private static final Logger LOGGER = Logger.getLogger(ClusterRouter.class.getName());
+    private static final String DEFAULT_NODE_ID = "local";
+    private static final Set<String> UNFORWARDED_RESPONSE_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        UNFORWARDED_RESPONSE_HEADERS.addAll(List.of("Connection", "Keep-Alive", "Transfer-Encoding", "Content-Length",
+                "TE", "Trailer", "Upgrade", "Proxy-Authenticate", "Date"));
+    }
+
+    private final String nodeId;
+    private final Map<String, String> nodeUrls;
+    private final ConsistentHashRing ring;
+    private final HttpClient client;
+    private final ClusterSecret secret;
+
+    public ClusterRouter(String nodeId, Map<String, String> nodeUrls) {
+        this(nodeId, nodeUrls, null);
+    }
+
+    ClusterRouter(String nodeId, Map<String, String> nodeUrls, ClusterSecret secret) {
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.nodeUrls = Map.copyOf(nodeUrls);
+        this.ring = nodeUrls.isEmpty() ? null : new ConsistentHashRing(nodeUrls.keySet());
+        this.client = nodeUrls.isEmpty() ? null : HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        if (ring != null && !nodeUrls.containsKey(nodeId)) {
+            throw new IllegalStateException("OCGP_NODE_ID " + nodeId + " is not listed in OCGP_CLUSTER_NODES");
+        }
+        if (ring != null && secret == null) {
+            throw new IllegalStateException("OCGP_CLUSTER_SECRET is required when OCGP_CLUSTER_NODES is set");
+        }
+    }
+
+    public static ClusterRouter fromEnvironment() {
+        String nodeId = System.getenv("OCGP_NODE_ID");
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = DEFAULT_NODE_ID;
+        }
+        Map<String, String> nodes = new LinkedHashMap<>();
+        String raw = System.getenv("OCGP_CLUSTER_NODES");
+        if (raw != null && !raw.isBlank()) {
+            for (String entry : raw.split(",")) {
+                int idx = entry.indexOf('=');
+                if (idx <= 0) {
+                    throw new IllegalStateException("Invalid OCGP_CLUSTER_NODES entry: " + entry);
+                }
+                nodes.put(entry.substring(0, idx).trim(), entry.substring(idx + 1).trim());
+            }
+        }
+        ClusterRouter router = new ClusterRouter(nodeId.trim(), nodes, ClusterSecret.fromEnvironment());
+        LOGGER.info(() -> String.format("Cluster node %s (%d nodes)", router.nodeId, Math.max(1, nodes.size())));
+        return router;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isClustered() {
+        return ring != null;
+    }
+
+    public String ownerOf(String roomId) {
+        return ring == null ? nodeId : ring.ownerOf(roomId);
+    }
+
+    public boolean isLocal(String roomId) {
+        return ring == null || nodeId.equals(ring.ownerOf(roomId));
+    }
+
+    /**
+     * True only for a request forwarded by another cluster node: the forwarding headers must carry
+     * a known node id, a timestamp within 30 seconds and a valid signature. A client that merely
+     * sets the headers is treated like any other client.
+     */
+    public boolean isForwarded(HttpExchange exchange) {
+        Headers headers = exchange.getRequestHeaders();
+        String sender = headers.getFirst(FORWARDED_HEADER);
+        if (secret == null || sender == null || !nodeUrls.containsKey(sender)) {
+            return false;
+        }
+        String time = headers.getFirst(FORWARD_TIME_HEADER);
+        try {
+            if (time == null || Math.abs(Instant.now().getEpochSecond() - Long.parseLong(time)) > MAX_FORWARD_SKEW_SECONDS) {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return secret.verify(headers.getFirst(FORWARD_SIGNATURE_HEADER), forwardFields(sender, time,
+                exchange.getRequestMethod(), exchange.getRequestURI().toString(), headers.getFirst(ROOM_ID_HEADER),
+                headers.getFirst(CLIENT_ADDRESS_HEADER)));
+    }
+
+    /**
+     * Address of the client behind the request: the one the forwarding node signed for a verified
+     * forward, otherwise the socket's remote address.
+     */
+    public String clientAddress(HttpExchange exchange) {
+        String forwarded = exchange.getRequestHeaders().getFirst(CLIENT_ADDRESS_HEADER);
+        if (forwarded != null && isForwarded(exchange)) {
+            return forwarded;
+        }
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private static String[] forwardFields(String sender, String time, String method, String uri, String roomId,
+                                          String clientAddress) {
+        return new String[]{sender, time, method, uri, roomId == null ? "" : roomId,
+                clientAddress == null ? "" : clientAddress};
+    }
+
+    /**
+     * Replays the request on the room's owner node and copies the response back.
+     */
+    public void forward(HttpExchange exchange, String roomId, Map<String, String> extraHeaders) throws IOException {
+        String owner = ownerOf(roomId);
+        String base = nodeUrls.get(owner);
+        if (base == null) {
+            throw new HttpStatusException(503, "Room owner unavailable");
+        }
+        String pathAndQuery = exchange.getRequestURI().getRawPath()
+                + (exchange.getRequestURI().getRawQuery() != null ? "?" + exchange.getRequestURI().getRawQuery() : "");
+        URI target = URI.create(base + pathAndQuery);
+        String time = String.valueOf(Instant.now().getEpochSecond());
+        String clientAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
+        byte[] body;
+        try (InputStream is = exchange.getRequestBody()) {
+            body = is.readAllBytes();
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(target)
+                .timeout(Duration.ofSeconds(5))
+                .header(FORWARDED_HEADER, nodeId)
+                .header(FORWARD_TIME_HEADER, time)
+                .header(CLIENT_ADDRESS_HEADER, clientAddress)
+                .header(FORWARD_SIGNATURE_HEADER, secret.sign(forwardFields(nodeId, time, exchange.getRequestMethod(),
+                        pathAndQuery, extraHeaders.get(ROOM_ID_HEADER), clientAddress)))
+                .method(exchange.getRequestMethod(), body.length == 0
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body));
+        Headers in = exchange.getRequestHeaders();
+        for (String name : new String[]{"X-Auth-Token", "Content-Type"}) {
+            String value = in.getFirst(name);
+            if (value != null) {
+                builder.header(name, value);
+            }
+        }
+        extraHeaders.forEach(builder::header);
+
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpStatusException(503, "Forwarding interrupted");
+        } catch (IOException e) {
+            LOGGER.warning(() -> String.format("Forward to %s failed: %s", owner, e.getMessage()));
+            throw new HttpStatusException(503, "Room owner unavailable");
+        }
+        // 擁有者節點的回應標頭（Retry-After、Allow 等）原樣帶回，只略過逐跳標頭與本機會自行產生的
+        Headers out = exchange.getResponseHeaders();
+        response.headers().map().forEach((name, values) -> {
+            if (!UNFORWARDED_RESPONSE_HEADERS.contains(name)) {
+                out.put(name, values);
+            }
+        });
+        byte[] responseBody = response.body();
+        exchange.sendResponseHeaders(response.statusCode(), responseBody.length == 0 ? -1 : responseBody.length);
+        if (responseBody.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(responseBody);
+            }
+        } else {
+            exchange.close();
+        }
+    }
+}
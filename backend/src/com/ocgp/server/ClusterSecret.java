@@ -0,0 +1,63 @@
+package com.ocgp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Shared secret for node-to-node traffic ({@code OCGP_CLUSTER_SECRET}): HMAC-SHA256 over
+ * forwarded requests and the event broker handshake. Every node and the broker must use the
+ * same value.
+ */
+final class ClusterSecret {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+
+    /** Returns null when {@code OCGP_CLUSTER_SECRET} is not set. */
+    static ClusterSecret fromEnvironment() {
+        String secret = System.getenv("OCGP_CLUSTER_SECRET");
+        if (secret == null || secret.isBlank()) {
+            return null;
+        }
+        return new ClusterSecret(secret.trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    ClusterSecret(byte[] secret) {
+        if (secret.length < 16) {
+            throw new IllegalStateException("OCGP_CLUSTER_SECRET must be at least 16 bytes");
+        }
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " unavailable", e);
+            }
+        });
+    }
+
+    /** Signature over the fields joined by newlines. */
+    String sign(String... fields) {
+        return ENCODER.encodeToString(macs.get().doFinal(String.join("\n", fields).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    boolean verify(String signature, String... fields) {
+        if (signature == null) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(DECODER.decode(sign(fields)), DECODER.decode(signature.trim()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
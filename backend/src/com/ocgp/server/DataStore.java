@@ -3,21 +3,23 @@ package com.ocgp.server;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
@@ -28,53 +30,92 @@ import java.util.logging.Logger;
 public class DataStore implements AutoCloseable {
     private static final Duration EMPTY_ROOM_TTL = Duration.ofSeconds(30);
     private static final Logger LOGGER = Logger.getLogger(DataStore.class.getName());
-    private static final String DEFAULT_DB = "out/data/ocgp.sqlite";
+    private static final int ROOM_LOCK_STRIPES = 64;
+    private static final long REVOCATION_REFRESH_SECONDS = 30;
+    private static final long DEFAULT_SNAPSHOT_SECONDS = 10;
 
     private final Map<String, User> usersById = new ConcurrentHashMap<>();
     private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+    // 註冊進行中的帳號名稱（小寫）：寫入 DB 成功前先佔住名稱，登入看不到
+    private final Set<String> pendingUsernames = ConcurrentHashMap.newKeySet();
+    // 只存舊版 UUID token（遷移期間仍接受）；新登入發的是不需查表的簽章 token
     private final Map<String, Session> sessionsByToken = new ConcurrentHashMap<>();
     private final Map<String, Room> roomsById = new ConcurrentHashMap<>();
-    private static final String CHAT_TABLE_SQL = """
-            CREATE TABLE IF NOT EXISTS chat_messages(
-                id INTEGER PRIMARY KEY AUTOINCREMENT,
-                room_id TEXT NOT NULL,
-                user_id TEXT NOT NULL,
-                content TEXT NOT NULL,
-                created_at TEXT NOT NULL,
-                FOREIGN KEY(room_id) REFERENCES rooms(id) ON DELETE CASCADE,
-                FOREIGN KEY(user_id) REFERENCES users(id) ON DELETE CASCADE
-            )
-            """;
+    // 其他節點擁有的房間：由事件匯流排的 roomUpdate 維護，供大廳列表與 WebSocket 驗證使用
+    private final Map<String, Map<String, Object>> remoteRooms = new ConcurrentHashMap<>();
+    private final RoomSearchIndex roomIndex = new RoomSearchIndex();
 
     private final Map<String, ScheduledFuture<?>> pendingRoomDeletions = new ConcurrentHashMap<>();
+    // 每個對局中的房間一個單次計時，在輪到方旗落的那一刻觸發
+    private final Map<String, ScheduledFuture<?>> flagTimers = new ConcurrentHashMap<>();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ocgp-room-janitor"));
     private WebSocketHub wsHub;
-
-    private final Path dbPath;
-    private final Connection conn;
+    private RoomEventBus eventBus;
+    private final ClusterRouter cluster;
+
+    private final StorageEngine storage;
+    private final SessionTokens tokens;
+    private final ChatRetention chatRetention;
+    private final Leaderboard leaderboard = new Leaderboard();
+    // 依房間 id 分段上鎖，讓同一房間的寫入保持順序，不同房間互不阻塞
+    private final Object[] roomLocks = new Object[ROOM_LOCK_STRIPES];
+    // 對局快照：定期與關機時寫入，重啟時先讀它以接續進行中的對局；停用時為 null
+    private final RoomSnapshotFile snapshotFile;
+    private final ScheduledExecutorService snapshotWriter;
 
     public DataStore() {
-        this.dbPath = resolveDbPath();
-        this.conn = initConnection(dbPath);
-        initSchema();
+        this(new ClusterRouter("local", Map.of()));
+    }
+
+    public DataStore(ClusterRouter cluster) {
+        this(cluster, StorageEngine.fromEnvironment());
+    }
+
+    public DataStore(ClusterRouter cluster, StorageEngine storage) {
+        this.cluster = cluster;
+        this.storage = storage;
+        for (int i = 0; i < roomLocks.length; i++) {
+            roomLocks[i] = new Object();
+        }
+        this.tokens = SessionTokens.fromEnvironment(storage, cluster.isClustered());
+        long snapshotSeconds = resolveSnapshotSeconds();
+        this.snapshotFile = snapshotSeconds > 0
+                ? new RoomSnapshotFile(resolveDataPath("OCGP_SNAPSHOT_PATH", "out/data/rooms-" + cluster.getNodeId() + ".snap"))
+                : null;
         loadFromDb();
-        scheduler.scheduleAtFixedRate(this::tickActiveRooms, 1, 1, TimeUnit.SECONDS);
+        this.chatRetention = ChatRetention.fromEnvironment(storage);
+        scheduler.scheduleWithFixedDelay(tokens::refresh, REVOCATION_REFRESH_SECONDS, REVOCATION_REFRESH_SECONDS, TimeUnit.SECONDS);
+        if (snapshotFile != null) {
+            snapshotWriter = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ocgp-snapshot"));
+            snapshotWriter.scheduleWithFixedDelay(() -> writeSnapshot(false), snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        } else {
+            snapshotWriter = null;
+        }
     }
 
-    public synchronized User register(String username, String password) {
+    public User register(String username, String password) {
         if (username == null || username.isBlank()) {
             throw new HttpStatusException(400, "Username is required");
         }
         if (password == null || password.isBlank()) {
             throw new HttpStatusException(400, "Password is required");
         }
-        if (usersByName.containsKey(username.toLowerCase())) {
+        User user = new User(username.trim(), password);
+        String key = user.getUsername().toLowerCase();
+        // 先佔名稱再檢查已註冊者：與發佈順序（先 usersByName 後釋放佔位）搭配，同名註冊只有一個成功
+        if (!pendingUsernames.add(key)) {
             throw new HttpStatusException(409, "Username already exists");
         }
-        User user = new User(username.trim(), password);
-        usersById.put(user.getId(), user);
-        usersByName.put(user.getUsername().toLowerCase(), user);
-        persistUser(user);
+        try {
+            if (usersByName.containsKey(key)) {
+                throw new HttpStatusException(409, "Username already exists");
+            }
+            persistUser(user);
+            usersById.put(user.getId(), user);
+            usersByName.put(key, user);
+        } finally {
+            pendingUsernames.remove(key);
+        }
         LOGGER.info(() -> "User registered: " + user.getUsername() + " (" + user.getId() + ")");
         return user;
     }
@@ -84,50 +125,86 @@ public class DataStore implements AutoCloseable {
             throw new HttpStatusException(400, "Missing credentials");
         }
         User user = usersByName.get(username.toLowerCase());
+        if (user == null && cluster.isClustered()) {
+            user = cacheUser(storage.findUserByUsername(username));
+        }
         if (user == null || !user.verifyPassword(password)) {
             LOGGER.warning(() -> "Invalid login attempt for user: " + username);
             throw new HttpStatusException(401, "Invalid credentials");
         }
-        LOGGER.info(() -> "User login: " + user.getUsername() + " (" + user.getId() + ")");
-        return user;
+        User found = user;
+        LOGGER.info(() -> "User login: " + found.getUsername() + " (" + found.getId() + ")");
+        return found;
     }
 
-    public synchronized Session createSession(String userId) {
-        Session session = new Session(userId);
-        sessionsByToken.put(session.getToken(), session);
-        persistSession(session);
-        return session;
+    public Session createSession(String userId) {
+        return tokens.issue(userId);
     }
 
     public User findUserByToken(String token) {
         if (token == null || token.isBlank()) {
             throw new HttpStatusException(401, "Missing authentication token");
         }
+        if (SessionTokens.isSigned(token)) {
+            User user = findUser(tokens.verify(token).userId());
+            if (user == null) {
+                throw new HttpStatusException(401, "Session user missing");
+            }
+            return user;
+        }
         Session session = sessionsByToken.get(token);
+        if (session == null && cluster.isClustered()) {
+            session = loadSessionFromDb(token);
+        }
         if (session == null) {
             throw new HttpStatusException(401, "Invalid session");
         }
-        User user = usersById.get(session.getUserId());
+        User user = findUser(session.getUserId());
         if (user == null) {
             throw new HttpStatusException(401, "Session user missing");
         }
         return user;
     }
 
+    /** Revokes a signed token, or deletes a legacy session. */
+    public void logout(String token) {
+        if (SessionTokens.isSigned(token)) {
+            tokens.revoke(tokens.verify(token));
+            return;
+        }
+        sessionsByToken.remove(token);
+        storage.deleteSession(token);
+    }
+
+    public Map<String, Object> sessionStats() {
+        Map<String, Object> dto = new LinkedHashMap<>(tokens.stats());
+        dto.put("legacySessions", sessionsByToken.size());
+        return dto;
+    }
+
     public User getUserById(String userId) {
-        User user = usersById.get(userId);
+        User user = findUser(userId);
         if (user == null) {
             throw new HttpStatusException(404, "User not found: " + userId);
         }
         return user;
     }
 
-    public synchronized Room createRoom(User host, String name, GameType gameType, boolean privateRoom) {
+    public Room createRoom(User host, String name, GameType gameType, boolean privateRoom) {
+        return createRoom(UUID.randomUUID().toString(), host, name, gameType, privateRoom, GameClock.TimeControl.DEFAULT);
+    }
+
+    public Room createRoom(String roomId, User host, String name, GameType gameType, boolean privateRoom,
+                           GameClock.TimeControl timeControl) {
         if (name == null || name.isBlank()) {
             throw new HttpStatusException(400, "Room name is required");
         }
+        if (roomsById.containsKey(roomId)) {
+            throw new HttpStatusException(409, "Room already exists");
+        }
         String inviteCode = privateRoom ? generateInviteCode() : null;
-        Room room = new Room(name.trim(), gameType, host.getId(), privateRoom, inviteCode, Instant.now());
+        Room room = new Room(roomId, name.trim(), gameType, host.getId(), privateRoom, inviteCode, Instant.now());
+        room.setTimeControl(timeControl);
         room.addPlayer(host.getId());
         roomsById.put(room.getId(), room);
         cancelScheduledRoomDeletion(room.getId());
@@ -136,6 +213,26 @@ public class DataStore implements AutoCloseable {
         return room;
     }
 
+    /**
+     * Creates and starts a room for two players paired by the {@link Matchmaker}; the first
+     * player hosts. The room id is always owned by this node.
+     */
+    public Room startMatchedGame(GameType gameType, String firstUserId, String secondUserId) {
+        User first = getUserById(firstUserId);
+        User second = getUserById(secondUserId);
+        String roomId = UUID.randomUUID().toString();
+        while (!cluster.isLocal(roomId)) {
+            roomId = UUID.randomUUID().toString();
+        }
+        Room room = createRoom(roomId, first, first.getUsername() + " vs " + second.getUsername(), gameType, false,
+                GameClock.TimeControl.DEFAULT);
+        room.addPlayer(second.getId());
+        room.startGame();
+        scheduleFlagFall(room);
+        persistRoom(room);
+        return room;
+    }
+
     public List<Room> listRooms(Optional<GameType> filter) {
         List<Room> rooms = new ArrayList<>(roomsById.values());
         rooms.sort((a, b) -> a.getCreatedAt().compareTo(b.getCreatedAt()));
@@ -154,6 +251,76 @@ public class DataStore implements AutoCloseable {
         return filtered;
     }
 
+    /**
+     * Latest DTOs of rooms owned by other nodes, as relayed over the event bus.
+     */
+    public List<Map<String, Object>> listRemoteRooms(Optional<GameType> filter) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Map<String, Object> dto : remoteRooms.values()) {
+            if (filter.isEmpty() || filter.get().name().equals(dto.get("gameType"))) {
+                result.add(dto);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lobby search over local and remote rooms, oldest first: public rooms whose name contains
+     * {@code name} (blank matches all) plus the private room with {@code inviteCode}.
+     */
+    public List<Map<String, Object>> searchRooms(String name, Optional<GameType> filter, String inviteCode) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (String roomId : roomIndex.search(name, filter.orElse(null), inviteCode)) {
+            Room room = roomsById.get(roomId);
+            Map<String, Object> dto = room != null ? room.toDto(this) : remoteRooms.get(roomId);
+            if (dto != null) {
+                result.add(dto);
+            }
+        }
+        return result;
+    }
+
+    public void ensureRoomMember(String roomId, String userId) {
+        Room room = roomsById.get(roomId);
+        if (room != null) {
+            room.ensurePlayer(userId);
+            return;
+        }
+        Map<String, Object> remote = remoteRooms.get(roomId);
+        if (remote == null) {
+            throw new HttpStatusException(404, "Room not found");
+        }
+        if (!(remote.get("playerIds") instanceof List<?> players) || !players.contains(userId)) {
+            throw new HttpStatusException(403, "You are not part of this room");
+        }
+    }
+
+    /**
+     * 觀戰權限：房間存在即可；私人房需邀請碼（房內玩家除外）。
+     */
+    public void ensureRoomViewable(String roomId, String userId, String inviteCode) {
+        Room room = roomsById.get(roomId);
+        if (room != null) {
+            if (!room.getPlayerIds().contains(userId)) {
+                room.ensureInviteCode(inviteCode);
+            }
+            return;
+        }
+        Map<String, Object> remote = remoteRooms.get(roomId);
+        if (remote == null) {
+            throw new HttpStatusException(404, "Room not found");
+        }
+        boolean isPlayer = remote.get("playerIds") instanceof List<?> players && players.contains(userId);
+        if (Boolean.TRUE.equals(remote.get("private")) && !isPlayer && !Objects.equals(remote.get("inviteCode"), inviteCode)) {
+            throw new HttpStatusException(403, "Invalid invite code");
+        }
+    }
+
+    /** 房間目前的 DTO；遠端房間取目錄中最後一次收到的狀態 */
+    public Map<String, Object> roomSnapshot(String roomId) {
+        Room room = roomsById.get(roomId);
+        return room != null ? room.toDto(this) : remoteRooms.get(roomId);
+    }
 
     public Room findRoom(String roomId) {
         Room room = roomsById.get(roomId);
@@ -163,10 +330,20 @@ public class DataStore implements AutoCloseable {
         return room;
     }
 
-    public synchronized void deleteRoom(String roomId) {
-        roomsById.remove(roomId);
-        cancelScheduledRoomDeletion(roomId);
-        deleteRoomFromDb(roomId);
+    public void deleteRoom(String roomId) {
+        synchronized (roomLock(roomId)) {
+            roomsById.remove(roomId);
+            roomIndex.remove(roomId);
+            cancelScheduledRoomDeletion(roomId);
+            ScheduledFuture<?> flagTimer = flagTimers.remove(roomId);
+            if (flagTimer != null) {
+                flagTimer.cancel(false);
+            }
+            deleteRoomFromDb(roomId);
+        }
+        if (eventBus != null) {
+            eventBus.publish(new RoomEvent(RoomEvent.ROOM_DELETED, roomId, cluster.getNodeId(), null));
+        }
         persistAsync();
     }
 
@@ -217,18 +394,64 @@ public class DataStore implements AutoCloseable {
         this.wsHub = hub;
     }
 
-    private void tickActiveRooms() {
-        List<Room> changed = new ArrayList<>();
-        for (Room room : roomsById.values()) {
-            if (room.checkTurnTimeout()) {
-                changed.add(room);
-                persistRoom(room);
+    public void setRoomEventBus(RoomEventBus bus) {
+        this.eventBus = bus;
+        bus.subscribe(this::onRoomEvent);
+    }
+
+    public ClusterRouter getCluster() {
+        return cluster;
+    }
+
+    private void onRoomEvent(RoomEvent event) {
+        if (cluster.getNodeId().equals(event.originNodeId()) || cluster.isLocal(event.roomId())) {
+            return;
+        }
+        if (RoomEvent.ROOM_DELETED.equals(event.type())) {
+            remoteRooms.remove(event.roomId());
+            roomIndex.remove(event.roomId());
+        } else if (RoomEvent.ROOM_UPDATE.equals(event.type())) {
+            Object room = JsonUtil.parseObject(event.payload()).get("room");
+            if (room instanceof Map<?, ?> map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> dto = (Map<String, Object>) map;
+                remoteRooms.put(event.roomId(), dto);
+                indexRemoteRoom(event.roomId(), dto);
             }
         }
-        if (wsHub != null) {
-            for (Room room : changed) {
-                wsHub.broadcastRoom(room);
+    }
+
+    /**
+     * (Re)arms the room's flag-fall timer for the current deadline of the side to move; call
+     * after every start, restart and move. Any earlier timer for the room is cancelled.
+     */
+    public void scheduleFlagFall(Room room) {
+        long deadline = room.flagDeadlineNanos();
+        flagTimers.compute(room.getId(), (id, existing) -> {
+            if (existing != null) {
+                existing.cancel(false);
+            }
+            if (deadline == Long.MAX_VALUE) {
+                return null;
             }
+            long delay = Math.max(0, deadline - System.nanoTime());
+            return scheduler.schedule(() -> onFlagDeadline(room), delay, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    private void onFlagDeadline(Room room) {
+        if (roomsById.get(room.getId()) != room) {
+            return;
+        }
+        if (!room.checkFlagFall()) {
+            // 期間有人落子：依新的 deadline 重排
+            scheduleFlagFall(room);
+            return;
+        }
+        flagTimers.remove(room.getId());
+        persistRoom(room);
+        if (wsHub != null) {
+            wsHub.broadcastRoom(room);
         }
     }
 
@@ -244,58 +467,99 @@ public class DataStore implements AutoCloseable {
         return games;
     }
 
-    public synchronized void persistRoom(Room room) {
-        try {
-            try (PreparedStatement ps = conn.prepareStatement("""
-                    INSERT INTO rooms(id, name, game_type, host_user_id, private_room, invite_code, started, status, current_player_id, created_at, turn_deadline, started_at)
-                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-                    ON CONFLICT(id) DO UPDATE SET
-                        name=excluded.name,
-                        game_type=excluded.game_type,
-                        host_user_id=excluded.host_user_id,
-                        private_room=excluded.private_room,
-                        invite_code=excluded.invite_code,
-                        started=excluded.started,
-                        status=excluded.status,
-                        current_player_id=excluded.current_player_id,
-                        turn_deadline=excluded.turn_deadline,
-                        started_at=excluded.started_at
-                    """)) {
-                ps.setString(1, room.getId());
-                ps.setString(2, room.getName());
-                ps.setString(3, room.getGameType().name());
-                ps.setString(4, room.getHostUserId());
-                ps.setInt(5, room.isPrivateRoom() ? 1 : 0);
-                ps.setString(6, room.getInviteCode());
-                ps.setInt(7, room.isStarted() ? 1 : 0);
-                ps.setString(8, room.getStatus());
-                ps.setString(9, room.getCurrentPlayerId());
-                ps.setString(10, room.getCreatedAt().toString());
-                ps.setString(11, room.getTurnDeadline() != null ? room.getTurnDeadline().toString() : null);
-                ps.setString(12, room.getStartedAt() != null ? room.getStartedAt().toString() : null);
-                ps.executeUpdate();
+    public void persistRoom(Room room) {
+        synchronized (roomLock(room.getId())) {
+            if (roomsById.get(room.getId()) != room) {
+                // 房間已被刪除（或被取代），避免把舊資料寫回 DB
+                return;
             }
+            RoomRecord record = RoomRecord.capture(room);
+            storage.saveRoom(record);
+            indexRoom(record);
+        }
+        archiveFinishedGame(room);
+    }
 
-            try (PreparedStatement del = conn.prepareStatement("DELETE FROM room_players WHERE room_id = ?")) {
-                del.setString(1, room.getId());
-                del.executeUpdate();
-            }
-            List<String> players = room.getPlayerIds();
-            try (PreparedStatement ins = conn.prepareStatement("INSERT INTO room_players(room_id, user_id, position) VALUES (?, ?, ?)")) {
-                for (int i = 0; i < players.size(); i++) {
-                    ins.setString(1, room.getId());
-                    ins.setString(2, players.get(i));
-                    ins.setInt(3, i);
-                    ins.addBatch();
-                }
-                ins.executeBatch();
+    private void indexRoom(RoomRecord record) {
+        roomIndex.put(record.id(), record.name(), record.gameType(), record.privateRoom(), record.inviteCode(),
+                record.createdAt());
+    }
+
+    private void indexRemoteRoom(String roomId, Map<String, Object> dto) {
+        try {
+            roomIndex.put(roomId, String.valueOf(dto.get("name")), GameType.fromString(String.valueOf(dto.get("gameType"))),
+                    Boolean.TRUE.equals(dto.get("private")), (String) dto.get("inviteCode"),
+                    Instant.parse(String.valueOf(dto.get("createdAt"))));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring malformed remote room " + roomId, e);
+            roomIndex.remove(roomId);
+        }
+    }
+
+    /** 對局結束時把棋譜封存到儲存層；每局只會寫一次 */
+    public void archiveFinishedGame(Room room) {
+        GameArchive archive = room.archiveFinishedGame();
+        if (archive != null) {
+            storage.saveGameArchive(archive);
+            LOGGER.info(() -> String.format("Archived game %s of room %s (%d moves, %d bytes)",
+                    archive.id(), archive.roomId(), archive.moveCount(), archive.data().length));
+            // 每局只封存一次，積分也就只結算一次（含超時判負）
+            List<PlayerRating> ratings = leaderboard.recordResult(archive);
+            if (!ratings.isEmpty()) {
+                storage.saveRatings(ratings);
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Failed to persist room " + room.getId(), e);
         }
     }
 
-    public synchronized Map<String, Object> snapshot() {
+    public PlayerRating ratingOf(String userId, GameType gameType) {
+        return leaderboard.ratingOf(userId, gameType);
+    }
+
+    /** One leaderboard page plus the caller's own rank (null until they finish a game of this type). */
+    public Map<String, Object> leaderboardPage(GameType gameType, int offset, int limit, String userId) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        int rank = offset;
+        for (PlayerRating rating : leaderboard.page(gameType, offset, limit)) {
+            entries.add(leaderboardEntry(rating, ++rank));
+        }
+        int myRank = leaderboard.rankOf(userId, gameType);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("gameType", gameType.name());
+        result.put("total", leaderboard.size(gameType));
+        result.put("offset", offset);
+        result.put("entries", entries);
+        result.put("me", myRank > 0 ? leaderboardEntry(leaderboard.ratingOf(userId, gameType), myRank) : null);
+        return result;
+    }
+
+    private Map<String, Object> leaderboardEntry(PlayerRating rating, int rank) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("rank", rank);
+        User user = findUser(rating.userId());
+        entry.put("username", user != null ? user.getUsername() : null);
+        entry.putAll(rating.toDto());
+        return entry;
+    }
+
+    public GameArchive findGameArchive(String gameId) {
+        GameArchive archive = storage.findGameArchive(gameId);
+        if (archive == null) {
+            throw new HttpStatusException(404, "Game not found");
+        }
+        return archive;
+    }
+
+    public GameRecord findGameRecord(String gameId) {
+        return findGameArchive(gameId).toRecord();
+    }
+
+    /** Game ids only, so a bulk export loads one record at a time. */
+    public List<String> findGameIdsByUser(String userId) {
+        return storage.findGameIdsByUser(userId);
+    }
+
+
+    public Map<String, Object> snapshot() {
         Map<String, Object> result = new LinkedHashMap<>();
         result.put("users", List.copyOf(usersById.values()));
         result.put("sessions", List.copyOf(sessionsByToken.values()));
@@ -303,19 +567,48 @@ public class DataStore implements AutoCloseable {
         return result;
     }
 
+    /**
+     * Writes the final snapshot; call on shutdown once no more moves can arrive. Only a snapshot
+     * written here is marked clean and trusted on its own at the next startup.
+     */
+    public void saveSnapshotOnShutdown() {
+        if (snapshotWriter == null) {
+            return;
+        }
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSnapshot(true);
+    }
+
+    private void writeSnapshot(boolean clean) {
+        long started = System.nanoTime();
+        try {
+            long bytes = snapshotFile.write(roomsById.values(), clean);
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            LOGGER.log(clean ? Level.INFO : Level.FINE, () -> String.format("Wrote %s room snapshot: rooms=%d bytes=%d (%d ms)",
+                    clean ? "final" : "periodic", roomsById.size(), bytes, ms));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to write room snapshot " + snapshotFile.path(), e);
+        }
+    }
+
     @Override
     public void close() {
         scheduler.shutdownNow();
-        try {
-            conn.close();
-        } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "Failed to close DB connection", e);
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdownNow();
         }
+        chatRetention.close();
+        storage.close();
     }
 
-    private Path resolveDbPath() {
-        String env = System.getenv("OCGP_DB_PATH");
-        Path path = (env != null && !env.isBlank()) ? Path.of(env) : Path.of(DEFAULT_DB);
+    static Path resolveDataPath(String envName, String defaultPath) {
+        String env = System.getenv(envName);
+        Path path = (env != null && !env.isBlank()) ? Path.of(env) : Path.of(defaultPath);
         Path abs = path.toAbsolutePath().normalize();
         try {
             Path parent = abs.getParent();
@@ -323,201 +616,184 @@ public class DataStore implements AutoCloseable {
                 Files.createDirectories(parent);
             }
         } catch (IOException e) {
-            throw new IllegalStateException("Failed to create DB directory", e);
+            throw new IllegalStateException("Failed to create data directory", e);
         }
         return abs;
     }
 
-    private Connection initConnection(Path path) {
+    /**
+     * Loads users, sessions, rooms and ratings on parallel threads (they are independent tables;
+     * the SQLite engine serves each from its own read connection) and logs how long each took.
+     */
+    private void loadFromDb() {
+        long started = System.nanoTime();
+        Map<String, Long> phaseMs = new ConcurrentHashMap<>();
+        List<Room> withGames = new ArrayList<>();
+        ExecutorService loaders = Executors.newFixedThreadPool(4, new DaemonThreadFactory("ocgp-startup"));
         try {
-            Class.forName("org.sqlite.JDBC");
-            Connection c = DriverManager.getConnection("jdbc:sqlite:" + path);
-            try (Statement st = c.createStatement()) {
-                st.execute("PRAGMA journal_mode=WAL;");
-                st.execute("PRAGMA foreign_keys=ON;");
+            Future<Integer> users = submitPhase(loaders, phaseMs, "users", () -> {
+                List<User> loaded = storage.loadUsers();
+                for (User user : loaded) {
+                    usersById.put(user.getId(), user);
+                    usersByName.put(user.getUsername().toLowerCase(), user);
+                }
+                return loaded.size();
+            });
+            Future<Integer> sessions = submitPhase(loaders, phaseMs, "sessions", () -> {
+                List<Session> loaded = storage.loadSessions();
+                for (Session session : loaded) {
+                    sessionsByToken.put(session.getToken(), session);
+                }
+                return loaded.size();
+            });
+            Future<String> rooms = submitPhase(loaders, phaseMs, "rooms", () -> loadRooms(withGames));
+            Future<Integer> ratings = submitPhase(loaders, phaseMs, "ratings", () -> {
+                List<PlayerRating> loaded = storage.loadRatings();
+                leaderboard.load(loaded);
+                return loaded.size();
+            });
+            int userCount = await(users);
+            int sessionCount = await(sessions);
+            String source = await(rooms);
+            int ratingCount = await(ratings);
+            // 積分載入後才封存快照裡已結束但尚未封存的對局，結算才不會被覆蓋
+            for (Room room : withGames) {
+                archiveFinishedGame(room);
+                scheduleFlagFall(room);
+                room.getDisconnectedUntil().forEach((userId, until) -> scheduleDisconnectCheck(room.getId(), userId, until));
+            }
+            long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            LOGGER.info(() -> String.format("Loaded from DB in %d ms: users=%d (%d ms) sessions=%d (%d ms) "
+                            + "rooms=%d (%s, %d games resumed, %d ms) ratings=%d (%d ms)",
+                    totalMs, userCount, phaseMs.get("users"), sessionCount, phaseMs.get("sessions"),
+                    roomsById.size(), source, withGames.size(), phaseMs.get("rooms"), ratingCount, phaseMs.get("ratings")));
+        } finally {
+            loaders.shutdown();
+        }
+    }
+
+    /** Fills {@link #roomsById} from the snapshot and/or the rooms table; returns where they came from. */
+    private String loadRooms(List<Room> withGames) {
+        RoomSnapshotFile.Contents snapshot = snapshotFile != null ? snapshotFile.read() : null;
+        Map<String, RoomSnapshotFile.Entry> snapshotRooms = new HashMap<>();
+        if (snapshot != null) {
+            for (RoomSnapshotFile.Entry entry : snapshot.entries()) {
+                if (cluster.isLocal(entry.room().id())) {
+                    snapshotRooms.put(entry.room().id(), entry);
+                }
             }
-            LOGGER.info(() -> "SQLite DB at " + path);
-            return c;
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to initialize database", e);
-        }
-    }
-
-    private void initSchema() {
-        try (Statement st = conn.createStatement()) {
-            st.execute("""
-                    CREATE TABLE IF NOT EXISTS users(
-                        id TEXT PRIMARY KEY,
-                        username TEXT NOT NULL UNIQUE,
-                        password_salt TEXT NOT NULL,
-                        password_hash TEXT NOT NULL,
-                        created_at TEXT NOT NULL
-                    )
-                    """);
-            st.execute("""
-                    CREATE TABLE IF NOT EXISTS sessions(
-                        token TEXT PRIMARY KEY,
-                        user_id TEXT NOT NULL,
-                        created_at TEXT NOT NULL,
-                        FOREIGN KEY(user_id) REFERENCES users(id) ON DELETE CASCADE
-                    )
-                    """);
-            st.execute("""
-                    CREATE TABLE IF NOT EXISTS rooms(
-                        id TEXT PRIMARY KEY,
-                        name TEXT NOT NULL,
-                        game_type TEXT NOT NULL,
-                        host_user_id TEXT NOT NULL,
-                        private_room INTEGER NOT NULL,
-                        invite_code TEXT,
-                        started INTEGER NOT NULL DEFAULT 0,
-                        status TEXT,
-                        current_player_id TEXT,
-                        created_at TEXT NOT NULL,
-                        turn_deadline TEXT,
-                        started_at TEXT
-                    )
-                    """);
-            try { st.execute("ALTER TABLE rooms ADD COLUMN invite_code TEXT"); } catch (SQLException ignored) {}
-            try { st.execute("ALTER TABLE rooms ADD COLUMN turn_deadline TEXT"); } catch (SQLException ignored) {}
-            try { st.execute("ALTER TABLE rooms ADD COLUMN started_at TEXT"); } catch (SQLException ignored) {}
-            st.execute("""
-                    CREATE TABLE IF NOT EXISTS room_players(
-                        room_id TEXT NOT NULL,
-                        user_id TEXT NOT NULL,
-                        position INTEGER NOT NULL,
-                        PRIMARY KEY(room_id, user_id),
-                        FOREIGN KEY(room_id) REFERENCES rooms(id) ON DELETE CASCADE,
-                        FOREIGN KEY(user_id) REFERENCES users(id) ON DELETE CASCADE
-                    )
-                    """);
-            st.execute(CHAT_TABLE_SQL);
-        } catch (SQLException e) {
-            throw new IllegalStateException("Failed to initialize schema", e);
         }
-    }
-
-    private void loadFromDb() {
-        loadUsers();
-        loadSessions();
-        loadRooms();
-        LOGGER.info(() -> String.format("Loaded from DB: users=%d rooms=%d", usersById.size(), roomsById.size()));
-    }
-
-    private void loadUsers() {
-        String sql = "SELECT id, username, password_salt, password_hash, created_at FROM users";
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) {
-                String id = rs.getString("id");
-                String username = rs.getString("username");
-                String salt = rs.getString("password_salt");
-                String hash = rs.getString("password_hash");
-                Instant createdAt = Instant.parse(rs.getString("created_at"));
-                User user = new User(id, username, salt, hash, createdAt);
-                usersById.put(id, user);
-                usersByName.put(username.toLowerCase(), user);
+        if (snapshot != null && snapshot.clean()) {
+            // 正常關機寫下的快照與 rooms 表一致，且多了棋局狀態：直接採用，不再讀 rooms 表
+            for (RoomSnapshotFile.Entry entry : snapshotRooms.values()) {
+                restoreRoom(entry.room(), entry.game(), withGames);
+            }
+            return "snapshot";
+        }
+        // 當機後的快照可能落後 DB：只在同一局（開局時間相同）時補回棋局
+        for (RoomRecord record : storage.loadRooms()) {
+            if (cluster.isLocal(record.id())) {
+                RoomSnapshotFile.Entry entry = snapshotRooms.get(record.id());
+                Room.GameSnapshot game = entry != null && entry.game() != null && record.started()
+                        && Objects.equals(record.startedAt(), entry.game().gameStartedAt()) ? entry.game() : null;
+                restoreRoom(record, game, withGames);
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "Failed to load users", e);
         }
+        return snapshot == null ? "db" : "db+snapshot";
     }
 
-    private void loadSessions() {
-        String sql = "SELECT token, user_id, created_at FROM sessions";
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) {
-                String token = rs.getString("token");
-                String userId = rs.getString("user_id");
-                Instant createdAt = Instant.parse(rs.getString("created_at"));
-                Session session = new Session(token, userId, createdAt);
-                sessionsByToken.put(token, session);
+    private static <T> Future<T> submitPhase(ExecutorService pool, Map<String, Long> phaseMs, String phase, Callable<T> task) {
+        return pool.submit(() -> {
+            long started = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                phaseMs.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "Failed to load sessions", e);
-        }
-    }
-
-    private void loadRooms() {
-        String sql = "SELECT id, name, game_type, host_user_id, private_room, invite_code, created_at, turn_deadline, started_at, started FROM rooms";
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) {
-                String id = rs.getString("id");
-                String name = rs.getString("name");
-                GameType gameType = GameType.fromString(rs.getString("game_type"));
-                String hostUserId = rs.getString("host_user_id");
-                boolean privateRoom = rs.getInt("private_room") == 1;
-                String inviteCode = rs.getString("invite_code");
-                Instant createdAt = Instant.parse(rs.getString("created_at"));
-                boolean startedFlag = rs.getInt("started") == 1;
-                Room room = new Room(id, name, gameType, hostUserId, privateRoom, inviteCode, createdAt);
-                String td = rs.getString("turn_deadline");
-                String sa = rs.getString("started_at");
-                if (td != null && !td.isBlank()) {
-                    room.setTurnDeadline(Instant.parse(td));
-                }
-                if (sa != null && !sa.isBlank()) {
-                    room.setStartedAt(Instant.parse(sa));
-                }
-                room.setStarted(startedFlag);
-                loadRoomPlayers(room);
-                roomsById.put(id, room);
+        });
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading from DB", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load from DB", e.getCause());
+        }
+    }
+
+    private void restoreRoom(RoomRecord record, Room.GameSnapshot game, List<Room> withGames) {
+        Room room = record.toRoom();
+        if (game != null) {
+            try {
+                GameArchive archive = "FINISHED".equals(game.status()) ? storage.findGameArchive(game.gameId()) : null;
+                room.restoreGame(game, archive, System.nanoTime());
+                withGames.add(room);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not resume game " + game.gameId() + " of room " + record.id(), e);
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "Failed to load rooms", e);
         }
+        roomsById.put(record.id(), room);
+        indexRoom(record);
     }
 
-    private void loadRoomPlayers(Room room) throws SQLException {
-        String sql = "SELECT user_id FROM room_players WHERE room_id = ? ORDER BY position ASC";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, room.getId());
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    room.addPlayer(rs.getString("user_id"));
-                }
+    private static long resolveSnapshotSeconds() {
+        String env = System.getenv("OCGP_SNAPSHOT_SECONDS");
+        if (env == null || env.isBlank()) {
+            return DEFAULT_SNAPSHOT_SECONDS;
+        }
+        try {
+            long seconds = Long.parseLong(env.trim());
+            if (seconds >= 0) {
+                return seconds;
             }
+        } catch (NumberFormatException ignored) {
+            // fall through
         }
+        LOGGER.warning("Ignoring invalid OCGP_SNAPSHOT_SECONDS: " + env);
+        return DEFAULT_SNAPSHOT_SECONDS;
     }
 
-    private void persistUser(User user) {
-        try (PreparedStatement ps = conn.prepareStatement("""
-                INSERT INTO users(id, username, password_salt, password_hash, created_at)
-                VALUES (?, ?, ?, ?, ?)
-                ON CONFLICT(username) DO NOTHING
-                """)) {
-            ps.setString(1, user.getId());
-            ps.setString(2, user.getUsername());
-            ps.setString(3, user.getPasswordSalt());
-            ps.setString(4, user.getPasswordHash());
-            ps.setString(5, user.getCreatedAt().toString());
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new HttpStatusException(409, "Username already exists");
+    private User findUser(String userId) {
+        User user = usersById.get(userId);
+        if (user == null && cluster.isClustered()) {
+            // 多節點共用同一個 DB：本機快取沒有時回查 DB（其他節點註冊的帳號）
+            user = cacheUser(storage.findUserById(userId));
         }
+        return user;
     }
 
-    private void persistSession(Session session) {
-        try (PreparedStatement ps = conn.prepareStatement("""
-                INSERT INTO sessions(token, user_id, created_at)
-                VALUES (?, ?, ?)
-                ON CONFLICT(token) DO NOTHING
-                """)) {
-            ps.setString(1, session.getToken());
-            ps.setString(2, session.getUserId());
-            ps.setString(3, session.getCreatedAt().toString());
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Failed to persist session", e);
+    private User cacheUser(User user) {
+        if (user != null) {
+            usersById.put(user.getId(), user);
+            usersByName.putIfAbsent(user.getUsername().toLowerCase(), user);
         }
+        return user;
     }
 
-    private void deleteRoomFromDb(String roomId) {
-        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM rooms WHERE id = ?")) {
-            ps.setString(1, roomId);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Failed to delete room " + roomId, e);
+    private Session loadSessionFromDb(String token) {
+        Session session = storage.findSession(token);
+        if (session != null) {
+            sessionsByToken.put(token, session);
         }
+        return session;
+    }
+
+    private Object roomLock(String roomId) {
+        return roomLocks[(roomId.hashCode() & 0x7fffffff) % ROOM_LOCK_STRIPES];
+    }
+
+    private void persistUser(User user) {
+        if (!storage.insertUser(user)) {
+            // 其他節點已用同名註冊
+            throw new HttpStatusException(409, "Username already exists");
+        }
+    }
+
+    private void deleteRoomFromDb(String roomId) {
+        storage.deleteRoom(roomId);
     }
 
     private String generateInviteCode() {
@@ -530,42 +806,14 @@ public class DataStore implements AutoCloseable {
         return sb.toString();
     }
 
-    public void addChatMessage(String roomId, String userId, String content) {
-        try (PreparedStatement ps = conn.prepareStatement("""
-                INSERT INTO chat_messages(room_id, user_id, content, created_at)
-                VALUES (?, ?, ?, ?)
-                """)) {
-            ps.setString(1, roomId);
-            ps.setString(2, userId);
-            ps.setString(3, content);
-            ps.setString(4, Instant.now().toString());
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Failed to add chat message", e);
-            throw new HttpStatusException(500, "Failed to save chat message");
-        }
+    public Map<String, Object> addChatMessage(String roomId, String userId, String content) {
+        return storage.appendChatMessage(roomId, userId, content).toDto();
     }
 
     public List<Map<String, Object>> getChatMessages(String roomId, long sinceId) {
         List<Map<String, Object>> result = new ArrayList<>();
-        String sql = "SELECT id, room_id, user_id, content, created_at FROM chat_messages WHERE room_id = ? AND id > ? ORDER BY id ASC";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, roomId);
-            ps.setLong(2, sinceId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    Map<String, Object> entry = new LinkedHashMap<>();
-                    entry.put("id", rs.getLong("id"));
-                    entry.put("roomId", rs.getString("room_id"));
-                    entry.put("userId", rs.getString("user_id"));
-                    entry.put("content", rs.getString("content"));
-                    entry.put("createdAt", rs.getString("created_at"));
-                    result.add(entry);
-                }
-            }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Failed to load chat messages", e);
-            throw new HttpStatusException(500, "Failed to load chat messages");
+        for (ChatMessage message : storage.getChatMessages(roomId, sinceId)) {
+            result.add(message.toDto());
         }
         return result;
     }
@@ -577,11 +825,11 @@ public class DataStore implements AutoCloseable {
         // No-op
     }
 
-    private static final class DaemonThreadFactory implements ThreadFactory {
+    static final class DaemonThreadFactory implements ThreadFactory {
         private final String namePrefix;
         private int index = 0;
 
-        private DaemonThreadFactory(String namePrefix) {
+        DaemonThreadFactory(String namePrefix) {
             this.namePrefix = namePrefix;
         }
 
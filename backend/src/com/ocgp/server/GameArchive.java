@@ -0,0 +1,311 @@
+package com.ocgp.server;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A finished game in archive form: header columns plus the moves packed into {@code data}.
+ *
+ * <p>{@code data} layout (big-endian):
+ * <pre>
+ * u8   version      1
+ * u8   game         1 = Gobang, 2 = Xiangqi
+ * u8   interval     K, plies between checkpoints
+ * u16  moveCount
+ * u16  moves[moveCount]
+ *        Gobang:  x * 15 + y
+ *        Xiangqi: from * 90 + to (square = row * 9 + col), bit 13 = move gives check
+ * checkpoints[moveCount / K], the position after ply K, 2K, ...
+ *        Gobang:  225 cells at 2 bits (x-major; 0 empty, 1 black, 2 white), 57 bytes
+ *        Xiangqi: square of each of the 32 pieces in {@link #PIECES} order, 0xFF once captured
+ * </pre>
+ * Piece types, captures and colors are not stored; they follow from replaying the moves.
+ * Checkpoints have a fixed size, so {@link #positionAt(int)} seeks to the nearest one
+ * and replays at most K - 1 plies.
+ */
+public record GameArchive(String id, String roomId, GameType gameType, List<String> playerIds, String winnerId,
+                          boolean draw, Instant startedAt, Instant finishedAt, byte[] data) {
+    static final int VERSION = 1;
+    static final int CHECKPOINT_INTERVAL = 32;
+    private static final int HEADER_BYTES = 5;
+    private static final int GOBANG_SIZE = 15;
+    private static final int GOBANG_CHECKPOINT_BYTES = (GOBANG_SIZE * GOBANG_SIZE * 2 + 7) / 8;
+    private static final int XIANGQI_COLS = 9;
+    private static final int XIANGQI_CELLS = 90;
+    private static final int CHECK_BIT = 1 << 13;
+    private static final int CAPTURED = 0xFF;
+    private static final List<String> PIECE_TYPES =
+            List.of("GENERAL", "ADVISOR", "ELEPHANT", "HORSE", "CHARIOT", "CANNON", "SOLDIER");
+    // 32 枚棋子的固定順序：前 16 紅、後 16 黑，值為開局位置與棋種索引
+    private static final int[][] PIECES = xiangqiPieces();
+
+    public static GameArchive encode(GameRecord record) {
+        List<Map<String, Object>> moves = record.moves();
+        boolean chess = record.gameType() == GameType.CHINESE_CHESS;
+        int checkpoints = moves.size() / CHECKPOINT_INTERVAL;
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + moves.size() * 2
+                + checkpoints * (chess ? PIECES.length : GOBANG_CHECKPOINT_BYTES));
+        out.put((byte) VERSION).put((byte) (chess ? 2 : 1)).put((byte) CHECKPOINT_INTERVAL).putShort((short) moves.size());
+        for (Map<String, Object> move : moves) {
+            int code;
+            if (chess) {
+                code = (intOf(move, "fromRow") * XIANGQI_COLS + intOf(move, "fromCol")) * XIANGQI_CELLS
+                        + intOf(move, "toRow") * XIANGQI_COLS + intOf(move, "toCol");
+                if (Boolean.TRUE.equals(move.get("isCheck"))) {
+                    code |= CHECK_BIT;
+                }
+            } else {
+                code = intOf(move, "x") * GOBANG_SIZE + intOf(move, "y");
+            }
+            out.putShort((short) code);
+        }
+        Replay replay = chess ? new XiangqiReplay() : new GobangReplay();
+        for (int ply = 0; ply < moves.size(); ply++) {
+            replay.apply(Short.toUnsignedInt(out.getShort(HEADER_BYTES + ply * 2)));
+            if ((ply + 1) % CHECKPOINT_INTERVAL == 0) {
+                replay.writeCheckpoint(out);
+            }
+        }
+        return new GameArchive(record.id(), record.roomId(), record.gameType(), record.playerIds(), record.winnerId(),
+                record.draw(), record.startedAt(), record.finishedAt(), out.array());
+    }
+
+    public int moveCount() {
+        return Short.toUnsignedInt(ByteBuffer.wrap(data).getShort(3));
+    }
+
+    /** Decodes back to the move maps the game session produced. */
+    public GameRecord toRecord() {
+        return new GameRecord(id, roomId, gameType, playerIds, winnerId, draw, startedAt, finishedAt, decodeMoves());
+    }
+
+    public List<Map<String, Object>> decodeMoves() {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int count = moveCount();
+        List<Map<String, Object>> moves = new ArrayList<>(count);
+        Replay replay = newReplay();
+        for (int ply = 0; ply < count; ply++) {
+            int code = Short.toUnsignedInt(in.getShort(HEADER_BYTES + ply * 2));
+            Map<String, Object> move = replay.apply(code);
+            move.put("playerId", playerIds.get(ply % playerIds.size()));
+            move.put("moveNumber", ply + 1);
+            moves.add(move);
+        }
+        return moves;
+    }
+
+    /**
+     * The board after {@code ply} moves (0 = initial position), in the same shape as the
+     * session DTO's {@code board}.
+     */
+    public List<List<Object>> positionAt(int ply) {
+        int count = moveCount();
+        if (ply < 0 || ply > count) {
+            throw new HttpStatusException(400, "Ply out of range: 0.." + count);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int interval = Byte.toUnsignedInt(data[2]);
+        int checkpoint = ply / interval;
+        Replay replay = newReplay();
+        if (checkpoint > 0) {
+            in.position(HEADER_BYTES + count * 2 + (checkpoint - 1) * replay.checkpointBytes());
+            replay.readCheckpoint(in);
+        }
+        for (int i = checkpoint * interval; i < ply; i++) {
+            replay.apply(Short.toUnsignedInt(in.getShort(HEADER_BYTES + i * 2)));
+        }
+        return replay.board();
+    }
+
+    private Replay newReplay() {
+        if (data[0] != VERSION) {
+            throw new IllegalStateException("Unsupported archive version " + data[0]);
+        }
+        return data[1] == 2 ? new XiangqiReplay() : new GobangReplay();
+    }
+
+    private static int intOf(Map<String, Object> map, String key) {
+        return ((Number) map.get(key)).intValue();
+    }
+
+    private static int[][] xiangqiPieces() {
+        String[] backRank = {"CHARIOT", "HORSE", "ELEPHANT", "ADVISOR", "GENERAL", "ADVISOR", "ELEPHANT", "HORSE", "CHARIOT"};
+        List<int[]> pieces = new ArrayList<>(32);
+        for (int color = 0; color < 2; color++) {
+            int back = color == 0 ? 9 : 0;
+            int cannons = color == 0 ? 7 : 2;
+            int soldiers = color == 0 ? 6 : 3;
+            for (int c = 0; c < XIANGQI_COLS; c++) {
+                pieces.add(new int[]{back * XIANGQI_COLS + c, PIECE_TYPES.indexOf(backRank[c])});
+            }
+            pieces.add(new int[]{cannons * XIANGQI_COLS + 1, PIECE_TYPES.indexOf("CANNON")});
+            pieces.add(new int[]{cannons * XIANGQI_COLS + 7, PIECE_TYPES.indexOf("CANNON")});
+            for (int c = 0; c < XIANGQI_COLS; c += 2) {
+                pieces.add(new int[]{soldiers * XIANGQI_COLS + c, PIECE_TYPES.indexOf("SOLDIER")});
+            }
+        }
+        return pieces.toArray(new int[0][]);
+    }
+
+    private interface Replay {
+        Map<String, Object> apply(int code);
+
+        int checkpointBytes();
+
+        void writeCheckpoint(ByteBuffer out);
+
+        void readCheckpoint(ByteBuffer in);
+
+        List<List<Object>> board();
+    }
+
+    private static final class GobangReplay implements Replay {
+        private final byte[] cells = new byte[GOBANG_SIZE * GOBANG_SIZE];
+        private int ply;
+
+        @Override
+        public Map<String, Object> apply(int code) {
+            int stone = ply++ % 2 == 0 ? 1 : -1;
+            cells[code] = (byte) stone;
+            Map<String, Object> move = new HashMap<>();
+            move.put("x", code / GOBANG_SIZE);
+            move.put("y", code % GOBANG_SIZE);
+            move.put("stone", stone);
+            return move;
+        }
+
+        @Override
+        public int checkpointBytes() {
+            return GOBANG_CHECKPOINT_BYTES;
+        }
+
+        @Override
+        public void writeCheckpoint(ByteBuffer out) {
+            byte[] packed = new byte[GOBANG_CHECKPOINT_BYTES];
+            for (int i = 0; i < cells.length; i++) {
+                int bits = cells[i] == 1 ? 1 : cells[i] == -1 ? 2 : 0;
+                packed[i >> 2] |= (byte) (bits << ((i & 3) * 2));
+            }
+            out.put(packed);
+        }
+
+        @Override
+        public void readCheckpoint(ByteBuffer in) {
+            byte[] packed = new byte[GOBANG_CHECKPOINT_BYTES];
+            in.get(packed);
+            ply = 0;
+            for (int i = 0; i < cells.length; i++) {
+                int bits = (packed[i >> 2] >> ((i & 3) * 2)) & 3;
+                cells[i] = (byte) (bits == 1 ? 1 : bits == 2 ? -1 : 0);
+                if (bits != 0) ply++;
+            }
+        }
+
+        @Override
+        public List<List<Object>> board() {
+            List<List<Object>> rows = new ArrayList<>(GOBANG_SIZE);
+            for (int x = 0; x < GOBANG_SIZE; x++) {
+                List<Object> row = new ArrayList<>(GOBANG_SIZE);
+                for (int y = 0; y < GOBANG_SIZE; y++) {
+                    row.add((int) cells[x * GOBANG_SIZE + y]);
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+    }
+
+    private static final class XiangqiReplay implements Replay {
+        // 每格放棋子索引（-1 為空），每枚棋子記所在格（CAPTURED 為已被吃）
+        private final int[] squares = new int[XIANGQI_CELLS];
+        private final int[] positions = new int[PIECES.length];
+
+        XiangqiReplay() {
+            Arrays.fill(squares, -1);
+            for (int i = 0; i < PIECES.length; i++) {
+                positions[i] = PIECES[i][0];
+                squares[positions[i]] = i;
+            }
+        }
+
+        @Override
+        public Map<String, Object> apply(int code) {
+            int plain = code & (CHECK_BIT - 1);
+            int from = plain / XIANGQI_CELLS;
+            int to = plain % XIANGQI_CELLS;
+            int piece = squares[from];
+            int captured = squares[to];
+            Map<String, Object> move = new HashMap<>();
+            move.put("fromRow", from / XIANGQI_COLS);
+            move.put("fromCol", from % XIANGQI_COLS);
+            move.put("toRow", to / XIANGQI_COLS);
+            move.put("toCol", to % XIANGQI_COLS);
+            move.put("piece", PIECE_TYPES.get(PIECES[piece][1]));
+            move.put("color", colorOf(piece));
+            move.put("isCheck", (code & CHECK_BIT) != 0);
+            if (captured >= 0) {
+                move.put("captured", PIECE_TYPES.get(PIECES[captured][1]));
+                move.put("capturedColor", colorOf(captured));
+                positions[captured] = CAPTURED;
+            }
+            squares[from] = -1;
+            squares[to] = piece;
+            positions[piece] = to;
+            return move;
+        }
+
+        @Override
+        public int checkpointBytes() {
+            return PIECES.length;
+        }
+
+        @Override
+        public void writeCheckpoint(ByteBuffer out) {
+            for (int position : positions) {
+                out.put((byte) position);
+            }
+        }
+
+        @Override
+        public void readCheckpoint(ByteBuffer in) {
+            Arrays.fill(squares, -1);
+            for (int i = 0; i < PIECES.length; i++) {
+                positions[i] = Byte.toUnsignedInt(in.get());
+                if (positions[i] != CAPTURED) {
+                    squares[positions[i]] = i;
+                }
+            }
+        }
+
+        @Override
+        public List<List<Object>> board() {
+            List<List<Object>> rows = new ArrayList<>(XIANGQI_CELLS / XIANGQI_COLS);
+            for (int r = 0; r < XIANGQI_CELLS / XIANGQI_COLS; r++) {
+                List<Object> row = new ArrayList<>(XIANGQI_COLS);
+                for (int c = 0; c < XIANGQI_COLS; c++) {
+                    int piece = squares[r * XIANGQI_COLS + c];
+                    if (piece < 0) {
+                        row.add(null);
+                    } else {
+                        Map<String, Object> cell = new LinkedHashMap<>();
+                        cell.put("type", PIECE_TYPES.get(PIECES[piece][1]));
+                        cell.put("color", colorOf(piece));
+                        row.add(cell);
+                    }
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        private static String colorOf(int piece) {
+            return piece < 16 ? "RED" : "BLACK";
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.ocgp.server;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Two-player game clock on {@link System#nanoTime()}. The side to move is charged exactly the
+ * time between the previous punch and the arrival of its move; wall-clock jumps do not affect
+ * it. Supports Fischer increment ({@code "300+5"}) and byo-yomi ({@code "600+30x3"}: main time,
+ * then three 30-second periods, a period used in full is lost).
+ *
+ * <p>Not thread-safe; the owning {@link Room} calls it under its monitor.
+ */
+public final class GameClock {
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long MAX_SECONDS = 24 * 3600;
+
+    /** Time control as set on a room; {@code periods > 0} means byo-yomi, otherwise Fischer. */
+    public record TimeControl(long baseMillis, long incrementMillis, int periods) {
+        // 預設沿用原本「每手 15 秒」：無本時，一次 15 秒讀秒
+        public static final TimeControl DEFAULT = resolveDefault();
+
+        public boolean byoyomi() {
+            return periods > 0;
+        }
+
+        /** {@code base+increment} or {@code base+period x periods}, all in seconds. */
+        public static TimeControl parse(String value) {
+            if (value == null || value.isBlank()) {
+                return DEFAULT;
+            }
+            String text = value.trim().toLowerCase(Locale.ROOT);
+            try {
+                int plus = text.indexOf('+');
+                long base = Long.parseLong(plus < 0 ? text : text.substring(0, plus));
+                long extra = 0;
+                int periods = 0;
+                if (plus >= 0) {
+                    String rest = text.substring(plus + 1);
+                    int times = rest.indexOf('x');
+                    extra = Long.parseLong(times < 0 ? rest : rest.substring(0, times));
+                    periods = times < 0 ? 0 : Integer.parseInt(rest.substring(times + 1));
+                }
+                if (base < 0 || extra < 0 || periods < 0 || base > MAX_SECONDS || extra > MAX_SECONDS || periods > 100
+                        || (periods > 0 && extra == 0) || (base == 0 && periods == 0)) {
+                    throw new HttpStatusException(400, "Invalid time control: " + value);
+                }
+                return new TimeControl(base * 1000, extra * 1000, periods);
+            } catch (NumberFormatException ex) {
+                throw new HttpStatusException(400, "Invalid time control: " + value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            String text = baseMillis / 1000 + "+" + incrementMillis / 1000;
+            return byoyomi() ? text + "x" + periods : text;
+        }
+
+        private static TimeControl resolveDefault() {
+            TimeControl fallback = new TimeControl(0, 15_000, 1);
+            String env = System.getenv("OCGP_TIME_CONTROL");
+            if (env == null || env.isBlank()) {
+                return fallback;
+            }
+            try {
+                return parse(env);
+            } catch (HttpStatusException ex) {
+                return fallback;
+            }
+        }
+    }
+
+    /**
+     * Clock state for a restart snapshot. {@code elapsedNanos} is how long the side to move had
+     * been thinking; the restored clock resumes from there, so downtime is not charged.
+     */
+    public record Snapshot(TimeControl control, long[] remainingNanos, int[] periodsLeft, int running, long elapsedNanos) {
+    }
+
+    private final TimeControl control;
+    // 剩餘主時間；byo-yomi 用完後為 0，之後只扣讀秒次數
+    private final long[] remainingNanos = new long[2];
+    private final int[] periodsLeft = new int[2];
+    private int running;
+    private long turnStartedNanos;
+
+    public GameClock(TimeControl control, long nowNanos) {
+        this.control = control;
+        for (int i = 0; i < 2; i++) {
+            remainingNanos[i] = control.baseMillis() * NANOS_PER_MILLI;
+            periodsLeft[i] = control.periods();
+        }
+        this.running = 0;
+        this.turnStartedNanos = nowNanos;
+    }
+
+    public static GameClock restore(Snapshot snapshot, long nowNanos) {
+        GameClock clock = new GameClock(snapshot.control(), nowNanos - snapshot.elapsedNanos());
+        for (int i = 0; i < 2; i++) {
+            clock.remainingNanos[i] = snapshot.remainingNanos()[i];
+            clock.periodsLeft[i] = snapshot.periodsLeft()[i];
+        }
+        clock.running = snapshot.running();
+        return clock;
+    }
+
+    public Snapshot snapshot(long nowNanos) {
+        return new Snapshot(control, remainingNanos.clone(), periodsLeft.clone(), running,
+                running < 0 ? 0 : nowNanos - turnStartedNanos);
+    }
+
+    public TimeControl control() {
+        return control;
+    }
+
+    /** nanoTime at which the side to move runs out of time; {@link Long#MAX_VALUE} once stopped. */
+    public long deadlineNanos() {
+        if (running < 0) {
+            return Long.MAX_VALUE;
+        }
+        long budget = remainingNanos[running];
+        if (control.byoyomi()) {
+            budget += periodsLeft[running] * control.incrementMillis() * NANOS_PER_MILLI;
+        }
+        return turnStartedNanos + budget;
+    }
+
+    public boolean isFlagDown(long nowNanos) {
+        return running >= 0 && nowNanos - deadlineNanos() >= 0;
+    }
+
+    /**
+     * Charges the side to move for its move received at {@code nowNanos} and starts the other
+     * side's clock. Callers check {@link #isFlagDown} first.
+     */
+    public void punch(long nowNanos) {
+        if (running < 0) {
+            return;
+        }
+        charge(nowNanos);
+        if (!control.byoyomi()) {
+            remainingNanos[running] += control.incrementMillis() * NANOS_PER_MILLI;
+        }
+        running = 1 - running;
+        turnStartedNanos = nowNanos;
+    }
+
+    /** Charges the final move and stops both clocks. */
+    public void stop(long nowNanos) {
+        if (running < 0) {
+            return;
+        }
+        charge(nowNanos);
+        running = -1;
+    }
+
+    /** Index of the side to move, or -1 once stopped. */
+    public int running() {
+        return running;
+    }
+
+    public Map<String, Object> toDto(List<String> playerOrder, long nowNanos) {
+        Map<String, Object> players = new LinkedHashMap<>();
+        for (int i = 0; i < 2 && i < playerOrder.size(); i++) {
+            long remaining = remainingNanos[i];
+            int periods = periodsLeft[i];
+            long periodRemaining = control.incrementMillis() * NANOS_PER_MILLI;
+            if (i == running) {
+                long elapsed = nowNanos - turnStartedNanos;
+                if (elapsed <= remaining) {
+                    remaining -= elapsed;
+                } else if (control.byoyomi()) {
+                    long over = elapsed - remaining;
+                    remaining = 0;
+                    periods = (int) Math.max(0, periods - over / periodRemaining);
+                    periodRemaining = periods == 0 ? 0 : periodRemaining - over % periodRemaining;
+                } else {
+                    remaining = 0;
+                }
+            }
+            if (periods == 0) {
+                periodRemaining = 0;
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("remainingMs", remaining / NANOS_PER_MILLI);
+            if (control.byoyomi()) {
+                entry.put("periods", periods);
+                entry.put("periodMs", periodRemaining / NANOS_PER_MILLI);
+            }
+            players.put(playerOrder.get(i), entry);
+        }
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("timeControl", control.toString());
+        dto.put("running", running >= 0 && running < playerOrder.size() ? playerOrder.get(running) : null);
+        dto.put("players", players);
+        return dto;
+    }
+
+    // byo-yomi：超出主時間的部分以整個讀秒計；未用完的讀秒下一手重新計
+    private void charge(long nowNanos) {
+        long elapsed = nowNanos - turnStartedNanos;
+        long remaining = remainingNanos[running];
+        if (elapsed <= remaining) {
+            remainingNanos[running] = remaining - elapsed;
+            return;
+        }
+        remainingNanos[running] = 0;
+        if (control.byoyomi()) {
+            long period = control.incrementMillis() * NANOS_PER_MILLI;
+            periodsLeft[running] = (int) Math.max(0, periodsLeft[running] - (elapsed - remaining) / period);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One game as played in a room: players in move order (first player is Red / Black stone),
+ * result, and the move list as produced by the {@link GameSession}.
+ * {@code finishedAt} is null while the game is still in progress.
+ */
+public record GameRecord(String id, String roomId, GameType gameType, List<String> playerIds, String winnerId,
+                         boolean draw, Instant startedAt, Instant finishedAt, List<Map<String, Object>> moves) {
+
+    /** 由對局目前的 DTO 擷取紀錄；呼叫端需持有房間鎖 */
+    @SuppressWarnings("unchecked")
+    public static GameRecord capture(String id, String roomId, GameSession session, Instant finishedAt) {
+        Map<String, Object> state = session.toDto();
+        return new GameRecord(id, roomId, session.getGameType(), List.copyOf(session.getPlayerOrder()),
+                (String) state.get("winnerId"), Boolean.TRUE.equals(state.get("draw")), session.getStartedAt(),
+                finishedAt, (List<Map<String, Object>>) state.get("moves"));
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    /** Summary without the move list. */
+    public Map<String, Object> toSummaryDto() {
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("gameId", id);
+        dto.put("roomId", roomId);
+        dto.put("gameType", gameType.name());
+        dto.put("playerIds", playerIds);
+        dto.put("winnerId", winnerId);
+        dto.put("draw", draw);
+        dto.put("startedAt", startedAt != null ? startedAt.toString() : null);
+        dto.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+        dto.put("moveCount", moves.size());
+        return dto;
+    }
+
+    public Map<String, Object> toDto() {
+        Map<String, Object> dto = toSummaryDto();
+        dto.put("moves", moves);
+        return dto;
+    }
+
+    public String toJson() {
+        return JsonUtil.stringify(toDto());
+    }
+}
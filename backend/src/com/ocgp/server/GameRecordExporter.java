@@ -0,0 +1,261 @@
+package com.ocgp.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Writes {@link GameRecord}s as game notation.
+ *
+ * <ul>
+ *   <li>Chinese chess: PGN-style tags followed by ICCS coordinates ({@code H2-E2}) or WXF moves
+ *       ({@code C2.5}); WXF needs the position, so the game is replayed from the opening setup.</li>
+ *   <li>Gobang: SGF with {@code GM[4]}; the first coordinate letter is the column ({@code y}).</li>
+ *   <li>JSON: the stored record as is.</li>
+ * </ul>
+ * Everything is written straight to the supplied {@link Writer}; callers pass the response stream.
+ */
+public final class GameRecordExporter {
+    private static final DateTimeFormatter PGN_DATE = DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter SGF_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+    private static final int ROWS = 10;
+    private static final int COLS = 9;
+    private static final String[] OPENING = {
+            "rheakaehr", ".........", ".c.....c.", "p.p.p.p.p", ".........",
+            ".........", "P.P.P.P.P", ".C.....C.", ".........", "RHEAKAEHR"
+    };
+
+    public enum Format {
+        ICCS, WXF, SGF, JSON;
+
+        /** {@code null} 或空字串時依棋種選預設格式 */
+        public static Format resolve(String value, GameType gameType) {
+            Format format = parse(value);
+            if (format == null) {
+                return gameType == GameType.CHINESE_CHESS ? ICCS : SGF;
+            }
+            boolean chess = gameType == GameType.CHINESE_CHESS;
+            if (format != JSON && chess == (format == SGF)) {
+                throw new HttpStatusException(400, "Format " + format + " does not apply to " + gameType);
+            }
+            return format;
+        }
+
+        public static Format parse(String value) {
+            if (value == null || value.isBlank()) {
+                return null;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new HttpStatusException(400, "Unsupported record format: " + value);
+            }
+        }
+
+        public String contentType() {
+            return switch (this) {
+                case SGF -> "application/x-go-sgf; charset=utf-8";
+                case JSON -> "application/json; charset=utf-8";
+                default -> "text/plain; charset=utf-8";
+            };
+        }
+    }
+
+    private GameRecordExporter() {
+    }
+
+    public static void write(GameRecord record, Format format, Function<String, String> usernames, Writer out) throws IOException {
+        switch (format) {
+            case ICCS, WXF -> writeXiangqi(record, format, usernames, out);
+            case SGF -> writeSgf(record, usernames, out);
+            case JSON -> out.write(record.toJson());
+        }
+    }
+
+    /**
+     * One NDJSON line: the record summary, player names and the moves in {@code preferred}
+     * (raw move objects for JSON). A format that does not fit the game falls back to its default.
+     */
+    public static void writeNdjsonLine(GameRecord record, Format preferred, Function<String, String> usernames, Writer out) throws IOException {
+        boolean chess = record.gameType() == GameType.CHINESE_CHESS;
+        Format resolved;
+        if (preferred == Format.JSON) {
+            resolved = Format.JSON;
+        } else if (chess) {
+            resolved = preferred == Format.WXF ? Format.WXF : Format.ICCS;
+        } else {
+            resolved = Format.SGF;
+        }
+        Map<String, Object> line = record.toSummaryDto();
+        List<String> names = new ArrayList<>();
+        for (String playerId : record.playerIds()) {
+            names.add(usernames.apply(playerId));
+        }
+        line.put("players", names);
+        line.put("notation", resolved.name());
+        line.put("moves", resolved == Format.JSON ? record.moves() : moveTokens(record, resolved));
+        out.write(JsonUtil.stringify(line));
+        out.write('\n');
+    }
+
+    /** Moves as notation tokens: ICCS/WXF moves, or SGF point coordinates. */
+    public static List<String> moveTokens(GameRecord record, Format format) {
+        List<String> tokens = new ArrayList<>(record.moves().size());
+        if (format == Format.SGF) {
+            for (Map<String, Object> move : record.moves()) {
+                tokens.add(sgfPoint(intOf(move, "x"), intOf(move, "y")));
+            }
+        } else if (format == Format.ICCS) {
+            for (Map<String, Object> move : record.moves()) {
+                tokens.add(iccsSquare(intOf(move, "fromRow"), intOf(move, "fromCol")) + "-"
+                        + iccsSquare(intOf(move, "toRow"), intOf(move, "toCol")));
+            }
+        } else if (format == Format.WXF) {
+            char[][] board = new char[ROWS][];
+            for (int r = 0; r < ROWS; r++) {
+                board[r] = OPENING[r].toCharArray();
+            }
+            for (Map<String, Object> move : record.moves()) {
+                tokens.add(wxfMove(board, intOf(move, "fromRow"), intOf(move, "fromCol"), intOf(move, "toRow"), intOf(move, "toCol")));
+            }
+        } else {
+            throw new IllegalArgumentException("No move tokens for " + format);
+        }
+        return tokens;
+    }
+
+    private static void writeXiangqi(GameRecord record, Format format, Function<String, String> usernames, Writer out) throws IOException {
+        List<String> players = record.playerIds();
+        writeTag(out, "Game", "Chinese Chess");
+        writeTag(out, "Event", "OCGP " + record.id());
+        if (record.startedAt() != null) {
+            writeTag(out, "Date", PGN_DATE.format(record.startedAt()));
+        }
+        writeTag(out, "Red", usernames.apply(players.get(0)));
+        writeTag(out, "Black", usernames.apply(players.get(1)));
+        String result = xiangqiResult(record);
+        writeTag(out, "Result", result);
+        writeTag(out, "Format", format.name());
+        out.write('\n');
+        List<String> tokens = moveTokens(record, format);
+        for (int i = 0; i < tokens.size(); i += 2) {
+            out.write(Integer.toString(i / 2 + 1));
+            out.write(". ");
+            out.write(tokens.get(i));
+            if (i + 1 < tokens.size()) {
+                out.write(' ');
+                out.write(tokens.get(i + 1));
+            }
+            out.write('\n');
+        }
+        out.write(result);
+        out.write('\n');
+    }
+
+    private static void writeSgf(GameRecord record, Function<String, String> usernames, Writer out) throws IOException {
+        List<String> players = record.playerIds();
+        out.write("(;FF[4]GM[4]CA[UTF-8]AP[OCGP]SZ[15]");
+        out.write("PB[" + sgfText(usernames.apply(players.get(0))) + "]");
+        out.write("PW[" + sgfText(usernames.apply(players.get(1))) + "]");
+        if (record.startedAt() != null) {
+            out.write("DT[" + SGF_DATE.format(record.startedAt()) + "]");
+        }
+        if (record.isFinished()) {
+            String result = record.draw() ? "0" : players.get(0).equals(record.winnerId()) ? "B+" : "W+";
+            out.write("RE[" + result + "]");
+        }
+        out.write("GN[" + sgfText(record.id()) + "]\n");
+        int index = 0;
+        for (String point : moveTokens(record, Format.SGF)) {
+            out.write(index % 2 == 0 ? ";B[" : ";W[");
+            out.write(point);
+            out.write(']');
+            if (++index % 10 == 0) {
+                out.write('\n');
+            }
+        }
+        out.write(")\n");
+    }
+
+    private static String xiangqiResult(GameRecord record) {
+        if (!record.isFinished()) {
+            return "*";
+        }
+        if (record.draw() || record.winnerId() == null) {
+            return "1/2-1/2";
+        }
+        return record.playerIds().get(0).equals(record.winnerId()) ? "1-0" : "0-1";
+    }
+
+    // ICCS：紅方左手邊為 a 線，紅方底線為 0
+    private static String iccsSquare(int row, int col) {
+        return (char) ('A' + col) + Integer.toString(ROWS - 1 - row);
+    }
+
+    /**
+     * WXF: piece letter, file (1-9 from the mover's right) or +/- for the front/rear of two
+     * identical pieces on one file, then {@code +}/{@code -}/{@code .} and the destination file
+     * (diagonal movers and sideways moves) or the number of ranks moved. Applies the move to {@code board}.
+     */
+    private static String wxfMove(char[][] board, int fromRow, int fromCol, int toRow, int toCol) {
+        char piece = board[fromRow][fromCol];
+        boolean red = Character.isUpperCase(piece);
+        char letter = Character.toUpperCase(piece);
+
+        String from = Integer.toString(wxfFile(red, fromCol));
+        int ahead = 0;
+        int behind = 0;
+        for (int r = 0; r < ROWS; r++) {
+            if (r != fromRow && board[r][fromCol] == piece) {
+                if (red == (r < fromRow)) ahead++;
+                else behind++;
+            }
+        }
+        if (ahead + behind == 1) {
+            from = ahead == 0 ? "+" : "-";
+        }
+
+        StringBuilder sb = new StringBuilder(4).append(letter).append(from);
+        if (fromRow == toRow) {
+            sb.append('.').append(wxfFile(red, toCol));
+        } else {
+            boolean forward = red ? toRow < fromRow : toRow > fromRow;
+            sb.append(forward ? '+' : '-');
+            if (letter == 'A' || letter == 'E' || letter == 'H') {
+                sb.append(wxfFile(red, toCol));
+            } else {
+                sb.append(Math.abs(toRow - fromRow));
+            }
+        }
+        board[toRow][toCol] = piece;
+        board[fromRow][fromCol] = '.';
+        return sb.toString();
+    }
+
+    private static int wxfFile(boolean red, int col) {
+        return red ? COLS - col : col + 1;
+    }
+
+    private static String sgfPoint(int x, int y) {
+        return new String(new char[]{(char) ('a' + y), (char) ('a' + x)});
+    }
+
+    private static String sgfText(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("]", "\\]");
+    }
+
+    private static void writeTag(Writer out, String name, String value) throws IOException {
+        String escaped = value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+        out.write('[' + name + " \"" + escaped + "\"]\n");
+    }
+
+    private static int intOf(Map<String, Object> map, String key) {
+        return ((Number) map.get(key)).intValue();
+    }
+}
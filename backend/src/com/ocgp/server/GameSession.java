@@ -21,4 +21,21 @@ public interface GameSession {
     List<String> getPlayerOrder();
 
     java.time.Instant getStartedAt();
+
+    /**
+     * Keeps the original start time when a game is rebuilt from a snapshot by replaying its moves.
+     */
+    void restoreStartedAt(java.time.Instant startedAt);
+
+    /**
+     * Drops the move history once the finished game has been archived.
+     */
+    void discardMoves();
+
+    /**
+     * Moves the side to move may play now, as {@code {type, version, moves}}; {@code version}
+     * changes whenever the position does. {@code from} narrows the list to one piece where the
+     * game has pieces to move, and is rejected otherwise.
+     */
+    Map<String, Object> legalMoves(String from);
 }
@@ -2,6 +2,7 @@ package com.ocgp.server;
 
 public enum GameType {
     GOBANG("Gobang", "Place five stones in a row on a 15x15 board."),
+    RENJU("Renju", "Gobang with forbidden moves for Black: no double-three, double-four or overline."),
     CHINESE_CHESS("Chinese Chess", "Classic 9x10 Chinese chess with full movement rules.");
 
     private final String displayName;
@@ -0,0 +1,80 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Glicko-2 update (Glickman, "Example of the Glicko-2 system") with every finished game treated
+ * as its own rating period, so ratings move right after each game.
+ */
+final class Glicko2 {
+    private static final double SCALE = 173.7178;
+    // 系統常數 τ：越小，波動度變化越慢
+    private static final double TAU = 0.5;
+    private static final double EPSILON = 1e-6;
+    private static final double MIN_DEVIATION = 30;
+
+    private Glicko2() {
+    }
+
+    /** New rating of {@code player} after a game against {@code opponent}; {@code score} is 1, 0.5 or 0. */
+    static PlayerRating update(PlayerRating player, PlayerRating opponent, double score, Instant at) {
+        double mu = (player.rating() - PlayerRating.INITIAL_RATING) / SCALE;
+        double phi = player.deviation() / SCALE;
+        double sigma = player.volatility();
+        double muJ = (opponent.rating() - PlayerRating.INITIAL_RATING) / SCALE;
+        double phiJ = opponent.deviation() / SCALE;
+
+        double g = 1 / Math.sqrt(1 + 3 * phiJ * phiJ / (Math.PI * Math.PI));
+        double expected = 1 / (1 + Math.exp(-g * (mu - muJ)));
+        double v = 1 / (g * g * expected * (1 - expected));
+        double delta = v * g * (score - expected);
+
+        double newSigma = volatility(phi, sigma, v, delta);
+        double phiStar = Math.sqrt(phi * phi + newSigma * newSigma);
+        double newPhi = 1 / Math.sqrt(1 / (phiStar * phiStar) + 1 / v);
+        double newMu = mu + newPhi * newPhi * g * (score - expected);
+
+        double deviation = Math.max(MIN_DEVIATION, Math.min(PlayerRating.INITIAL_DEVIATION, newPhi * SCALE));
+        return new PlayerRating(player.userId(), player.gameType(), PlayerRating.INITIAL_RATING + newMu * SCALE,
+                deviation, newSigma, player.games() + 1, at);
+    }
+
+    // 步驟 5：以 Illinois 法解 f(x) = 0 求新的波動度
+    private static double volatility(double phi, double sigma, double v, double delta) {
+        double a = Math.log(sigma * sigma);
+        double phi2 = phi * phi;
+        double delta2 = delta * delta;
+        DoubleUnaryOperator f = x -> {
+            double ex = Math.exp(x);
+            double d = phi2 + v + ex;
+            return ex * (delta2 - phi2 - v - ex) / (2 * d * d) - (x - a) / (TAU * TAU);
+        };
+        double lo = a;
+        double hi;
+        if (delta2 > phi2 + v) {
+            hi = Math.log(delta2 - phi2 - v);
+        } else {
+            int k = 1;
+            while (f.applyAsDouble(a - k * TAU) < 0) {
+                k++;
+            }
+            hi = a - k * TAU;
+        }
+        double fLo = f.applyAsDouble(lo);
+        double fHi = f.applyAsDouble(hi);
+        while (Math.abs(hi - lo) > EPSILON) {
+            double c = lo + (lo - hi) * fLo / (fHi - fLo);
+            double fC = f.applyAsDouble(c);
+            if (fC * fHi <= 0) {
+                lo = hi;
+                fLo = fHi;
+            } else {
+                fLo /= 2;
+            }
+            hi = c;
+            fHi = fC;
+        }
+        return Math.exp(lo / 2);
+    }
+}
@@ -0,0 +1,124 @@
+package com.ocgp.server;
+
+/**
+ * 15x15 Gobang position kept as bitmasks, one {@code int} per line and color: rows, columns,
+ * diagonals ({@code x - y} constant) and anti-diagonals ({@code x + y} constant). Every line
+ * through a point is one array read, so five-in-a-row is a few shifts and masks, and a copy
+ * of the whole position is a single array clone.
+ *
+ * <p>Bit {@code y} of row {@code x}; bit {@code x} of column {@code y}; diagonals and
+ * anti-diagonals index cells by {@code y}. Stones are {@code 1} (black) and {@code -1} (white)
+ * as in the session DTO.
+ */
+public final class GobangBoard {
+    public static final int SIZE = 15;
+    public static final int ROW = 0;
+    public static final int COLUMN = 1;
+    public static final int DIAGONAL = 2;
+    public static final int ANTI_DIAGONAL = 3;
+
+    private static final int DIAGONALS = 2 * SIZE - 1;
+    private static final int[] LINE_OFFSETS = {0, SIZE, 2 * SIZE, 2 * SIZE + DIAGONALS};
+    private static final int LINES_PER_COLOR = 2 * SIZE + 2 * DIAGONALS;
+
+    // 前半黑、後半白
+    private final int[] lines;
+    private int stones;
+
+    public GobangBoard() {
+        this.lines = new int[2 * LINES_PER_COLOR];
+    }
+
+    private GobangBoard(GobangBoard other) {
+        this.lines = other.lines.clone();
+        this.stones = other.stones;
+    }
+
+    public GobangBoard copy() {
+        return new GobangBoard(this);
+    }
+
+    public int stoneAt(int x, int y) {
+        int bit = 1 << y;
+        if ((lines[x] & bit) != 0) return 1;
+        if ((lines[LINES_PER_COLOR + x] & bit) != 0) return -1;
+        return 0;
+    }
+
+    public boolean isEmpty(int x, int y) {
+        return ((lines[x] | lines[LINES_PER_COLOR + x]) & (1 << y)) == 0;
+    }
+
+    public int stoneCount() {
+        return stones;
+    }
+
+    public void place(int x, int y, int stone) {
+        int base = stone == 1 ? 0 : LINES_PER_COLOR;
+        for (int direction = ROW; direction <= ANTI_DIAGONAL; direction++) {
+            lines[base + lineIndex(direction, x, y)] |= 1 << bitIndex(direction, x, y);
+        }
+        stones++;
+    }
+
+    public void remove(int x, int y) {
+        if (isEmpty(x, y)) return;
+        for (int direction = ROW; direction <= ANTI_DIAGONAL; direction++) {
+            int clear = ~(1 << bitIndex(direction, x, y));
+            lines[lineIndex(direction, x, y)] &= clear;
+            lines[LINES_PER_COLOR + lineIndex(direction, x, y)] &= clear;
+        }
+        stones--;
+    }
+
+    /** True if {@code stone} has five or more in a row through {@code (x, y)}. */
+    public boolean hasFiveThrough(int x, int y, int stone) {
+        for (int direction = ROW; direction <= ANTI_DIAGONAL; direction++) {
+            if (runLengthThrough(direction, x, y, stone) >= 5) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Length of {@code stone}'s unbroken run through {@code (x, y)} along {@code direction}; 0 if the cell is not {@code stone}. */
+    public int runLengthThrough(int direction, int x, int y, int stone) {
+        int line = line(stone, direction, x, y);
+        int bit = bitIndex(direction, x, y);
+        if ((line & (1 << bit)) == 0) {
+            return 0;
+        }
+        // 往高位：找第一個空缺；往低位：同理
+        int above = Integer.numberOfTrailingZeros(~(line >>> bit));
+        int below = Integer.numberOfLeadingZeros(~(line << (31 - bit)));
+        return above + below - 1;
+    }
+
+    /** Stones of one color on the line through {@code (x, y)}, bit-indexed as described above. */
+    public int line(int stone, int direction, int x, int y) {
+        return lines[(stone == 1 ? 0 : LINES_PER_COLOR) + lineIndex(direction, x, y)];
+    }
+
+    /** Position of {@code (x, y)} within its line in {@code direction}. */
+    public static int bitIndex(int direction, int x, int y) {
+        return direction == COLUMN ? x : y;
+    }
+
+    /** Valid bit range of the line through {@code (x, y)}: {@code [low, high]} packed as {@code low << 8 | high}. */
+    public static int lineBounds(int direction, int x, int y) {
+        return switch (direction) {
+            case DIAGONAL -> Math.max(0, y - x) << 8 | Math.min(SIZE - 1, SIZE - 1 - x + y);
+            case ANTI_DIAGONAL -> Math.max(0, x + y - (SIZE - 1)) << 8 | Math.min(SIZE - 1, x + y);
+            default -> SIZE - 1;
+        };
+    }
+
+    private static int lineIndex(int direction, int x, int y) {
+        return LINE_OFFSETS[direction] + switch (direction) {
+            case ROW -> x;
+            case COLUMN -> y;
+            case DIAGONAL -> x - y + SIZE - 1;
+            default -> x + y;
+        };
+    }
+}
@@ -1,26 +1,41 @@
 package com.ocgp.server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.time.Instant;
 
 public class GobangGameSession implements GameSession {
-    private static final int BOARD_SIZE = 15;
+    private static final int BOARD_SIZE = GobangBoard.SIZE;
 
-    private final int[][] board = new int[BOARD_SIZE][BOARD_SIZE];
-    private final List<Map<String, Object>> moves = new ArrayList<>();
+    private final boolean renju;
+    private GobangBoard board = new GobangBoard();
+    // 每步一個 int：x * BOARD_SIZE + y；落子者與棋色依步數奇偶推得
+    private final MoveLog moves = new MoveLog();
     private List<String> players = List.of();
     private int currentPlayerIndex = 0;
     private String status = "READY";
     private String winnerId;
     private boolean draw;
     private Instant startedAt;
+    private int positionVersion;
+    private int legalMovesVersion = -1;
+    private int[] legalMovesCache;
+
+    public GobangGameSession() {
+        this(false);
+    }
+
+    /** {@code renju} 時黑方受禁手限制（長連、四四、三三），見 {@link RenjuRules} */
+    public GobangGameSession(boolean renju) {
+        this.renju = renju;
+    }
 
     @Override
     public GameType getGameType() {
-        return GameType.GOBANG;
+        return renju ? GameType.RENJU : GameType.GOBANG;
     }
 
     @Override
@@ -29,17 +44,14 @@ public class GobangGameSession implements GameSession {
             throw new HttpStatusException(409, "Gobang requires exactly two players");
         }
         this.players = List.copyOf(playerIds);
-        for (int x = 0; x < BOARD_SIZE; x++) {
-            for (int y = 0; y < BOARD_SIZE; y++) {
-                board[x][y] = 0;
-            }
-        }
+        board = new GobangBoard();
         moves.clear();
         currentPlayerIndex = 0;
         status = "IN_PROGRESS";
         winnerId = null;
         draw = false;
         startedAt = Instant.now();
+        positionVersion++;
     }
 
     @Override
@@ -53,19 +65,20 @@ public class GobangGameSession implements GameSession {
         if (x < 0 || x >= BOARD_SIZE || y < 0 || y >= BOARD_SIZE) {
             throw new HttpStatusException(400, "Move out of bounds");
         }
-        if (board[x][y] != 0) {
+        if (!board.isEmpty(x, y)) {
             throw new HttpStatusException(409, "Cell already occupied");
         }
         int stone = currentPlayerIndex == 0 ? 1 : -1;
-        board[x][y] = stone;
-        Map<String, Object> move = new HashMap<>();
-        move.put("playerId", playerId);
-        move.put("x", x);
-        move.put("y", y);
-        move.put("stone", stone);
-        move.put("moveNumber", moves.size() + 1);
-        moves.add(move);
-        if (hasFiveInRow(x, y, stone)) {
+        if (renju && stone == 1) {
+            String reason = RenjuRules.forbiddenReason(board, x, y);
+            if (reason != null) {
+                throw new HttpStatusException(409, "Forbidden move for Black: " + reason);
+            }
+        }
+        board.place(x, y, stone);
+        moves.add(x * BOARD_SIZE + y);
+        positionVersion++;
+        if (board.hasFiveThrough(x, y, stone)) {
             winnerId = playerId;
             status = "FINISHED";
             return;
@@ -85,14 +98,23 @@ public class GobangGameSession implements GameSession {
         for (int x = 0; x < BOARD_SIZE; x++) {
             List<Integer> row = new ArrayList<>(BOARD_SIZE);
             for (int y = 0; y < BOARD_SIZE; y++) {
-                row.add(board[x][y]);
+                row.add(board.stoneAt(x, y));
             }
             grid.add(row);
         }
         dto.put("type", getGameType().name());
         dto.put("boardSize", BOARD_SIZE);
         dto.put("board", grid);
-        dto.put("moves", List.copyOf(moves));
+        List<String> order = players;
+        dto.put("moves", moves.view((index, code) -> {
+            Map<String, Object> move = new HashMap<>();
+            move.put("playerId", order.get(index % order.size()));
+            move.put("x", code / BOARD_SIZE);
+            move.put("y", code % BOARD_SIZE);
+            move.put("stone", index % 2 == 0 ? 1 : -1);
+            move.put("moveNumber", index + 1);
+            return move;
+        }));
         dto.put("status", status);
         dto.put("winnerId", winnerId);
         dto.put("draw", draw);
@@ -121,6 +143,7 @@ public class GobangGameSession implements GameSession {
         }
         status = "FINISHED";
         winnerId = winner;
+        positionVersion++;
     }
 
     @Override
@@ -133,37 +156,58 @@ public class GobangGameSession implements GameSession {
         return startedAt;
     }
 
-    private void ensureInProgress() {
-        if (!"IN_PROGRESS".equals(status)) {
-            throw new HttpStatusException(409, "Game already finished");
-        }
+    @Override
+    public synchronized void restoreStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
     }
 
-    private boolean hasFiveInRow(int x, int y, int stone) {
-        int[][] directions = {
-                {1, 0}, {0, 1}, {1, 1}, {1, -1}
-        };
-        for (int[] dir : directions) {
-            int count = 1;
-            count += countDirection(x, y, dir[0], dir[1], stone);
-            count += countDirection(x, y, -dir[0], -dir[1], stone);
-            if (count >= 5) {
-                return true;
+    @Override
+    public synchronized void discardMoves() {
+        moves.clear();
+    }
+
+    /** 所有空點；連珠輪黑時排除禁手 */
+    @Override
+    public synchronized Map<String, Object> legalMoves(String from) {
+        if (from != null && !from.isBlank()) {
+            throw new HttpStatusException(400, "from does not apply to " + getGameType().getDisplayName());
+        }
+        if (legalMovesVersion != positionVersion) {
+            int[] cells = new int[BOARD_SIZE * BOARD_SIZE];
+            int size = 0;
+            if ("IN_PROGRESS".equals(status)) {
+                boolean checkForbidden = renju && currentPlayerIndex == 0;
+                for (int x = 0; x < BOARD_SIZE; x++) {
+                    for (int y = 0; y < BOARD_SIZE; y++) {
+                        if (board.isEmpty(x, y) && (!checkForbidden || RenjuRules.forbiddenReason(board, x, y) == null)) {
+                            cells[size++] = x * BOARD_SIZE + y;
+                        }
+                    }
+                }
             }
+            legalMovesCache = Arrays.copyOf(cells, size);
+            legalMovesVersion = positionVersion;
         }
-        return false;
+        List<Map<String, Object>> list = new ArrayList<>(legalMovesCache.length);
+        for (int cell : legalMovesCache) {
+            list.add(Map.of("x", cell / BOARD_SIZE, "y", cell % BOARD_SIZE));
+        }
+        Map<String, Object> dto = new HashMap<>();
+        dto.put("type", getGameType().name());
+        dto.put("version", positionVersion);
+        dto.put("moves", list);
+        return dto;
     }
 
-    private int countDirection(int x, int y, int dx, int dy, int stone) {
-        int count = 0;
-        int cx = x + dx;
-        int cy = y + dy;
-        while (cx >= 0 && cx < BOARD_SIZE && cy >= 0 && cy < BOARD_SIZE && board[cx][cy] == stone) {
-            count++;
-            cx += dx;
-            cy += dy;
+    private void ensureInProgress() {
+        if (!"IN_PROGRESS".equals(status)) {
+            throw new HttpStatusException(409, "Game already finished");
         }
-        return count;
+    }
+
+    /** 目前盤面的複本，供 AI 搜尋等離線使用 */
+    public synchronized GobangBoard snapshotBoard() {
+        return board.copy();
     }
 
     private int extractInt(Object raw, String field) {
@@ -3,8 +3,11 @@ package com.ocgp.server;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
@@ -23,7 +26,8 @@ public final class HttpUtils {
         headers.set("Content-Type", "application/json; charset=utf-8");
         headers.set("Access-Control-Allow-Origin", "*");
         headers.set("Access-Control-Allow-Headers", "Content-Type,X-Auth-Token");
-        headers.set("Access-Control-Allow-Methods", "GET,POST,OPTIONS");
+        headers.set("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
+        headers.set("Access-Control-Expose-Headers", "Retry-After");
         exchange.sendResponseHeaders(status, body.length);
         try (OutputStream os = exchange.getResponseBody()) {
             os.write(body);
@@ -34,7 +38,7 @@ public final class HttpUtils {
         Headers headers = exchange.getResponseHeaders();
         headers.set("Access-Control-Allow-Origin", "*");
         headers.set("Access-Control-Allow-Headers", "Content-Type,X-Auth-Token");
-        headers.set("Access-Control-Allow-Methods", "GET,POST,OPTIONS");
+        headers.set("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
         exchange.sendResponseHeaders(204, -1);
     }
 
@@ -48,4 +52,25 @@ public final class HttpUtils {
             os.write(body);
         }
     }
+
+    /**
+     * Sends a body of unknown length with chunked transfer encoding. Headers are committed
+     * before {@code body} runs, so it must not fail with an {@link HttpStatusException}.
+     */
+    public static void sendStream(HttpExchange exchange, int status, String contentType, StreamBody body) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Access-Control-Allow-Headers", "Content-Type,X-Auth-Token");
+        headers.set("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
+        exchange.sendResponseHeaders(status, 0);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            body.write(writer);
+        }
+    }
+
+    @FunctionalInterface
+    public interface StreamBody {
+        void write(Writer out) throws IOException;
+    }
 }
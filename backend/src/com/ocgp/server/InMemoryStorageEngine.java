@@ -0,0 +1,316 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Volatile {@link StorageEngine} for tests and benchmarks: everything lives in maps and is
+ * lost on exit.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, RoomRecord> rooms = new ConcurrentHashMap<>();
+    private final Map<String, List<ChatMessage>> chatByRoom = new ConcurrentHashMap<>();
+    private final AtomicLong chatIds = new AtomicLong();
+    private final Map<String, GameArchive> games = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> gamesByUser = new ConcurrentHashMap<>();
+    private final Map<String, PlayerRating> ratings = new ConcurrentHashMap<>();
+    private final Map<String, Instant> revocations = new ConcurrentHashMap<>();
+
+    @Override
+    public List<User> loadUsers() {
+        return new ArrayList<>(usersById.values());
+    }
+
+    @Override
+    public List<Session> loadSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    @Override
+    public List<RoomRecord> loadRooms() {
+        return new ArrayList<>(rooms.values());
+    }
+
+    @Override
+    public boolean insertUser(User user) {
+        if (usersByName.putIfAbsent(user.getUsername().toLowerCase(), user) != null) {
+            return false;
+        }
+        usersById.put(user.getId(), user);
+        return true;
+    }
+
+    @Override
+    public User findUserById(String userId) {
+        return usersById.get(userId);
+    }
+
+    @Override
+    public User findUserByUsername(String username) {
+        return usersByName.get(username.toLowerCase());
+    }
+
+    @Override
+    public void insertSession(Session session) {
+        sessions.putIfAbsent(session.getToken(), session);
+    }
+
+    @Override
+    public Session findSession(String token) {
+        return sessions.get(token);
+    }
+
+    @Override
+    public void deleteSession(String token) {
+        sessions.remove(token);
+    }
+
+    @Override
+    public void insertRevocation(String tokenId, Instant expiresAt) {
+        revocations.put(tokenId, expiresAt);
+    }
+
+    @Override
+    public boolean isTokenRevoked(String tokenId) {
+        return revocations.containsKey(tokenId);
+    }
+
+    @Override
+    public List<String> loadRevocations(Instant now) {
+        List<String> ids = new ArrayList<>();
+        revocations.forEach((id, expiresAt) -> {
+            if (expiresAt.isAfter(now)) {
+                ids.add(id);
+            }
+        });
+        return ids;
+    }
+
+    @Override
+    public void deleteExpiredRevocations(Instant now) {
+        revocations.values().removeIf(expiresAt -> !expiresAt.isAfter(now));
+    }
+
+    @Override
+    public void saveRoom(RoomRecord room) {
+        rooms.put(room.id(), room);
+    }
+
+    @Override
+    public void deleteRoom(String roomId) {
+        rooms.remove(roomId);
+        chatByRoom.remove(roomId);
+    }
+
+    @Override
+    public ChatMessage appendChatMessage(String roomId, String userId, String content) {
+        List<ChatMessage> messages = chatByRoom.computeIfAbsent(roomId, k -> new ArrayList<>());
+        synchronized (messages) {
+            // id 在房間清單鎖內配發，確保同一房間內的順序與 id 一致
+            ChatMessage message = new ChatMessage(chatIds.incrementAndGet(), roomId, userId, content, Instant.now());
+            messages.add(message);
+            return message;
+        }
+    }
+
+    @Override
+    public List<ChatMessage> getChatMessages(String roomId, long sinceId) {
+        List<ChatMessage> messages = chatByRoom.get(roomId);
+        if (messages == null) {
+            return new ArrayList<>();
+        }
+        List<ChatMessage> result = new ArrayList<>();
+        synchronized (messages) {
+            for (ChatMessage message : messages) {
+                if (message.id() > sinceId) {
+                    result.add(message);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int deleteChatBefore(Instant cutoff, int limit) {
+        int deleted = 0;
+        for (Map.Entry<String, List<ChatMessage>> entry : chatByRoom.entrySet()) {
+            if (deleted >= limit) {
+                break;
+            }
+            List<ChatMessage> messages = entry.getValue();
+            long upToId = 0;
+            synchronized (messages) {
+                for (int i = 0; i < messages.size() && deleted + i < limit && messages.get(i).createdAt().isBefore(cutoff); i++) {
+                    upToId = messages.get(i).id();
+                }
+            }
+            if (upToId > 0) {
+                deleted += dropChat(entry.getKey(), upToId);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<String> findRoomsWithChatOver(int max) {
+        List<String> rooms = new ArrayList<>();
+        for (Map.Entry<String, List<ChatMessage>> entry : chatByRoom.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().size() > max) {
+                    rooms.add(entry.getKey());
+                }
+            }
+        }
+        return rooms;
+    }
+
+    @Override
+    public int trimChat(String roomId, int keep, int limit) {
+        List<ChatMessage> messages = chatByRoom.get(roomId);
+        if (messages == null) {
+            return 0;
+        }
+        long upToId;
+        synchronized (messages) {
+            int excess = Math.min(messages.size() - keep, limit);
+            if (excess <= 0) {
+                return 0;
+            }
+            upToId = messages.get(excess - 1).id();
+        }
+        return dropChat(roomId, upToId);
+    }
+
+    /**
+     * Removes the room's messages with an id up to {@code upToId} (always a prefix, since ids
+     * only grow) and returns how many were removed.
+     */
+    protected int dropChat(String roomId, long upToId) {
+        List<ChatMessage> messages = chatByRoom.get(roomId);
+        if (messages == null) {
+            return 0;
+        }
+        synchronized (messages) {
+            int count = 0;
+            while (count < messages.size() && messages.get(count).id() <= upToId) {
+                count++;
+            }
+            messages.subList(0, count).clear();
+            return count;
+        }
+    }
+
+    @Override
+    public void saveGameArchive(GameArchive archive) {
+        if (games.putIfAbsent(archive.id(), archive) != null) {
+            return;
+        }
+        for (String playerId : archive.playerIds()) {
+            List<String> ids = gamesByUser.computeIfAbsent(playerId, k -> new ArrayList<>());
+            synchronized (ids) {
+                ids.add(archive.id());
+            }
+        }
+    }
+
+    @Override
+    public GameArchive findGameArchive(String gameId) {
+        return games.get(gameId);
+    }
+
+    @Override
+    public List<String> findGameIdsByUser(String userId) {
+        List<String> ids = gamesByUser.get(userId);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        synchronized (ids) {
+            return new ArrayList<>(ids);
+        }
+    }
+
+    @Override
+    public List<PlayerRating> loadRatings() {
+        return new ArrayList<>(ratings.values());
+    }
+
+    @Override
+    public void saveRatings(List<PlayerRating> updated) {
+        for (PlayerRating rating : updated) {
+            ratings.put(ratingKey(rating), rating);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * Re-inserts a message with its original id, used when replaying a persisted log.
+     */
+    protected void restoreChatMessage(ChatMessage message) {
+        List<ChatMessage> messages = chatByRoom.computeIfAbsent(message.roomId(), k -> new ArrayList<>());
+        synchronized (messages) {
+            messages.add(message);
+        }
+        chatIds.accumulateAndGet(message.id(), Math::max);
+    }
+
+    protected boolean containsRoom(String roomId) {
+        return rooms.containsKey(roomId);
+    }
+
+    protected int chatCount(String roomId) {
+        List<ChatMessage> messages = chatByRoom.get(roomId);
+        if (messages == null) {
+            return 0;
+        }
+        synchronized (messages) {
+            return messages.size();
+        }
+    }
+
+    protected boolean containsGameArchive(String gameId) {
+        return games.containsKey(gameId);
+    }
+
+    protected boolean containsSession(String token) {
+        return sessions.containsKey(token);
+    }
+
+    protected Map<String, Instant> allRevocations() {
+        return Map.copyOf(revocations);
+    }
+
+    protected boolean containsRating(PlayerRating rating) {
+        return ratings.containsKey(ratingKey(rating));
+    }
+
+    private static String ratingKey(PlayerRating rating) {
+        return rating.userId() + "|" + rating.gameType().name();
+    }
+
+    protected List<GameArchive> allGameArchives() {
+        List<GameArchive> all = new ArrayList<>(games.values());
+        all.sort((a, b) -> a.finishedAt().compareTo(b.finishedAt()));
+        return all;
+    }
+
+    protected List<ChatMessage> allChatMessages() {
+        List<ChatMessage> all = new ArrayList<>();
+        for (List<ChatMessage> messages : chatByRoom.values()) {
+            synchronized (messages) {
+                all.addAll(messages);
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,37 @@
+package com.ocgp.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-JVM bus: delivers events synchronously to local subscribers.
+ */
+public class InProcessRoomEventBus implements RoomEventBus {
+    private static final Logger LOGGER = Logger.getLogger(InProcessRoomEventBus.class.getName());
+
+    private final List<Consumer<RoomEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(RoomEvent event) {
+        for (Consumer<RoomEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Room event listener failed for " + event.type(), e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<RoomEvent> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        listeners.clear();
+    }
+}
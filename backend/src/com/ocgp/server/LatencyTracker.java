@@ -0,0 +1,129 @@
+package com.ocgp.server;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rolling RTT samples from WebSocket ping/pong, aggregated per user and per room.
+ * Each window keeps the most recent {@link #WINDOW_SIZE} samples; percentiles are computed on read.
+ */
+public class LatencyTracker {
+    static final int WINDOW_SIZE = 128;
+
+    private final Map<String, RttWindow> byUser = new ConcurrentHashMap<>();
+    private final Map<String, RttWindow> byRoom = new ConcurrentHashMap<>();
+
+    public void record(String userId, String roomId, long rttNanos) {
+        byUser.computeIfAbsent(userId, k -> new RttWindow()).add(rttNanos);
+        if (roomId != null) {
+            byRoom.computeIfAbsent(roomId, k -> new RttWindow()).add(rttNanos);
+        }
+    }
+
+    public void forgetRoom(String roomId) {
+        byRoom.remove(roomId);
+    }
+
+    public Map<String, Object> userStats(String userId) {
+        RttWindow window = byUser.get(userId);
+        return window == null ? null : window.toDto();
+    }
+
+    /** 玩家最近 RTT 的中位數（毫秒），沒有樣本時回傳 -1 */
+    public long userMedianMillis(String userId) {
+        RttWindow window = byUser.get(userId);
+        return window == null ? -1 : window.medianMillis();
+    }
+
+    public Map<String, Object> roomStats(String roomId) {
+        RttWindow window = byRoom.get(roomId);
+        return window == null ? null : window.toDto();
+    }
+
+    public Map<String, Object> toDto() {
+        Map<String, Object> users = new LinkedHashMap<>();
+        byUser.forEach((id, window) -> users.put(id, window.toDto()));
+        Map<String, Object> rooms = new LinkedHashMap<>();
+        byRoom.forEach((id, window) -> rooms.put(id, window.toDto()));
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("users", users);
+        dto.put("rooms", rooms);
+        return dto;
+    }
+
+    /** 固定大小的環形緩衝區，只保留最近的樣本；另記著最近一次送出、尚未收到 pong 的 ping */
+    static final class RttWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int next;
+        private int count;
+        private long last;
+        private long pingNonce;
+        private long pingSentAt;
+        private boolean pingPending;
+
+        /** 記下這次 ping 的 nonce 與送出時間；舊的未回覆 ping 作廢 */
+        synchronized void pingSent(long nonce, long sentAtNanos) {
+            pingNonce = nonce;
+            pingSentAt = sentAtNanos;
+            pingPending = true;
+        }
+
+        /**
+         * RTT of the outstanding ping when {@code nonce} answers it, otherwise -1 (unsolicited,
+         * stale or forged pong). Each ping is answered at most once.
+         */
+        synchronized long pongReceived(long nonce, long receivedAtNanos) {
+            if (!pingPending || nonce != pingNonce) {
+                return -1;
+            }
+            pingPending = false;
+            return receivedAtNanos - pingSentAt;
+        }
+
+        synchronized void add(long rttNanos) {
+            samples[next] = rttNanos;
+            next = (next + 1) % WINDOW_SIZE;
+            if (count < WINDOW_SIZE) count++;
+            last = rttNanos;
+        }
+
+        Map<String, Object> toDto() {
+            long[] sorted;
+            long latest;
+            synchronized (this) {
+                sorted = Arrays.copyOf(samples, count);
+                latest = last;
+            }
+            Arrays.sort(sorted);
+            Map<String, Object> dto = new LinkedHashMap<>();
+            dto.put("samples", sorted.length);
+            dto.put("lastMs", toMillis(latest));
+            dto.put("p50Ms", toMillis(percentile(sorted, 0.50)));
+            dto.put("p95Ms", toMillis(percentile(sorted, 0.95)));
+            dto.put("p99Ms", toMillis(percentile(sorted, 0.99)));
+            return dto;
+        }
+
+        long medianMillis() {
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(samples, count);
+            }
+            if (sorted.length == 0) return -1;
+            Arrays.sort(sorted);
+            return percentile(sorted, 0.50) / 1_000_000L;
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            if (sorted.length == 0) return 0;
+            int idx = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+
+        private static double toMillis(long nanos) {
+            return Math.round(nanos / 10_000.0) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.ocgp.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ratings of every rated player, per {@link GameType}, with an order-statistic index for rank
+ * and paging. Ratings are bucketed by 1/8 point into a Fenwick tree ordered from the highest
+ * bucket down, so "how many players rate above bucket b" and "which bucket holds the k-th
+ * player" are both O(log buckets); each bucket is a small list sorted by exact rating and
+ * searched by bisection.
+ * Only players with at least one finished game are listed.
+ */
+public class Leaderboard {
+    static final int MAX_RATING = 4000;
+    // 每 1/8 分一桶，熱門區段每桶人數也不多
+    static final int BUCKETS_PER_POINT = 8;
+    static final int BUCKETS = MAX_RATING * BUCKETS_PER_POINT;
+
+    private final Map<GameType, Board> boards = new EnumMap<>(GameType.class);
+
+    public Leaderboard() {
+        for (GameType type : GameType.values()) {
+            boards.put(type, new Board());
+        }
+    }
+
+    /** Bulk load on startup; replaces whatever the board held. */
+    public void load(List<PlayerRating> ratings) {
+        Map<GameType, List<PlayerRating>> byType = new EnumMap<>(GameType.class);
+        for (PlayerRating rating : ratings) {
+            byType.computeIfAbsent(rating.gameType(), k -> new ArrayList<>()).add(rating);
+        }
+        for (GameType type : GameType.values()) {
+            boards.get(type).rebuild(byType.getOrDefault(type, List.of()));
+        }
+    }
+
+    public PlayerRating ratingOf(String userId, GameType gameType) {
+        PlayerRating rating = boards.get(gameType).get(userId);
+        return rating != null ? rating : PlayerRating.initial(userId, gameType);
+    }
+
+    /**
+     * Applies one finished game and returns both players' new ratings, or an empty list if the
+     * game cannot be rated (not two distinct players, or neither a winner nor a draw).
+     */
+    public List<PlayerRating> recordResult(GameArchive game) {
+        List<String> players = game.playerIds();
+        if (players.size() != 2 || players.get(0).equals(players.get(1))) {
+            return List.of();
+        }
+        String first = players.get(0);
+        String second = players.get(1);
+        double score;
+        if (game.draw()) {
+            score = 0.5;
+        } else if (first.equals(game.winnerId())) {
+            score = 1;
+        } else if (second.equals(game.winnerId())) {
+            score = 0;
+        } else {
+            return List.of();
+        }
+        Board board = boards.get(game.gameType());
+        synchronized (board) {
+            PlayerRating a = ratingOf(first, game.gameType());
+            PlayerRating b = ratingOf(second, game.gameType());
+            PlayerRating newA = Glicko2.update(a, b, score, game.finishedAt());
+            PlayerRating newB = Glicko2.update(b, a, 1 - score, game.finishedAt());
+            board.put(newA);
+            board.put(newB);
+            return List.of(newA, newB);
+        }
+    }
+
+    public int size(GameType gameType) {
+        return boards.get(gameType).size();
+    }
+
+    /** 1-based rank, or 0 if the player has no rating for this game type. */
+    public int rankOf(String userId, GameType gameType) {
+        return boards.get(gameType).rankOf(userId);
+    }
+
+    /** Up to {@code limit} ratings starting at 0-based {@code offset}, best first. */
+    public List<PlayerRating> page(GameType gameType, int offset, int limit) {
+        return boards.get(gameType).page(offset, limit);
+    }
+
+    static int bucket(double rating) {
+        return (int) Math.max(0, Math.min(BUCKETS - 1, Math.floor(rating * BUCKETS_PER_POINT)));
+    }
+
+    private static final class Board {
+        private static final Comparator<PlayerRating> ORDER = Comparator
+                .comparingDouble(PlayerRating::rating).reversed()
+                .thenComparing(PlayerRating::userId);
+
+        private final Map<String, PlayerRating> byUser = new HashMap<>();
+        // 樹的第 i 格（1 起算）對應桶 BUCKETS - i，前綴和即「排在某桶之前」的人數
+        private final int[] tree = new int[BUCKETS + 1];
+        // 每桶依 ORDER 排好序，桶內名次用二分搜尋
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ArrayList<PlayerRating>[] buckets = new ArrayList[BUCKETS];
+
+        synchronized PlayerRating get(String userId) {
+            return byUser.get(userId);
+        }
+
+        synchronized int size() {
+            return byUser.size();
+        }
+
+        synchronized void put(PlayerRating rating) {
+            PlayerRating previous = byUser.put(rating.userId(), rating);
+            if (previous != null) {
+                int old = bucket(previous.rating());
+                buckets[old].remove(Collections.binarySearch(buckets[old], previous, ORDER));
+                add(old, -1);
+            }
+            int b = bucket(rating.rating());
+            if (buckets[b] == null) {
+                buckets[b] = new ArrayList<>();
+            }
+            int at = Collections.binarySearch(buckets[b], rating, ORDER);
+            buckets[b].add(-at - 1, rating);
+            add(b, 1);
+        }
+
+        synchronized void rebuild(List<PlayerRating> ratings) {
+            byUser.clear();
+            Arrays.fill(tree, 0);
+            Arrays.fill(buckets, null);
+            for (PlayerRating rating : ratings) {
+                int b = bucket(rating.rating());
+                if (buckets[b] == null) {
+                    buckets[b] = new ArrayList<>();
+                }
+                buckets[b].add(rating);
+                byUser.put(rating.userId(), rating);
+                tree[BUCKETS - b]++;
+            }
+            for (List<PlayerRating> bucket : buckets) {
+                if (bucket != null && bucket.size() > 1) {
+                    bucket.sort(ORDER);
+                }
+            }
+            // 線性建樹：每格把自己的和推給父節點
+            for (int i = 1; i <= BUCKETS; i++) {
+                int parent = i + (i & -i);
+                if (parent <= BUCKETS) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+
+        synchronized int rankOf(String userId) {
+            PlayerRating rating = byUser.get(userId);
+            if (rating == null) {
+                return 0;
+            }
+            int b = bucket(rating.rating());
+            return countAbove(b) + Collections.binarySearch(buckets[b], rating, ORDER) + 1;
+        }
+
+        synchronized List<PlayerRating> page(int offset, int limit) {
+            List<PlayerRating> result = new ArrayList<>();
+            if (offset < 0 || offset >= byUser.size() || limit <= 0) {
+                return result;
+            }
+            int b = bucketOf(offset);
+            int from = offset - countAbove(b);
+            for (; b >= 0 && result.size() < limit; b--) {
+                List<PlayerRating> bucket = buckets[b];
+                if (bucket == null) {
+                    continue;
+                }
+                int to = Math.min(bucket.size(), from + limit - result.size());
+                result.addAll(bucket.subList(from, to));
+                from = 0;
+            }
+            return result;
+        }
+
+        private void add(int bucket, int delta) {
+            for (int i = BUCKETS - bucket; i <= BUCKETS; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        // 排在 bucket 之前（積分較高）的人數
+        private int countAbove(int bucket) {
+            int sum = 0;
+            for (int i = BUCKETS - bucket - 1; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        // 第 k 名（0 起算）所在的桶：沿 Fenwick 樹往下找前綴和 <= k 的最長前綴
+        private int bucketOf(int k) {
+            int pos = 0;
+            int remaining = k;
+            for (int step = Integer.highestOneBit(BUCKETS); step > 0; step >>= 1) {
+                int next = pos + step;
+                if (next <= BUCKETS && tree[next] <= remaining) {
+                    pos = next;
+                    remaining -= tree[next];
+                }
+            }
+            return BUCKETS - (pos + 1);
+        }
+    }
+}
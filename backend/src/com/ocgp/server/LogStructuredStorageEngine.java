@@ -0,0 +1,581 @@
+package com.ocgp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded append-only store. Every mutation is appended to a single log file as a
+ * {@code [length][crc32][payload]} frame and applied to the in-memory state inherited from
+ * {@link InMemoryStorageEngine}. Startup replays the log (stopping at the first torn or corrupt
+ * frame); a background task rewrites the log as a snapshot of live records once superseded
+ * records outnumber live ones.
+ */
+public class LogStructuredStorageEngine extends InMemoryStorageEngine {
+    private static final Logger LOGGER = Logger.getLogger(LogStructuredStorageEngine.class.getName());
+    private static final long COMPACTION_INTERVAL_SECONDS = 30;
+    private static final long COMPACTION_MIN_RECORDS = 10_000;
+
+    private static final byte USER = 1;
+    private static final byte SESSION = 2;
+    private static final byte ROOM = 3;
+    private static final byte ROOM_DELETE = 4;
+    private static final byte CHAT = 5;
+    private static final byte GAME = 7;
+    private static final byte RATING = 8;
+    private static final byte SESSION_DELETE = 9;
+    private static final byte REVOCATION = 10;
+    private static final byte CHAT_PRUNE = 11;
+
+    private final Path path;
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ocgp-log-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private FileChannel channel;
+    private long appendedRecords;
+    private long liveRecords;
+
+    public LogStructuredStorageEngine(Path path) {
+        this.path = path;
+        try {
+            long started = System.nanoTime();
+            long validBytes = replay();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.size() > validBytes) {
+                LOGGER.warning(() -> String.format("Truncating %d bytes of torn log tail", safeSize() - validBytes));
+                channel.truncate(validBytes);
+            }
+            channel.position(validBytes);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            LOGGER.info(() -> String.format("Log store at %s: %d records replayed in %d ms", path, appendedRecords, elapsedMs));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open log store " + path, e);
+        }
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized boolean insertUser(User user) {
+        if (findUserByUsername(user.getUsername()) != null) {
+            return false;
+        }
+        // 先寫進 log 再放進記憶體：寫入失敗時丟出例外，不留下只存在記憶體的帳號
+        append(encode(USER, out -> writeUser(out, user)));
+        super.insertUser(user);
+        liveRecords++;
+        return true;
+    }
+
+    @Override
+    public synchronized void insertSession(Session session) {
+        if (findSession(session.getToken()) != null) {
+            return;
+        }
+        super.insertSession(session);
+        append(encode(SESSION, out -> writeSession(out, session)));
+        liveRecords++;
+    }
+
+    @Override
+    public synchronized void deleteSession(String token) {
+        if (!containsSession(token)) {
+            return;
+        }
+        super.deleteSession(token);
+        append(encode(SESSION_DELETE, out -> writeString(out, token)));
+        liveRecords--;
+    }
+
+    @Override
+    public synchronized void insertRevocation(String tokenId, Instant expiresAt) {
+        super.insertRevocation(tokenId, expiresAt);
+        append(encode(REVOCATION, out -> {
+            writeString(out, tokenId);
+            writeInstant(out, expiresAt);
+        }));
+        liveRecords++;
+    }
+
+    // 過期的撤銷只從記憶體移除，不寫紀錄；下次壓縮時自然消失
+    @Override
+    public synchronized void deleteExpiredRevocations(Instant now) {
+        int before = allRevocations().size();
+        super.deleteExpiredRevocations(now);
+        liveRecords -= before - allRevocations().size();
+    }
+
+    @Override
+    public synchronized void saveRoom(RoomRecord room) {
+        boolean existed = containsRoom(room.id());
+        super.saveRoom(room);
+        append(encode(ROOM, out -> writeRoom(out, room)));
+        if (!existed) {
+            liveRecords++;
+        }
+    }
+
+    @Override
+    public synchronized void deleteRoom(String roomId) {
+        int dropped = chatCount(roomId) + (containsRoom(roomId) ? 1 : 0);
+        super.deleteRoom(roomId);
+        append(encode(ROOM_DELETE, out -> writeString(out, roomId)));
+        liveRecords -= dropped;
+    }
+
+    @Override
+    public synchronized ChatMessage appendChatMessage(String roomId, String userId, String content) {
+        ChatMessage message = super.appendChatMessage(roomId, userId, content);
+        append(encode(CHAT, out -> writeChat(out, message)));
+        liveRecords++;
+        return message;
+    }
+
+    @Override
+    protected synchronized int dropChat(String roomId, long upToId) {
+        int dropped = super.dropChat(roomId, upToId);
+        if (dropped > 0) {
+            append(encode(CHAT_PRUNE, out -> {
+                writeString(out, roomId);
+                out.writeLong(upToId);
+            }));
+            liveRecords -= dropped;
+        }
+        return dropped;
+    }
+
+    @Override
+    public synchronized void saveGameArchive(GameArchive archive) {
+        if (containsGameArchive(archive.id())) {
+            return;
+        }
+        super.saveGameArchive(archive);
+        append(encode(GAME, out -> writeGame(out, archive)));
+        liveRecords++;
+    }
+
+    @Override
+    public synchronized void saveRatings(List<PlayerRating> ratings) {
+        for (PlayerRating rating : ratings) {
+            if (!containsRating(rating)) {
+                liveRecords++;
+            }
+        }
+        super.saveRatings(ratings);
+        append(encode(RATING, out -> {
+            out.writeShort(ratings.size());
+            for (PlayerRating rating : ratings) {
+                writeRating(out, rating);
+            }
+        }));
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        synchronized (this) {
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close log store", e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with only live records. Runs on the compactor thread; writers wait
+     * for the rewrite, readers do not.
+     */
+    public synchronized void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        long records = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (User user : loadUsers()) {
+                writeFrame(out, encode(USER, o -> writeUser(o, user)));
+                records++;
+            }
+            for (Session session : loadSessions()) {
+                writeFrame(out, encode(SESSION, o -> writeSession(o, session)));
+                records++;
+            }
+            for (RoomRecord room : loadRooms()) {
+                writeFrame(out, encode(ROOM, o -> writeRoom(o, room)));
+                records++;
+            }
+            for (GameArchive game : allGameArchives()) {
+                writeFrame(out, encode(GAME, o -> writeGame(o, game)));
+                records++;
+            }
+            for (PlayerRating rating : loadRatings()) {
+                writeFrame(out, encode(RATING, o -> {
+                    o.writeShort(1);
+                    writeRating(o, rating);
+                }));
+                records++;
+            }
+            for (Map.Entry<String, Instant> revocation : allRevocations().entrySet()) {
+                writeFrame(out, encode(REVOCATION, o -> {
+                    writeString(o, revocation.getKey());
+                    writeInstant(o, revocation.getValue());
+                }));
+                records++;
+            }
+            List<ChatMessage> chat = allChatMessages();
+            chat.sort((a, b) -> Long.compare(a.id(), b.id()));
+            for (ChatMessage message : chat) {
+                writeFrame(out, encode(CHAT, o -> writeChat(o, message)));
+                records++;
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        long before = appendedRecords;
+        long after = records;
+        appendedRecords = records;
+        liveRecords = records;
+        LOGGER.info(() -> String.format("Compacted log store: %d -> %d records", before, after));
+    }
+
+    private void compactIfNeeded() {
+        long appended;
+        long live;
+        synchronized (this) {
+            appended = appendedRecords;
+            live = liveRecords;
+        }
+        if (appended < COMPACTION_MIN_RECORDS || appended < live * 2) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Log compaction failed", e);
+        }
+    }
+
+    private long replay() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long valid = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (true) {
+                header.clear();
+                if (!readFully(in, header)) {
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                int crc = header.getInt();
+                if (length <= 0 || length > in.size() - in.position()) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(in, payload)) {
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(payload.array(), 0, length);
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+                apply(payload.array());
+                valid = in.position();
+            }
+        }
+        return valid;
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case USER -> {
+                super.insertUser(new User(readString(in), readString(in), readString(in), readString(in), readInstant(in)));
+                liveRecords++;
+            }
+            case SESSION -> {
+                super.insertSession(new Session(readString(in), readString(in), readInstant(in)));
+                liveRecords++;
+            }
+            case ROOM -> {
+                RoomRecord room = readRoom(in);
+                if (!containsRoom(room.id())) {
+                    liveRecords++;
+                }
+                super.saveRoom(room);
+            }
+            case ROOM_DELETE -> {
+                String roomId = readString(in);
+                liveRecords -= chatCount(roomId) + (containsRoom(roomId) ? 1 : 0);
+                super.deleteRoom(roomId);
+            }
+            case CHAT -> {
+                restoreChatMessage(new ChatMessage(in.readLong(), readString(in), readString(in), readString(in), readInstant(in)));
+                liveRecords++;
+            }
+            case GAME -> {
+                super.saveGameArchive(readGame(in));
+                liveRecords++;
+            }
+            case RATING -> {
+                int count = in.readShort();
+                List<PlayerRating> ratings = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    PlayerRating rating = readRating(in);
+                    if (!containsRating(rating)) {
+                        liveRecords++;
+                    }
+                    ratings.add(rating);
+                }
+                super.saveRatings(ratings);
+            }
+            case SESSION_DELETE -> {
+                String token = readString(in);
+                if (containsSession(token)) {
+                    liveRecords--;
+                }
+                super.deleteSession(token);
+            }
+            case REVOCATION -> {
+                super.insertRevocation(readString(in), readInstant(in));
+                liveRecords++;
+            }
+            case CHAT_PRUNE -> liveRecords -= super.dropChat(readString(in), in.readLong());
+            default -> throw new IOException("Unknown log record type " + type);
+        }
+        appendedRecords++;
+    }
+
+    private void append(byte[] payload) {
+        try {
+            writeFrame(channel, payload);
+            appendedRecords++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to log store", e);
+        }
+    }
+
+    private static void writeFrame(FileChannel out, byte[] payload) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) checksum.getValue()).put(payload).flip();
+        while (frame.hasRemaining()) {
+            out.write(frame);
+        }
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long safeSize() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encode(byte type, RecordWriter writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writer.write(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        writeString(out, user.getId());
+        writeString(out, user.getUsername());
+        writeString(out, user.getPasswordSalt());
+        writeString(out, user.getPasswordHash());
+        writeInstant(out, user.getCreatedAt());
+    }
+
+    private static void writeSession(DataOutputStream out, Session session) throws IOException {
+        writeString(out, session.getToken());
+        writeString(out, session.getUserId());
+        writeInstant(out, session.getCreatedAt());
+    }
+
+    private static void writeChat(DataOutputStream out, ChatMessage message) throws IOException {
+        out.writeLong(message.id());
+        writeString(out, message.roomId());
+        writeString(out, message.userId());
+        writeString(out, message.content());
+        writeInstant(out, message.createdAt());
+    }
+
+    private static void writeRoom(DataOutputStream out, RoomRecord room) throws IOException {
+        writeString(out, room.id());
+        writeString(out, room.name());
+        writeString(out, room.gameType().name());
+        writeString(out, room.hostUserId());
+        out.writeBoolean(room.privateRoom());
+        writeString(out, room.inviteCode());
+        out.writeBoolean(room.started());
+        writeString(out, room.status());
+        writeString(out, room.currentPlayerId());
+        writeInstant(out, room.createdAt());
+        writeInstant(out, room.turnDeadline());
+        writeInstant(out, room.startedAt());
+        out.writeShort(room.playerIds().size());
+        for (String playerId : room.playerIds()) {
+            writeString(out, playerId);
+        }
+        writeString(out, room.timeControl());
+    }
+
+    private static RoomRecord readRoom(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String name = readString(in);
+        GameType gameType = GameType.fromString(readString(in));
+        String host = readString(in);
+        boolean privateRoom = in.readBoolean();
+        String inviteCode = readString(in);
+        boolean started = in.readBoolean();
+        String status = readString(in);
+        String currentPlayerId = readString(in);
+        Instant createdAt = readInstant(in);
+        Instant turnDeadline = readInstant(in);
+        Instant startedAt = readInstant(in);
+        int players = in.readShort();
+        List<String> playerIds = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            playerIds.add(readString(in));
+        }
+        // 較早的紀錄沒有計時規則欄位
+        String timeControl = in.available() > 0 ? readString(in) : null;
+        return new RoomRecord(id, name, gameType, host, privateRoom, inviteCode, started, status,
+                currentPlayerId, createdAt, turnDeadline, startedAt, List.copyOf(playerIds), timeControl);
+    }
+
+    private static void writeGame(DataOutputStream out, GameArchive game) throws IOException {
+        writeString(out, game.id());
+        writeString(out, game.roomId());
+        writeString(out, game.gameType().name());
+        out.writeShort(game.playerIds().size());
+        for (String playerId : game.playerIds()) {
+            writeString(out, playerId);
+        }
+        writeString(out, game.winnerId());
+        out.writeBoolean(game.draw());
+        writeInstant(out, game.startedAt());
+        writeInstant(out, game.finishedAt());
+        out.writeInt(game.data().length);
+        out.write(game.data());
+    }
+
+    private static GameArchive readGame(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String roomId = readString(in);
+        GameType gameType = GameType.fromString(readString(in));
+        int players = in.readShort();
+        List<String> playerIds = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            playerIds.add(readString(in));
+        }
+        String winnerId = readString(in);
+        boolean draw = in.readBoolean();
+        Instant startedAt = readInstant(in);
+        Instant finishedAt = readInstant(in);
+        byte[] data = in.readNBytes(in.readInt());
+        return new GameArchive(id, roomId, gameType, List.copyOf(playerIds), winnerId, draw, startedAt, finishedAt, data);
+    }
+
+    private static void writeRating(DataOutputStream out, PlayerRating rating) throws IOException {
+        writeString(out, rating.userId());
+        writeString(out, rating.gameType().name());
+        out.writeDouble(rating.rating());
+        out.writeDouble(rating.deviation());
+        out.writeDouble(rating.volatility());
+        out.writeInt(rating.games());
+        writeInstant(out, rating.updatedAt());
+    }
+
+    private static PlayerRating readRating(DataInputStream in) throws IOException {
+        return new PlayerRating(readString(in), GameType.fromString(readString(in)), in.readDouble(), in.readDouble(),
+                in.readDouble(), in.readInt(), readInstant(in));
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        out.writeBoolean(instant != null);
+        if (instant != null) {
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    // writeUTF 上限 64KB，聊天內容不受限，所以自行寫長度 + UTF-8
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new IOException("Truncated string in log record");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -3,41 +3,75 @@ package com.ocgp.server;
 import com.sun.net.httpserver.HttpServer;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
 public class Main {
     private static final int DEFAULT_PORT = 8080;
 
     public static void main(String[] args) throws IOException {
+        long started = System.nanoTime();
         initLogging();
 
         int port = resolvePort();
-        DataStore dataStore = new DataStore();
+        ClusterRouter cluster = ClusterRouter.fromEnvironment();
 
-        // WebSocket（跟 HTTP 共用同一個 port）
-        WebSocketHub wsHub = new WebSocketHub(port, dataStore);
-        dataStore.setWebSocketHub(wsHub);
-        wsHub.start();
-
-        // HTTP Server
+        // 先綁定 HTTP port：資料載入期間 /api 回 503（Retry-After），靜態檔照常提供
         HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
         Path staticDir = resolveStaticPath();
-
-        server.createContext("/api", new ApiHandler(dataStore, wsHub));
+        ReadinessGate api = new ReadinessGate();
+        server.createContext("/api", api);
         server.createContext("/", new StaticFileHandler(staticDir));
         server.setExecutor(Executors.newCachedThreadPool());
         server.start();
+        long boundMs = elapsedMs(started);
+
+        DataStore dataStore;
+        try {
+            dataStore = new DataStore(cluster);
+        } catch (RuntimeException | Error ex) {
+            // HTTP 執行緒不是 daemon，不關掉的話 JVM 會一直活著回 503
+            Logger.getLogger(Main.class.getName()).log(Level.SEVERE, "Failed to load data, shutting down", ex);
+            System.err.println("Failed to load data: " + ex);
+            server.stop(0);
+            System.exit(1);
+            return;
+        }
+        long loadedMs = elapsedMs(started);
+
+        TcpEventBroker broker = startEventBroker();
+        RoomEventBus eventBus = createEventBus();
+        dataStore.setRoomEventBus(eventBus);
+
+        // WebSocket（預設跟 HTTP 共用同一個 port，可用 OCGP_WS_PORT 覆寫）
+        int wsPort = resolveWsPort(port);
+        WebSocketHub wsHub = new WebSocketHub(wsPort, dataStore, eventBus);
+        dataStore.setWebSocketHub(wsHub);
+        wsHub.start();
+
+        Matchmaker matchmaker = new Matchmaker(dataStore, wsHub);
+        RateLimiter rateLimiter = RateLimiter.fromEnvironment();
+        api.open(new ApiHandler(dataStore, wsHub, matchmaker, rateLimiter));
 
         System.out.printf("OCGP server started on port %d%n", port);
         System.out.printf("Serving static assets from %s%n", staticDir);
-        System.out.printf("WebSocket server started on port %d%n", port);
+        System.out.printf("WebSocket server started on port %d%n", wsPort);
+        Logger.getLogger(Main.class.getName()).info(String.format(
+                "Startup: port bound after %d ms, data loaded after %d ms, ready after %d ms",
+                boundMs, loadedMs, elapsedMs(started)));
 
-        addShutdownHook(server, dataStore, wsHub);
+        addShutdownHook(server, dataStore, wsHub, matchmaker, rateLimiter, eventBus, broker);
+    }
+
+    private static long elapsedMs(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
     }
 
     private static int resolvePort() {
@@ -52,6 +86,46 @@ public class Main {
         }
     }
 
+    private static int resolveWsPort(int httpPort) {
+        String env = System.getenv("OCGP_WS_PORT");
+        if (env == null || env.isBlank()) {
+            return httpPort;
+        }
+        try {
+            return Integer.parseInt(env.trim());
+        } catch (NumberFormatException ex) {
+            return httpPort;
+        }
+    }
+
+    /**
+     * OCGP_EVENT_BUS=tcp://host:port 連到事件 broker（多程序部署）；未設定則使用單機匯流排。
+     */
+    private static RoomEventBus createEventBus() {
+        String env = System.getenv("OCGP_EVENT_BUS");
+        if (env == null || env.isBlank() || "local".equalsIgnoreCase(env.trim())) {
+            return new InProcessRoomEventBus();
+        }
+        URI uri = URI.create(env.trim());
+        if (!"tcp".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null || uri.getPort() <= 0) {
+            throw new IllegalStateException("Unsupported OCGP_EVENT_BUS: " + env);
+        }
+        return new TcpRoomEventBus(uri.getHost(), uri.getPort(), ClusterSecret.fromEnvironment());
+    }
+
+    /**
+     * OCGP_EVENT_BROKER_PORT 讓本程序兼任 broker；預設只聽 loopback，OCGP_EVENT_BROKER_BIND 可改綁其他位址（須設 OCGP_CLUSTER_SECRET）。
+     */
+    private static TcpEventBroker startEventBroker() throws IOException {
+        String env = System.getenv("OCGP_EVENT_BROKER_PORT");
+        if (env == null || env.isBlank()) {
+            return null;
+        }
+        String bind = System.getenv("OCGP_EVENT_BROKER_BIND");
+        InetAddress address = bind == null || bind.isBlank() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind.trim());
+        return new TcpEventBroker(address, Integer.parseInt(env.trim()), ClusterSecret.fromEnvironment());
+    }
+
     private static Path resolveStaticPath() {
         String override = System.getenv("OCGP_STATIC_DIR");
         if (override != null && !override.isBlank()) {
@@ -69,10 +143,14 @@ public class Main {
         return Path.of(".").toAbsolutePath().normalize();
     }
 
-    private static void addShutdownHook(HttpServer server, DataStore dataStore, WebSocketHub wsHub) {
+    private static void addShutdownHook(HttpServer server, DataStore dataStore, WebSocketHub wsHub,
+                                        Matchmaker matchmaker, RateLimiter rateLimiter, RoomEventBus eventBus,
+                                        TcpEventBroker broker) {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down server...");
             try {
+                matchmaker.close();
+                rateLimiter.close();
                 server.stop((int) Duration.ofSeconds(2).toSeconds());
                 try {
                     wsHub.stop(1000);
@@ -80,6 +158,11 @@ public class Main {
                     Thread.currentThread().interrupt();
                 }
             } finally {
+                dataStore.saveSnapshotOnShutdown();
+                eventBus.close();
+                if (broker != null) {
+                    broker.close();
+                }
                 dataStore.close();
             }
         }));
@@ -0,0 +1,272 @@
+package com.ocgp.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Matchmaking queue per {@link GameType}. Request threads only append tickets to a lock-free
+ * intake queue (and flip a cancelled flag); a single pairing thread drains the intake every
+ * tick into its own pool, sorts it by rating and pairs neighbours whose rating and latency are
+ * within a band that widens the longer either player has waited.
+ *
+ * <p>Queues live on the node that took the request; the matched room is created there.
+ */
+public class Matchmaker implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(Matchmaker.class.getName());
+    private static final long DEFAULT_TICK_MILLIS = 250;
+
+    // 等越久，可接受的差距越大
+    private static final int RATING_BAND = 100;
+    private static final int RATING_BAND_PER_STEP = 50;
+    private static final long LATENCY_BAND_MS = 80;
+    private static final long LATENCY_BAND_PER_STEP_MS = 40;
+    private static final long WIDEN_STEP_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // 配對結果保留給輪詢 GET /api/matchmaking 的時間
+    private static final long MATCH_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private final Map<GameType, ConcurrentLinkedQueue<Ticket>> intake = new EnumMap<>(GameType.class);
+    // 只有配對執行緒會碰
+    private final Map<GameType, List<Ticket>> pools = new EnumMap<>(GameType.class);
+    // 各池大小，給 request 執行緒讀
+    private final AtomicIntegerArray pooled = new AtomicIntegerArray(GameType.values().length);
+    private final Map<String, Ticket> ticketsByUser = new ConcurrentHashMap<>();
+    private final Pairing pairing;
+    private final Consumer<Ticket> notifier;
+    private final ScheduledExecutorService ticker;
+
+    /** Called on the pairing thread for every match; returns the id of the room created for it. */
+    @FunctionalInterface
+    interface Pairing {
+        String matched(GameType gameType, Ticket first, Ticket second);
+    }
+
+    public Matchmaker(DataStore dataStore, WebSocketHub wsHub) {
+        this((gameType, first, second) -> {
+            Room room = dataStore.startMatchedGame(gameType, first.userId(), second.userId());
+            wsHub.broadcastRoom(room);
+            return room.getId();
+        }, ticket -> wsHub.notifyUser(ticket.userId(), ticket.matchFound()), resolveTickMillis());
+    }
+
+    Matchmaker(Pairing pairing, Consumer<Ticket> notifier, long tickMillis) {
+        this.pairing = pairing;
+        this.notifier = notifier;
+        for (GameType type : GameType.values()) {
+            intake.put(type, new ConcurrentLinkedQueue<>());
+            pools.put(type, new ArrayList<>());
+        }
+        if (tickMillis > 0) {
+            this.ticker = Executors.newSingleThreadScheduledExecutor(new DataStore.DaemonThreadFactory("ocgp-matchmaker"));
+            ticker.scheduleWithFixedDelay(this::tickSafely, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.ticker = null;
+        }
+    }
+
+    /**
+     * Queues {@code userId}; an existing waiting ticket is replaced. {@code rttMillis} is -1 when
+     * unknown, which matches any latency.
+     */
+    public Ticket enqueue(String userId, GameType gameType, int rating, long rttMillis) {
+        Ticket ticket = new Ticket(userId, gameType, rating, rttMillis, System.nanoTime());
+        Ticket previous = ticketsByUser.put(userId, ticket);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        intake.get(gameType).add(ticket);
+        return ticket;
+    }
+
+    /** Leaves the queue; false if the user was not waiting. */
+    public boolean cancel(String userId) {
+        Ticket ticket = ticketsByUser.get(userId);
+        if (ticket == null || ticket.roomId != null) {
+            return false;
+        }
+        ticket.cancelled = true;
+        ticketsByUser.remove(userId, ticket);
+        return true;
+    }
+
+    public Ticket ticketOf(String userId) {
+        return ticketsByUser.get(userId);
+    }
+
+    /** Approximate queue sizes per game type; cancelled tickets still count until the next tick. */
+    public Map<String, Object> stats() {
+        Map<String, Object> dto = new LinkedHashMap<>();
+        for (GameType type : GameType.values()) {
+            dto.put(type.name(), intake.get(type).size() + pooled.get(type.ordinal()));
+        }
+        return dto;
+    }
+
+    private void tickSafely() {
+        try {
+            tick();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Matchmaking tick failed", ex);
+        }
+    }
+
+    /** One pairing round over every game type; returns the number of matches made. */
+    int tick() {
+        long now = System.nanoTime();
+        int matches = 0;
+        for (GameType type : GameType.values()) {
+            matches += pair(type, now);
+        }
+        ticketsByUser.values().removeIf(t -> t.roomId != null && now - t.matchedAtNanos > MATCH_RETENTION_NANOS);
+        return matches;
+    }
+
+    private int pair(GameType type, long now) {
+        List<Ticket> pool = pools.get(type);
+        ConcurrentLinkedQueue<Ticket> queue = intake.get(type);
+        for (Ticket ticket = queue.poll(); ticket != null; ticket = queue.poll()) {
+            pool.add(ticket);
+        }
+        pool.removeIf(t -> t.cancelled);
+        if (pool.size() < 2) {
+            pooled.set(type.ordinal(), pool.size());
+            return 0;
+        }
+        pool.sort(Comparator.comparingInt(Ticket::rating));
+        List<Ticket> waiting = new ArrayList<>();
+        int matches = 0;
+        int i = 0;
+        while (i < pool.size()) {
+            Ticket first = pool.get(i);
+            Ticket second = i + 1 < pool.size() ? pool.get(i + 1) : null;
+            if (second == null || !compatible(first, second, now)) {
+                waiting.add(first);
+                i++;
+                continue;
+            }
+            i += 2;
+            // 配對前再確認一次：request 執行緒可能剛取消
+            if (first.cancelled || second.cancelled) {
+                if (!first.cancelled) waiting.add(first);
+                if (!second.cancelled) waiting.add(second);
+                continue;
+            }
+            try {
+                String roomId = pairing.matched(type, first, second);
+                for (Ticket ticket : List.of(first, second)) {
+                    ticket.matchedAtNanos = now;
+                    ticket.opponentId = ticket == first ? second.userId() : first.userId();
+                    ticket.roomId = roomId;
+                }
+                notifier.accept(first);
+                notifier.accept(second);
+                matches++;
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Failed to start matched game", ex);
+                waiting.add(first);
+                waiting.add(second);
+            }
+        }
+        pools.put(type, waiting);
+        pooled.set(type.ordinal(), waiting.size());
+        return matches;
+    }
+
+    private static boolean compatible(Ticket a, Ticket b, long now) {
+        long steps = Math.max(now - a.enqueuedAtNanos, now - b.enqueuedAtNanos) / WIDEN_STEP_NANOS;
+        if (Math.abs(a.rating - b.rating) > RATING_BAND + steps * RATING_BAND_PER_STEP) {
+            return false;
+        }
+        if (a.rttMillis < 0 || b.rttMillis < 0) {
+            return true;
+        }
+        return Math.abs(a.rttMillis - b.rttMillis) <= LATENCY_BAND_MS + steps * LATENCY_BAND_PER_STEP_MS;
+    }
+
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    private static long resolveTickMillis() {
+        String env = System.getenv("OCGP_MATCH_TICK_MS");
+        if (env == null || env.isBlank()) {
+            return DEFAULT_TICK_MILLIS;
+        }
+        try {
+            return Math.max(10, Long.parseLong(env.trim()));
+        } catch (NumberFormatException ex) {
+            return DEFAULT_TICK_MILLIS;
+        }
+    }
+
+    /** A queued player. Fields set on match are written by the pairing thread before publication via {@code roomId}. */
+    public static final class Ticket {
+        private final String userId;
+        private final GameType gameType;
+        private final int rating;
+        private final long rttMillis;
+        private final long enqueuedAtNanos;
+        private volatile boolean cancelled;
+        private long matchedAtNanos;
+        private String opponentId;
+        private volatile String roomId;
+
+        Ticket(String userId, GameType gameType, int rating, long rttMillis, long enqueuedAtNanos) {
+            this.userId = userId;
+            this.gameType = gameType;
+            this.rating = rating;
+            this.rttMillis = rttMillis;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+
+        public String userId() {
+            return userId;
+        }
+
+        public int rating() {
+            return rating;
+        }
+
+        public String roomId() {
+            return roomId;
+        }
+
+        /** WebSocket message sent to the player once {@link #roomId()} is set. */
+        public Map<String, Object> matchFound() {
+            Map<String, Object> message = new LinkedHashMap<>();
+            message.put("type", "matchFound");
+            message.put("roomId", roomId);
+            message.put("gameType", gameType.name());
+            message.put("opponentId", opponentId);
+            return message;
+        }
+
+        public Map<String, Object> toDto() {
+            String room = roomId;
+            Map<String, Object> dto = new LinkedHashMap<>();
+            dto.put("status", room != null ? "MATCHED" : "QUEUED");
+            dto.put("gameType", gameType.name());
+            dto.put("rating", rating);
+            dto.put("rttMs", rttMillis >= 0 ? rttMillis : null);
+            dto.put("waitedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAtNanos));
+            dto.put("roomId", room);
+            dto.put("opponentId", room != null ? opponentId : null);
+            return dto;
+        }
+    }
+}
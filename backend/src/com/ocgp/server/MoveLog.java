@@ -0,0 +1,69 @@
+package com.ocgp.server;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only move history of a game session: one packed {@code int} per move instead of a
+ * {@code HashMap} of boxed values. The session owns the encoding.
+ *
+ * <p>{@link #view} hands out an immutable list of move DTOs backed by the array as it is at
+ * that moment; each map is built when the list element is read (usually while serializing).
+ * Entries below the view's size are never overwritten, and {@link #clear} starts a new array,
+ * so views stay valid without copying.
+ */
+final class MoveLog {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private int[] codes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    void add(int code) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+        }
+        codes[size++] = code;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return codes[index];
+    }
+
+    void clear() {
+        codes = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    List<Map<String, Object>> view(MoveDecoder decoder) {
+        int[] snapshot = codes;
+        int length = size;
+        return new AbstractList<>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                if (index < 0 || index >= length) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return decoder.decode(index, snapshot[index]);
+            }
+
+            @Override
+            public int size() {
+                return length;
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface MoveDecoder {
+        Map<String, Object> decode(int index, int code);
+    }
+}
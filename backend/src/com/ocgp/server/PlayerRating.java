@@ -0,0 +1,31 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A player's Glicko-2 rating for one {@link GameType}, on the familiar 1500-centred scale.
+ * {@code deviation} is the rating deviation (RD); players who have not finished a game yet
+ * use {@link #initial}.
+ */
+public record PlayerRating(String userId, GameType gameType, double rating, double deviation, double volatility,
+                           int games, Instant updatedAt) {
+    public static final double INITIAL_RATING = 1500;
+    public static final double INITIAL_DEVIATION = 350;
+    public static final double INITIAL_VOLATILITY = 0.06;
+
+    public static PlayerRating initial(String userId, GameType gameType) {
+        return new PlayerRating(userId, gameType, INITIAL_RATING, INITIAL_DEVIATION, INITIAL_VOLATILITY, 0, null);
+    }
+
+    public Map<String, Object> toDto() {
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("userId", userId);
+        dto.put("gameType", gameType.name());
+        dto.put("rating", Math.round(rating));
+        dto.put("deviation", Math.round(deviation));
+        dto.put("games", games);
+        return dto;
+    }
+}
@@ -0,0 +1,213 @@
+package com.ocgp.server;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Token-bucket rate limiting per route class, keyed by auth token and by remote address.
+ * Each bucket is a single {@link AtomicLong} holding the time at which it will be full again
+ * (the virtual-scheduling form of a token bucket), so a check is one CAS and never blocks.
+ * Buckets live in striped maps; a sweeper drops buckets that have refilled completely (idle).
+ *
+ * <p>{@code OCGP_RATE_LIMITS} overrides budgets as {@code class=burst/perSecond}, comma
+ * separated (e.g. {@code chat=5/1,move=20/5}); {@code off} disables limiting.
+ */
+public class RateLimiter implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+    private static final int STRIPES = 16;
+    private static final long SWEEP_SECONDS = 30;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // 同一個 IP 後面可能有多位玩家（NAT），帶 token 時 IP 額度放寬為帳號的倍數
+    private static final int IP_MULTIPLIER = 4;
+
+    public enum RouteClass {
+        AUTH(10, 0.2), CHAT(8, 1), MOVE(20, 4), LOBBY(60, 10);
+
+        private final int defaultBurst;
+        private final double defaultPerSecond;
+
+        RouteClass(int defaultBurst, double defaultPerSecond) {
+            this.defaultBurst = defaultBurst;
+            this.defaultPerSecond = defaultPerSecond;
+        }
+    }
+
+    /** {@code burst} requests at once, refilled at {@code perSecond}. */
+    public record Budget(int burst, double perSecond) {
+        long intervalNanos() {
+            return (long) Math.ceil(NANOS_PER_SECOND / perSecond);
+        }
+
+        Budget scaled(int factor) {
+            return new Budget(burst * factor, perSecond * factor);
+        }
+
+        @Override
+        public String toString() {
+            return burst + "/" + perSecond;
+        }
+    }
+
+    /** Outcome of a check; {@code retryAfterNanos} is 0 when allowed. */
+    public record Decision(boolean allowed, long retryAfterNanos) {
+        static final Decision ALLOW = new Decision(true, 0);
+
+        public long retryAfterSeconds() {
+            return Math.max(1, (retryAfterNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+        }
+    }
+
+    private final boolean enabled;
+    private final Map<RouteClass, Budget> budgets = new EnumMap<>(RouteClass.class);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Map<String, AtomicLong>[] stripes = new Map[STRIPES];
+    private final Map<RouteClass, LongAdder> allowed = new EnumMap<>(RouteClass.class);
+    private final Map<RouteClass, LongAdder> limited = new EnumMap<>(RouteClass.class);
+    private final LongAdder evicted = new LongAdder();
+    private final ScheduledExecutorService sweeper;
+
+    public static RateLimiter fromEnvironment() {
+        String env = System.getenv("OCGP_RATE_LIMITS");
+        boolean enabled = env == null || !"off".equalsIgnoreCase(env.trim());
+        return new RateLimiter(enabled, enabled ? parseBudgets(env) : Map.of());
+    }
+
+    public RateLimiter(boolean enabled, Map<RouteClass, Budget> overrides) {
+        this.enabled = enabled;
+        for (RouteClass route : RouteClass.values()) {
+            budgets.put(route, overrides.getOrDefault(route, new Budget(route.defaultBurst, route.defaultPerSecond)));
+            allowed.put(route, new LongAdder());
+            limited.put(route, new LongAdder());
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        if (enabled) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(new DataStore.DaemonThreadFactory("ocgp-rate-sweeper"));
+            sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Charges one request of {@code route} to the token's bucket (if any) and to the address's
+     * bucket (if any). Both must have room; a request rejected by the address bucket still
+     * spends the token's budget, which only makes a flooding client wait longer.
+     */
+    public Decision check(RouteClass route, String token, String remoteAddress) {
+        if (!enabled) {
+            return Decision.ALLOW;
+        }
+        long now = System.nanoTime();
+        Budget budget = budgets.get(route);
+        long wait = 0;
+        if (token != null) {
+            wait = Math.max(wait, acquire(route.name() + "|t|" + token, budget, now));
+        }
+        if (remoteAddress != null) {
+            // 未登入的請求只看 IP，用原本額度；有 token 時 IP 桶只是防一個位址開大量帳號
+            Budget perAddress = token != null ? budget.scaled(IP_MULTIPLIER) : budget;
+            wait = Math.max(wait, acquire(route.name() + "|a|" + remoteAddress, perAddress, now));
+        }
+        if (wait > 0) {
+            limited.get(route).increment();
+            return new Decision(false, wait);
+        }
+        allowed.get(route).increment();
+        return Decision.ALLOW;
+    }
+
+    // 回傳 0 表示放行，否則為還要等多久（ns）
+    private long acquire(String key, Budget budget, long now) {
+        AtomicLong fullAt = stripes[Math.floorMod(key.hashCode(), STRIPES)].computeIfAbsent(key, k -> new AtomicLong(now));
+        long interval = budget.intervalNanos();
+        long tolerance = interval * budget.burst();
+        while (true) {
+            long current = fullAt.get();
+            long base = current - now > 0 ? current : now;
+            long next = base + interval;
+            if (next - now > tolerance) {
+                return next - now - tolerance;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // 已回滿的桶與新建的桶等價，可以直接丟掉
+    private void sweep() {
+        long now = System.nanoTime();
+        long removed = 0;
+        for (Map<String, AtomicLong> stripe : stripes) {
+            int before = stripe.size();
+            stripe.values().removeIf(fullAt -> now - fullAt.get() >= 0);
+            removed += before - stripe.size();
+        }
+        evicted.add(removed);
+        long count = removed;
+        LOGGER.fine(() -> "Rate limiter evicted " + count + " idle buckets");
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (RouteClass route : RouteClass.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("budget", budgets.get(route).toString());
+            entry.put("allowed", allowed.get(route).sum());
+            entry.put("limited", limited.get(route).sum());
+            routes.put(route.name().toLowerCase(Locale.ROOT), entry);
+        }
+        int buckets = 0;
+        for (Map<String, AtomicLong> stripe : stripes) {
+            buckets += stripe.size();
+        }
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("enabled", enabled);
+        dto.put("ipMultiplier", IP_MULTIPLIER);
+        dto.put("buckets", buckets);
+        dto.put("evicted", evicted.sum());
+        dto.put("routes", routes);
+        return dto;
+    }
+
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    private static Map<RouteClass, Budget> parseBudgets(String env) {
+        Map<RouteClass, Budget> result = new EnumMap<>(RouteClass.class);
+        if (env == null || env.isBlank()) {
+            return result;
+        }
+        for (String part : env.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            String[] value = kv.length == 2 ? kv[1].split("/", 2) : new String[0];
+            try {
+                RouteClass route = RouteClass.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+                Budget budget = new Budget(Integer.parseInt(value[0].trim()), Double.parseDouble(value[1].trim()));
+                if (budget.burst() > 0 && budget.perSecond() > 0) {
+                    result.put(route, budget);
+                    continue;
+                }
+            } catch (RuntimeException ignored) {
+                // 格式錯誤：沿用預設
+            }
+            LOGGER.warning("Ignoring invalid OCGP_RATE_LIMITS entry: " + part);
+        }
+        return result;
+    }
+}
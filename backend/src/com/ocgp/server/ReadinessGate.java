@@ -0,0 +1,39 @@
+package com.ocgp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Lets the HTTP port be bound before the data is loaded: until {@link #open} hands over the real
+ * handler, every request gets {@code 503} with {@code Retry-After}, so load balancers and clients
+ * see a starting node instead of a refused connection.
+ */
+public class ReadinessGate implements HttpHandler {
+    private volatile HttpHandler delegate;
+
+    public void open(HttpHandler handler) {
+        this.delegate = handler;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        HttpHandler handler = delegate;
+        if (handler != null) {
+            handler.handle(exchange);
+            return;
+        }
+        try {
+            if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
+                HttpUtils.sendNoContent(exchange);
+                return;
+            }
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpUtils.sendJson(exchange, 503, Map.of("error", "Server is starting"));
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.ocgp.server;
+
+/**
+ * Renju forbidden moves for Black: overline, double-four and double-three. An exact five
+ * always wins, even if the same move also forms a forbidden shape.
+ *
+ * <p>Every shape that matters lies within five cells of the move, so each of the four lines
+ * through it is read as an 11-cell window (empty / black / blocked, where white and off-board
+ * are both blocked) and looked up in a table precomputed for all 3^11 windows. An entry holds
+ * whether the window makes five or an overline, how many fours it makes (two completing
+ * points that finish the same four stones count once), and which empty cells would turn it
+ * into a straight four. A three only counts if such a cell is itself a legal move for Black,
+ * which is checked recursively on a scratch copy of the board.
+ */
+public final class RenjuRules {
+    public static final String OVERLINE = "overline";
+    public static final String DOUBLE_FOUR = "double-four";
+    public static final String DOUBLE_THREE = "double-three";
+
+    private static final int WINDOW = 11;
+    private static final int CENTER = 5;
+    private static final int WINDOW_MASK = (1 << WINDOW) - 1;
+    private static final int EMPTY = 0;
+    private static final int BLACK = 1;
+    private static final int BLOCKED = 2;
+
+    // 表項：bit 0 五連、bit 1 長連、bit 2-3 四的數量、bit 4-14 成活四的空點
+    private static final int FIVE_FLAG = 1;
+    private static final int OVERLINE_FLAG = 1 << 1;
+    private static final int FOUR_SHIFT = 2;
+    private static final int THREE_SHIFT = 4;
+    // 三的判定需要檢查做成活四的那一手本身是否為禁手；實戰盤面遠淺於此
+    private static final int MAX_DEPTH = 6;
+
+    private static final int[] BASE3 = new int[1 << WINDOW];
+    private static final int[] PATTERNS;
+
+    static {
+        for (int mask = 1; mask < BASE3.length; mask++) {
+            int low = Integer.numberOfTrailingZeros(mask);
+            BASE3[mask] = BASE3[mask & (mask - 1)] + pow3(low);
+        }
+        PATTERNS = new int[pow3(WINDOW)];
+        int[] cells = new int[WINDOW];
+        for (int index = 0; index < PATTERNS.length; index++) {
+            int rest = index;
+            for (int i = 0; i < WINDOW; i++) {
+                cells[i] = rest % 3;
+                rest /= 3;
+            }
+            if (cells[CENTER] == BLACK) {
+                PATTERNS[index] = classify(cells);
+            }
+        }
+    }
+
+    private RenjuRules() {
+    }
+
+    /**
+     * Why Black may not play {@code (x, y)} on {@code board}, or {@code null} if the move is
+     * allowed. The cell must be empty; the board is not modified.
+     */
+    public static String forbiddenReason(GobangBoard board, int x, int y) {
+        GobangBoard scratch = board.copy();
+        scratch.place(x, y, 1);
+        return check(scratch, x, y, 0);
+    }
+
+    private static String check(GobangBoard board, int x, int y, int depth) {
+        int[] patterns = new int[4];
+        boolean overline = false;
+        int fours = 0;
+        int threeLines = 0;
+        for (int direction = GobangBoard.ROW; direction <= GobangBoard.ANTI_DIAGONAL; direction++) {
+            int pattern = PATTERNS[windowIndex(board, direction, x, y)];
+            if ((pattern & FIVE_FLAG) != 0) {
+                return null;
+            }
+            overline |= (pattern & OVERLINE_FLAG) != 0;
+            int lineFours = (pattern >>> FOUR_SHIFT) & 3;
+            fours += lineFours;
+            if (lineFours == 0 && pattern >>> THREE_SHIFT != 0) {
+                threeLines++;
+            }
+            patterns[direction] = pattern;
+        }
+        if (overline) {
+            return OVERLINE;
+        }
+        if (fours >= 2) {
+            return DOUBLE_FOUR;
+        }
+        if (threeLines < 2) {
+            return null;
+        }
+        int threes = 0;
+        for (int direction = GobangBoard.ROW; direction <= GobangBoard.ANTI_DIAGONAL; direction++) {
+            int pattern = patterns[direction];
+            if (((pattern >>> FOUR_SHIFT) & 3) != 0) {
+                continue;
+            }
+            for (int points = pattern >>> THREE_SHIFT; points != 0; points &= points - 1) {
+                int delta = Integer.numberOfTrailingZeros(points) - CENTER;
+                int tx = direction == GobangBoard.ROW ? x : direction == GobangBoard.ANTI_DIAGONAL ? x - delta : x + delta;
+                int ty = direction == GobangBoard.COLUMN ? y : y + delta;
+                boolean playable = depth >= MAX_DEPTH;
+                if (!playable) {
+                    board.place(tx, ty, 1);
+                    playable = check(board, tx, ty, depth + 1) == null;
+                    board.remove(tx, ty);
+                }
+                if (playable) {
+                    if (++threes >= 2) {
+                        return DOUBLE_THREE;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int windowIndex(GobangBoard board, int direction, int x, int y) {
+        int bit = GobangBoard.bitIndex(direction, x, y);
+        int bounds = GobangBoard.lineBounds(direction, x, y);
+        int low = bounds >>> 8;
+        int high = bounds & 0xFF;
+        int valid = (1 << (high + 1)) - (1 << low);
+        int black = window(board.line(1, direction, x, y), bit);
+        int blocked = (window(board.line(-1, direction, x, y), bit) | ~window(valid, bit)) & WINDOW_MASK;
+        return BASE3[black] + 2 * BASE3[blocked];
+    }
+
+    private static int window(int line, int bit) {
+        int shift = bit - CENTER;
+        return (shift >= 0 ? line >>> shift : line << -shift) & WINDOW_MASK;
+    }
+
+    private static int classify(int[] cells) {
+        int run = runThrough(cells, CENTER);
+        if (run == 5) {
+            return FIVE_FLAG;
+        }
+        int pattern = run > 5 ? OVERLINE_FLAG : 0;
+        // 四：補一子成恰好五連；同四子的兩個補點（活四）只算一個
+        int firstFour = -1;
+        int fours = 0;
+        int threePoints = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            if (cells[i] != EMPTY) {
+                continue;
+            }
+            cells[i] = BLACK;
+            int start = runStart(cells, CENTER);
+            int length = runThrough(cells, CENTER);
+            if (length == 5 && i >= start && i < start + 5) {
+                int stones = (((1 << 5) - 1) << start) & ~(1 << i);
+                if (stones != firstFour) {
+                    fours++;
+                    firstFour = firstFour < 0 ? stones : firstFour;
+                }
+            } else if (length == 4 && i >= start && i < start + 4 && isStraightFour(cells, start)) {
+                threePoints |= 1 << i;
+            }
+            cells[i] = EMPTY;
+        }
+        return pattern | Math.min(fours, 3) << FOUR_SHIFT | (fours == 0 ? threePoints << THREE_SHIFT : 0);
+    }
+
+    // 活四：兩端皆空，且各自補上後恰好五連
+    private static boolean isStraightFour(int[] cells, int start) {
+        int left = start - 1;
+        int right = start + 4;
+        if (left < 0 || right >= WINDOW || cells[left] != EMPTY || cells[right] != EMPTY) {
+            return false;
+        }
+        return (left == 0 || cells[left - 1] != BLACK) && (right == WINDOW - 1 || cells[right + 1] != BLACK);
+    }
+
+    private static int runStart(int[] cells, int from) {
+        int start = from;
+        while (start > 0 && cells[start - 1] == BLACK) {
+            start--;
+        }
+        return start;
+    }
+
+    private static int runThrough(int[] cells, int from) {
+        int end = from;
+        while (end < WINDOW - 1 && cells[end + 1] == BLACK) {
+            end++;
+        }
+        return end - runStart(cells, from) + 1;
+    }
+
+    private static int pow3(int exponent) {
+        int value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 3;
+        }
+        return value;
+    }
+}
@@ -2,6 +2,7 @@ package com.ocgp.server;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -24,8 +25,26 @@ public class Room {
     private boolean started;
     private GameSession gameSession;
     private final Map<String, Instant> disconnectedUntil = new HashMap<>();
+    // 輪到的一方旗落的時間（由 clock 換算成牆鐘，供 DTO 與持久化）
     private Instant turnDeadline;
+    private GameClock.TimeControl timeControl = GameClock.TimeControl.DEFAULT;
+    private GameClock clock;
     private Instant gameStartedAt;
+    private String gameId;
+    private GameArchive archivedGame;
+    // archivedGame 解出的棋步，只在換了 archive 時重解；toDto 每次廣播都會用到
+    private GameArchive decodedArchive;
+    private List<Map<String, Object>> decodedMoves;
+
+    /**
+     * The running (or last) game of a room as written to the restart snapshot. {@code moves} are
+     * the move DTOs; replaying them rebuilds the session. {@code winnerId} matters only when the
+     * game ended without a deciding move (flag fall, forfeit).
+     */
+    public record GameSnapshot(String gameId, Instant gameStartedAt, Instant sessionStartedAt, List<String> playerOrder,
+                               List<Map<String, Object>> moves, String status, String winnerId, boolean archived,
+                               GameClock.Snapshot clock, Map<String, Instant> disconnectedUntil) {
+    }
 
     public Room(String name, GameType gameType, String hostUserId, boolean privateRoom, String inviteCode, Instant createdAt) {
         this(UUID.randomUUID().toString(), name, gameType, hostUserId, privateRoom, inviteCode, createdAt);
@@ -106,6 +125,12 @@ public class Room {
         LOGGER.info(() -> String.format("User %s joined room %s", userId, id));
     }
 
+    /** Seats players loaded from storage, skipping the join checks and the per-player log line. */
+    synchronized void restorePlayers(List<String> userIds) {
+        playerIds.clear();
+        playerIds.addAll(userIds);
+    }
+
     public synchronized Instant removePlayer(String userId) {
         if (!playerIds.contains(userId)) {
             return null;
@@ -155,14 +180,14 @@ public class Room {
         if (playerIds.size() < 2) {
             throw new HttpStatusException(409, "Need two players to start");
         }
-        this.gameSession = switch (gameType) {
-            case GOBANG -> new GobangGameSession();
-            case CHINESE_CHESS -> new ChineseChessGameSession();
-        };
+        this.gameSession = newSession(gameType);
         this.gameSession.start(new ArrayList<>(playerIds));
         this.started = true;
         this.gameStartedAt = Instant.now();
-        this.turnDeadline = gameStartedAt.plusSeconds(15);
+        this.clock = new GameClock(timeControl, System.nanoTime());
+        syncTurnDeadline(System.nanoTime());
+        this.gameId = UUID.randomUUID().toString();
+        this.archivedGame = null;
         LOGGER.info(() -> String.format("Room %s started game (%s)", id, gameType));
     }
 
@@ -177,24 +202,82 @@ public class Room {
         }
 
         // 立即重新建立新對局，保留玩家順序
-        this.gameSession = switch (gameType) {
-            case GOBANG -> new GobangGameSession();
-            case CHINESE_CHESS -> new ChineseChessGameSession();
-        };
+        this.gameSession = newSession(gameType);
         this.gameSession.start(new ArrayList<>(playerIds));
         this.started = true;
         this.gameStartedAt = Instant.now();
-        this.turnDeadline = gameStartedAt.plusSeconds(15);
+        this.clock = new GameClock(timeControl, System.nanoTime());
+        syncTurnDeadline(System.nanoTime());
+        this.gameId = UUID.randomUUID().toString();
+        this.archivedGame = null;
         LOGGER.info(() -> String.format("Room %s restarted game (%s)", id, gameType));
     }
 
-    public synchronized void submitMove(String userId, Map<String, Object> payload) {
+    /** {@code receivedAt} is the {@link System#nanoTime()} at which the request arrived, taken before any locking. */
+    public synchronized void submitMove(String userId, Map<String, Object> payload, long receivedAt) {
         if (!started || gameSession == null) {
             throw new HttpStatusException(409, "Game not started");
         }
         ensurePlayer(userId);
+        if (clock != null && clock.isFlagDown(receivedAt) && "IN_PROGRESS".equals(gameSession.getStatus())) {
+            // 旗落由排程在 deadline 當下處理；這裡只拒絕逾時的著手
+            throw new HttpStatusException(409, "Time expired");
+        }
         gameSession.makeMove(userId, payload);
-        refreshTurnDeadline();
+        if (clock != null) {
+            if ("IN_PROGRESS".equals(gameSession.getStatus())) {
+                clock.punch(receivedAt);
+            } else {
+                clock.stop(receivedAt);
+            }
+        }
+        syncTurnDeadline(receivedAt);
+    }
+
+    public synchronized Map<String, Object> legalMoves(String from) {
+        if (!started || gameSession == null) {
+            throw new HttpStatusException(409, "Game not started");
+        }
+        return gameSession.legalMoves(from);
+    }
+
+    /**
+     * Archives the game that just finished, exactly once per game: the session's move list is
+     * released and later DTOs read the moves back from the archive. Returns null while the game is
+     * running or if it was already archived.
+     */
+    public synchronized GameArchive archiveFinishedGame() {
+        if (gameSession == null || gameId == null || archivedGame != null
+                || !"FINISHED".equals(gameSession.getStatus())) {
+            return null;
+        }
+        archivedGame = GameArchive.encode(GameRecord.capture(gameId, id, gameSession, Instant.now()));
+        gameSession.discardMoves();
+        return archivedGame;
+    }
+
+    private List<Map<String, Object>> archivedMoves() {
+        if (decodedArchive != archivedGame) {
+            List<Map<String, Object>> moves = new ArrayList<>();
+            for (Map<String, Object> move : archivedGame.decodeMoves()) {
+                moves.add(Collections.unmodifiableMap(move));
+            }
+            decodedMoves = Collections.unmodifiableList(moves);
+            decodedArchive = archivedGame;
+        }
+        return decodedMoves;
+    }
+
+    /** 目前（或剛結束）對局的紀錄；尚未開局時為 null */
+    public synchronized GameRecord currentGameRecord() {
+        if (gameSession == null || gameId == null) {
+            return null;
+        }
+        if (archivedGame != null) {
+            return archivedGame.toRecord();
+        }
+        Instant finishedAt = "FINISHED".equals(gameSession.getStatus()) ? Instant.now() : null;
+        return GameRecord.capture(gameId, id, gameSession, finishedAt);
     }
 
     public synchronized Map<String, Object> toDto(DataStore store) {
@@ -208,6 +291,7 @@ public class Room {
         dto.put("inviteCode", inviteCode);
         dto.put("createdAt", createdAt.toString());
         dto.put("turnDeadline", turnDeadline != null ? turnDeadline.toString() : null);
+        dto.put("timeControl", timeControl.toString());
         Instant startedAtDto = gameStartedAt;
         if (gameSession != null && gameSession.getStartedAt() != null) {
             startedAtDto = gameSession.getStartedAt();
@@ -221,10 +305,16 @@ public class Room {
         dto.put("players", players);
         dto.put("playerIds", new ArrayList<>(playerIds));
         dto.put("started", started);
+        dto.put("gameId", gameSession != null ? gameId : null);
         if (started && gameSession != null) {
             dto.put("status", gameSession.getStatus());
             dto.put("currentPlayerId", gameSession.getCurrentPlayerId());
-            dto.put("gameState", gameSession.toDto());
+            Map<String, Object> gameState = gameSession.toDto();
+            if (archivedGame != null) {
+                gameState.put("moves", archivedMoves());
+            }
+            dto.put("gameState", gameState);
+            dto.put("clock", clock != null ? clock.toDto(gameSession.getPlayerOrder(), System.nanoTime()) : null);
         } else {
             dto.put("status", "WAITING");
             dto.put("currentPlayerId", null);
@@ -259,7 +349,8 @@ public class Room {
         }
     }
 
-    public synchronized void updateSettings(String userId, String newName, GameType newGameType, boolean newPrivateFlag, String newInviteCode) {
+    public synchronized void updateSettings(String userId, String newName, GameType newGameType, boolean newPrivateFlag, String newInviteCode,
+                                            GameClock.TimeControl newTimeControl) {
         ensureHost(userId);
         if (newName != null && !newName.isBlank()) {
             this.name = newName.trim();
@@ -269,6 +360,10 @@ public class Room {
         } else if (newGameType != null && started) {
             throw new HttpStatusException(409, "Cannot change game type after start");
         }
+        // 新的計時規則從下一局生效
+        if (newTimeControl != null) {
+            this.timeControl = newTimeControl;
+        }
         this.privateRoom = newPrivateFlag;
         this.inviteCode = newInviteCode;
     }
@@ -286,34 +381,116 @@ public class Room {
             // 超時：結束對局回到等待
             started = false;
             gameSession = null;
+            archivedGame = null;
+            clock = null;
+            turnDeadline = null;
             disconnectedUntil.clear();
             LOGGER.info(() -> String.format("Disconnected timeout for room %s, resetting game", id));
         }
     }
 
-    public synchronized boolean checkTurnTimeout() {
-        if (!started || gameSession == null || turnDeadline == null) {
+    /**
+     * Ends the game on time if the side to move has run out; called when the scheduled
+     * deadline fires. Returns true if the flag fell.
+     */
+    public synchronized boolean checkFlagFall() {
+        if (!started || gameSession == null || clock == null || !"IN_PROGRESS".equals(gameSession.getStatus())) {
             return false;
         }
-        Instant now = Instant.now();
-        if (now.isBefore(turnDeadline)) {
+        long now = System.nanoTime();
+        if (!clock.isFlagDown(now)) {
             return false;
         }
-        String current = gameSession.getCurrentPlayerId();
         List<String> order = gameSession.getPlayerOrder();
-        if (current == null || order.size() < 2) {
+        if (order.size() < 2) {
             return false;
         }
-        String winner = order.get(0).equals(current) ? order.get(1) : order.get(0);
+        String loser = order.get(clock.running());
+        String winner = order.get(0).equals(loser) ? order.get(1) : order.get(0);
+        clock.stop(now);
         gameSession.forceWin(winner);
         turnDeadline = null;
-        LOGGER.info(() -> String.format("Room %s timeout, winner %s", id, winner));
+        LOGGER.info(() -> String.format("Room %s flag fell for %s, winner %s", id, loser, winner));
         return true;
     }
 
-    public synchronized void refreshTurnDeadline() {
-        if (!started) return;
-        this.turnDeadline = Instant.now().plusSeconds(15);
+    /** nanoTime of the next flag fall, or {@link Long#MAX_VALUE} if no clock is running. */
+    public synchronized long flagDeadlineNanos() {
+        if (!started || gameSession == null || clock == null || !"IN_PROGRESS".equals(gameSession.getStatus())) {
+            return Long.MAX_VALUE;
+        }
+        return clock.deadlineNanos();
+    }
+
+    /** Null when no game has been started in this room. */
+    public synchronized GameSnapshot captureGame(long nowNanos) {
+        if (!started || gameSession == null || gameId == null) {
+            return null;
+        }
+        Map<String, Object> state = gameSession.toDto();
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> moves = archivedGame != null
+                ? archivedMoves()
+                : (List<Map<String, Object>>) state.get("moves");
+        return new GameSnapshot(gameId, gameStartedAt, gameSession.getStartedAt(), gameSession.getPlayerOrder(),
+                moves, gameSession.getStatus(), (String) state.get("winnerId"), archivedGame != null,
+                clock != null ? clock.snapshot(nowNanos) : null, new HashMap<>(disconnectedUntil));
+    }
+
+    /**
+     * Rebuilds the game from a snapshot by replaying its moves through the normal move path.
+     * {@code archive} is the stored archive of a finished game, or null if it has not been
+     * archived yet.
+     */
+    public synchronized void restoreGame(GameSnapshot snapshot, GameArchive archive, long nowNanos) {
+        GameSession session = newSession(gameType);
+        session.start(snapshot.playerOrder());
+        List<String> order = snapshot.playerOrder();
+        for (int i = 0; i < snapshot.moves().size(); i++) {
+            session.makeMove(order.get(i % order.size()), snapshot.moves().get(i));
+        }
+        if ("FINISHED".equals(snapshot.status()) && "IN_PROGRESS".equals(session.getStatus())) {
+            session.forceWin(snapshot.winnerId());
+        }
+        session.restoreStartedAt(snapshot.sessionStartedAt());
+        this.gameSession = session;
+        this.started = true;
+        this.gameId = snapshot.gameId();
+        this.gameStartedAt = snapshot.gameStartedAt();
+        this.clock = snapshot.clock() != null ? GameClock.restore(snapshot.clock(), nowNanos) : null;
+        this.archivedGame = archive;
+        if (archivedGame != null) {
+            session.discardMoves();
+        }
+        disconnectedUntil.clear();
+        disconnectedUntil.putAll(snapshot.disconnectedUntil());
+        syncTurnDeadline(nowNanos);
+    }
+
+    /** Players marked as disconnected during a game, with the time their seat expires. */
+    public synchronized Map<String, Instant> getDisconnectedUntil() {
+        return new HashMap<>(disconnectedUntil);
+    }
+
+    private static GameSession newSession(GameType gameType) {
+        return switch (gameType) {
+            case GOBANG -> new GobangGameSession();
+            case RENJU -> new GobangGameSession(true);
+            case CHINESE_CHESS -> new ChineseChessGameSession();
+        };
+    }
+
+    private void syncTurnDeadline(long nowNanos) {
+        long deadline = clock != null ? clock.deadlineNanos() : Long.MAX_VALUE;
+        turnDeadline = deadline == Long.MAX_VALUE ? null : Instant.now().plusNanos(deadline - nowNanos);
+    }
+
+    public synchronized GameClock.TimeControl getTimeControl() {
+        return timeControl;
+    }
+
+    public synchronized void setTimeControl(GameClock.TimeControl timeControl) {
+        this.timeControl = timeControl != null ? timeControl : GameClock.TimeControl.DEFAULT;
     }
 
     public synchronized Instant getTurnDeadline() {
@@ -0,0 +1,38 @@
+package com.ocgp.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A room-scoped event shared between nodes. {@code payload} is the already serialized
+ * WebSocket frame, so relaying nodes forward it to their sockets without re-encoding.
+ * {@code message} is the same frame before serialization; it only exists on events delivered
+ * inside the publishing JVM and is null once the event has crossed the bus.
+ */
+public record RoomEvent(String type, String roomId, String originNodeId, String payload, Map<String, Object> message) {
+    public static final String ROOM_UPDATE = "roomUpdate";
+    public static final String CHAT_MESSAGE = "chatMessage";
+    public static final String ROOM_DELETED = "roomDeleted";
+
+    public RoomEvent(String type, String roomId, String originNodeId, String payload) {
+        this(type, roomId, originNodeId, payload, null);
+    }
+
+    public String toJson() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("type", type);
+        map.put("roomId", roomId);
+        map.put("origin", originNodeId);
+        map.put("payload", payload);
+        return JsonUtil.stringify(map);
+    }
+
+    public static RoomEvent fromJson(String json) {
+        Map<String, Object> map = JsonUtil.parseObject(json);
+        return new RoomEvent(
+                (String) map.get("type"),
+                (String) map.get("roomId"),
+                (String) map.get("origin"),
+                (String) map.get("payload"));
+    }
+}
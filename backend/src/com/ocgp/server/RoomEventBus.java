@@ -0,0 +1,17 @@
+package com.ocgp.server;
+
+import java.util.function.Consumer;
+
+/**
+ * Fan-out channel for room updates and chat. Every subscriber, including the publishing node,
+ * receives each published event, so local socket delivery goes through the same path as
+ * delivery on remote nodes.
+ */
+public interface RoomEventBus extends AutoCloseable {
+    void publish(RoomEvent event);
+
+    void subscribe(Consumer<RoomEvent> listener);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,37 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Persisted columns of a {@link Room}, captured under the room monitor so storage writes
+ * never hold the room lock.
+ */
+public record RoomRecord(String id, String name, GameType gameType, String hostUserId, boolean privateRoom,
+                         String inviteCode, boolean started, String status, String currentPlayerId,
+                         Instant createdAt, Instant turnDeadline, Instant startedAt, List<String> playerIds,
+                         String timeControl) {
+
+    public static RoomRecord capture(Room room) {
+        synchronized (room) {
+            return new RoomRecord(room.getId(), room.getName(), room.getGameType(), room.getHostUserId(),
+                    room.isPrivateRoom(), room.getInviteCode(), room.isStarted(), room.getStatus(),
+                    room.getCurrentPlayerId(), room.getCreatedAt(), room.getTurnDeadline(),
+                    room.getStartedAt(), room.getPlayerIds(), room.getTimeControl().toString());
+        }
+    }
+
+    public Room toRoom() {
+        Room room = new Room(id, name, gameType, hostUserId, privateRoom, inviteCode, createdAt);
+        room.setTurnDeadline(turnDeadline);
+        room.setStartedAt(startedAt);
+        room.setStarted(started);
+        try {
+            room.setTimeControl(GameClock.TimeControl.parse(timeControl));
+        } catch (HttpStatusException ex) {
+            room.setTimeControl(GameClock.TimeControl.DEFAULT);
+        }
+        room.restorePlayers(playerIds);
+        return room;
+    }
+}
@@ -0,0 +1,160 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Lobby search over local and remote rooms. Names are indexed by their lowercased trigrams; a
+ * query of three or more characters starts from the posting list of its rarest trigram and checks
+ * each candidate, so a search costs about as much as the rooms it could match. Shorter queries
+ * (and the unfiltered listing) walk the rooms in creation order, which is what they return
+ * anyway. Private rooms are reachable only through the invite-code map.
+ *
+ * <p>Writers are serialized; readers take no lock and re-check every candidate against its
+ * current entry, so a posting list that is briefly stale never produces a wrong result.
+ */
+final class RoomSearchIndex {
+    private static final int GRAM = 3;
+    private static final Comparator<Entry> BY_CREATED = Comparator.comparing(Entry::createdAt)
+            .thenComparing(Entry::roomId);
+
+    record Entry(String roomId, String name, String key, GameType gameType, boolean privateRoom, String inviteCode,
+                 Instant createdAt) {
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 排序鍵只看 (createdAt, roomId)，更新時不變；值是 roomId，查詢時再從 entries 讀最新內容
+    private final ConcurrentSkipListMap<Entry, String> ordered = new ConcurrentSkipListMap<>(BY_CREATED);
+    private final Map<String, Set<String>> postings = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byInviteCode = new ConcurrentHashMap<>();
+
+    /** Adds or updates a room; a no-op when nothing searchable changed. */
+    synchronized void put(String roomId, String name, GameType gameType, boolean privateRoom, String inviteCode,
+                          Instant createdAt) {
+        Entry old = entries.get(roomId);
+        if (old != null && old.name().equals(name) && old.gameType() == gameType && old.privateRoom() == privateRoom
+                && Objects.equals(old.inviteCode(), inviteCode)) {
+            return;
+        }
+        Entry entry = new Entry(roomId, name, name.toLowerCase(Locale.ROOT), gameType, privateRoom,
+                privateRoom ? inviteCode : null, old != null ? old.createdAt() : createdAt);
+        entries.put(roomId, entry);
+        if (old == null) {
+            ordered.put(entry, roomId);
+        }
+        if (old == null || !old.key().equals(entry.key())) {
+            if (old != null) {
+                forEachGram(old.key(), gram -> removePosting(postings, gram, roomId));
+            }
+            forEachGram(entry.key(), gram -> postings.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(roomId));
+        }
+        if (old != null && old.inviteCode() != null) {
+            removePosting(byInviteCode, old.inviteCode(), roomId);
+        }
+        if (entry.inviteCode() != null) {
+            byInviteCode.computeIfAbsent(entry.inviteCode(), c -> ConcurrentHashMap.newKeySet()).add(roomId);
+        }
+    }
+
+    synchronized void remove(String roomId) {
+        Entry old = entries.remove(roomId);
+        if (old == null) {
+            return;
+        }
+        ordered.remove(old);
+        forEachGram(old.key(), gram -> removePosting(postings, gram, roomId));
+        if (old.inviteCode() != null) {
+            removePosting(byInviteCode, old.inviteCode(), roomId);
+        }
+    }
+
+    /**
+     * Room ids, oldest first, of public rooms whose name contains {@code nameQuery} (case
+     * insensitive; blank matches all) plus the private room with {@code inviteCode}, if its name
+     * matches too. {@code gameType} null means any.
+     */
+    List<String> search(String nameQuery, GameType gameType, String inviteCode) {
+        String query = nameQuery == null ? "" : nameQuery.trim().toLowerCase(Locale.ROOT);
+        List<Entry> matches = new ArrayList<>();
+        boolean sorted = query.length() < GRAM;
+        if (sorted) {
+            for (String roomId : ordered.values()) {
+                Entry entry = entries.get(roomId);
+                if (entry != null && !entry.privateRoom() && matches(entry, query, gameType)) {
+                    matches.add(entry);
+                }
+            }
+        } else {
+            for (String roomId : candidates(query)) {
+                Entry entry = entries.get(roomId);
+                if (entry != null && !entry.privateRoom() && matches(entry, query, gameType)) {
+                    matches.add(entry);
+                }
+            }
+        }
+        if (inviteCode != null && !inviteCode.isBlank()) {
+            for (String roomId : byInviteCode.getOrDefault(inviteCode.trim(), Set.of())) {
+                Entry entry = entries.get(roomId);
+                if (entry != null && entry.privateRoom() && inviteCode.trim().equals(entry.inviteCode())
+                        && matches(entry, query, gameType)) {
+                    matches.add(entry);
+                    sorted = false;
+                }
+            }
+        }
+        if (!sorted) {
+            matches.sort(BY_CREATED);
+        }
+        List<String> ids = new ArrayList<>(matches.size());
+        for (Entry entry : matches) {
+            ids.add(entry.roomId());
+        }
+        return ids;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // 取查詢字串中最短的 trigram 清單；任一 trigram 不存在就不可能有結果
+    private Collection<String> candidates(String query) {
+        Set<String> smallest = null;
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            Set<String> posting = postings.get(query.substring(i, i + GRAM));
+            if (posting == null || posting.isEmpty()) {
+                return Set.of();
+            }
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+        return smallest;
+    }
+
+    private static boolean matches(Entry entry, String query, GameType gameType) {
+        return (gameType == null || entry.gameType() == gameType) && entry.key().contains(query);
+    }
+
+    private static void forEachGram(String key, Consumer<String> action) {
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            action.accept(key.substring(i, i + GRAM));
+        }
+    }
+
+    private static void removePosting(Map<String, Set<String>> index, String key, String roomId) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(roomId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+}
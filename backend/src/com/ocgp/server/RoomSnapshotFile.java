@@ -0,0 +1,323 @@
+package com.ocgp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of live rooms and their games, for warm restarts. The file is written to a
+ * temporary sibling through a memory mapping and renamed into place; startup maps it and decodes
+ * straight from the mapping.
+ *
+ * <p>Layout (big-endian):
+ * <pre>
+ * 0   8 bytes  magic "OCGPSNAP"
+ * 8   u16      version
+ * 10  u8       clean: 1 when written on shutdown and not yet loaded
+ * 11  u8       reserved
+ * 12  i32      room count
+ * 16  i64      written at (epoch ms)
+ * 24  i32      body length
+ * 28  i32      CRC32 of the body
+ * 32  body     one entry per room: the {@link RoomRecord} columns, then the optional
+ *              {@link Room.GameSnapshot} with one u16 per move
+ *              (Gobang x * 15 + y; Xiangqi (fromRow * 9 + fromCol) * 90 + toRow * 9 + toCol)
+ * </pre>
+ * Loading clears the clean flag in place, so a snapshot is trusted on its own only once; after
+ * a crash it is merely overlaid on the database.
+ */
+public class RoomSnapshotFile {
+    private static final Logger LOGGER = Logger.getLogger(RoomSnapshotFile.class.getName());
+    private static final byte[] MAGIC = "OCGPSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int CLEAN_OFFSET = 10;
+    private static final int GOBANG_SIZE = GobangBoard.SIZE;
+    private static final int XIANGQI_COLS = 9;
+    private static final int XIANGQI_CELLS = 90;
+
+    /** One room as read back: the lobby columns and, if a game was running, its state. */
+    public record Entry(RoomRecord room, Room.GameSnapshot game) {
+    }
+
+    public record Contents(boolean clean, Instant writtenAt, List<Entry> entries) {
+    }
+
+    private final Path path;
+
+    public RoomSnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /** Writes all rooms and returns the file size. */
+    public synchronized long write(Iterable<Room> rooms, boolean clean) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        long now = System.nanoTime();
+        for (Room room : rooms) {
+            RoomRecord record;
+            Room.GameSnapshot game;
+            synchronized (room) {
+                record = RoomRecord.capture(room);
+                game = room.captureGame(now);
+            }
+            writeRoom(out, record, game);
+            count++;
+        }
+        out.flush();
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + body.length);
+            map.put(MAGIC).putShort((short) VERSION).put((byte) (clean ? 1 : 0)).put((byte) 0)
+                    .putInt(count).putLong(System.currentTimeMillis()).putInt(body.length).putInt((int) crc.getValue());
+            map.put(body);
+            map.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return HEADER_BYTES + body.length;
+    }
+
+    /** Null when there is no usable snapshot (missing, other version, or corrupt). */
+    public synchronized Contents read() {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                LOGGER.warning(() -> "Ignoring truncated room snapshot " + path);
+                return null;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(magic);
+            int version = Short.toUnsignedInt(map.getShort());
+            boolean clean = map.get() == 1;
+            map.get();
+            int count = map.getInt();
+            Instant writtenAt = Instant.ofEpochMilli(map.getLong());
+            int length = map.getInt();
+            int expectedCrc = map.getInt();
+            if (!java.util.Arrays.equals(magic, MAGIC) || version != VERSION || length != size - HEADER_BYTES) {
+                LOGGER.warning(() -> "Ignoring room snapshot with unexpected header " + path);
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(map.slice(HEADER_BYTES, length));
+            if ((int) crc.getValue() != expectedCrc) {
+                LOGGER.warning(() -> "Ignoring room snapshot with bad checksum " + path);
+                return null;
+            }
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(readRoom(map));
+            }
+            if (clean) {
+                // 只信任一次：之後若當機重啟，這份快照已不是最新狀態
+                map.put(CLEAN_OFFSET, (byte) 0);
+                map.force();
+            }
+            return new Contents(clean, writtenAt, entries);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to read room snapshot " + path, e);
+            return null;
+        }
+    }
+
+    private static void writeRoom(DataOutputStream out, RoomRecord room, Room.GameSnapshot game) throws IOException {
+        writeString(out, room.id());
+        writeString(out, room.name());
+        writeString(out, room.gameType().name());
+        writeString(out, room.hostUserId());
+        out.writeBoolean(room.privateRoom());
+        writeString(out, room.inviteCode());
+        out.writeBoolean(room.started());
+        writeInstant(out, room.createdAt());
+        writeInstant(out, room.turnDeadline());
+        writeInstant(out, room.startedAt());
+        writeStrings(out, room.playerIds());
+        writeString(out, room.timeControl());
+        out.writeBoolean(game != null);
+        if (game == null) {
+            return;
+        }
+        writeString(out, game.gameId());
+        writeInstant(out, game.gameStartedAt());
+        writeInstant(out, game.sessionStartedAt());
+        writeStrings(out, game.playerOrder());
+        writeString(out, game.status());
+        writeString(out, game.winnerId());
+        out.writeBoolean(game.archived());
+        boolean chess = room.gameType() == GameType.CHINESE_CHESS;
+        out.writeShort(game.moves().size());
+        for (Map<String, Object> move : game.moves()) {
+            out.writeShort(chess
+                    ? (intOf(move, "fromRow") * XIANGQI_COLS + intOf(move, "fromCol")) * XIANGQI_CELLS
+                            + intOf(move, "toRow") * XIANGQI_COLS + intOf(move, "toCol")
+                    : intOf(move, "x") * GOBANG_SIZE + intOf(move, "y"));
+        }
+        GameClock.Snapshot clock = game.clock();
+        out.writeBoolean(clock != null);
+        if (clock != null) {
+            writeString(out, clock.control().toString());
+            for (int i = 0; i < 2; i++) {
+                out.writeLong(clock.remainingNanos()[i]);
+                out.writeInt(clock.periodsLeft()[i]);
+            }
+            out.writeByte(clock.running());
+            out.writeLong(clock.elapsedNanos());
+        }
+        out.writeShort(game.disconnectedUntil().size());
+        for (Map.Entry<String, Instant> entry : game.disconnectedUntil().entrySet()) {
+            writeString(out, entry.getKey());
+            writeInstant(out, entry.getValue());
+        }
+    }
+
+    private static Entry readRoom(ByteBuffer in) {
+        String id = readString(in);
+        String name = readString(in);
+        GameType gameType = GameType.fromString(readString(in));
+        String host = readString(in);
+        boolean privateRoom = in.get() != 0;
+        String inviteCode = readString(in);
+        boolean started = in.get() != 0;
+        Instant createdAt = readInstant(in);
+        Instant turnDeadline = readInstant(in);
+        Instant startedAt = readInstant(in);
+        List<String> players = readStrings(in);
+        String timeControl = readString(in);
+        RoomRecord room = new RoomRecord(id, name, gameType, host, privateRoom, inviteCode, started, null, null,
+                createdAt, turnDeadline, startedAt, players, timeControl);
+        if (in.get() == 0) {
+            return new Entry(room, null);
+        }
+        String gameId = readString(in);
+        Instant gameStartedAt = readInstant(in);
+        Instant sessionStartedAt = readInstant(in);
+        List<String> order = readStrings(in);
+        String status = readString(in);
+        String winnerId = readString(in);
+        boolean archived = in.get() != 0;
+        boolean chess = gameType == GameType.CHINESE_CHESS;
+        int moveCount = Short.toUnsignedInt(in.getShort());
+        List<Map<String, Object>> moves = new ArrayList<>(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            int code = Short.toUnsignedInt(in.getShort());
+            Map<String, Object> move = new LinkedHashMap<>();
+            if (chess) {
+                int from = code / XIANGQI_CELLS;
+                int to = code % XIANGQI_CELLS;
+                move.put("fromRow", from / XIANGQI_COLS);
+                move.put("fromCol", from % XIANGQI_COLS);
+                move.put("toRow", to / XIANGQI_COLS);
+                move.put("toCol", to % XIANGQI_COLS);
+            } else {
+                move.put("x", code / GOBANG_SIZE);
+                move.put("y", code % GOBANG_SIZE);
+            }
+            moves.add(move);
+        }
+        GameClock.Snapshot clock = null;
+        if (in.get() != 0) {
+            GameClock.TimeControl control = GameClock.TimeControl.parse(readString(in));
+            long[] remaining = new long[2];
+            int[] periods = new int[2];
+            for (int i = 0; i < 2; i++) {
+                remaining[i] = in.getLong();
+                periods[i] = in.getInt();
+            }
+            int running = in.get();
+            clock = new GameClock.Snapshot(control, remaining, periods, running, in.getLong());
+        }
+        int disconnectedCount = Short.toUnsignedInt(in.getShort());
+        Map<String, Instant> disconnected = new HashMap<>();
+        for (int i = 0; i < disconnectedCount; i++) {
+            disconnected.put(readString(in), readInstant(in));
+        }
+        return new Entry(room, new Room.GameSnapshot(gameId, gameStartedAt, sessionStartedAt, order, moves, status,
+                winnerId, archived, clock, disconnected));
+    }
+
+    private static int intOf(Map<String, Object> map, String key) {
+        return ((Number) map.get(key)).intValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeShort(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = Short.toUnsignedInt(in.getShort());
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        out.writeBoolean(instant != null);
+        if (instant != null) {
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+
+    private static Instant readInstant(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        return Instant.ofEpochSecond(in.getLong(), in.getInt());
+    }
+}
@@ -0,0 +1,309 @@
+package com.ocgp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Path trie for {@link ApiHandler}. Routes are declared once as {@code METHOD /a/{var}/b} and
+ * compiled into a trie of path segments; matching walks the request path in place (segments are
+ * compared with {@link String#regionMatches}, only path variables are copied out). Each route
+ * carries its own middleware chain and request metrics.
+ *
+ * <p>Literal segments win over a variable at the same position; if the literal branch does not
+ * lead to a route for the request method the variable branch is tried. A path that exists only
+ * under other methods yields a match without a route, carrying the {@code Allow} value.
+ */
+final class RouteTable {
+    private static final String[] NO_PARAMS = new String[0];
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(HttpExchange exchange, Call call) throws IOException;
+    }
+
+    /** Runs around the handler; calls {@code next.proceed()} to continue or returns to stop. */
+    @FunctionalInterface
+    interface Middleware {
+        void apply(HttpExchange exchange, Call call, Chain next) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Chain {
+        void proceed() throws IOException;
+    }
+
+    /** Per-request state shared by a route's middleware and handler. */
+    static final class Call {
+        private final Route route;
+        private final String[] params;
+        private User user;
+        private Room room;
+
+        Call(Route route, String[] params) {
+            this.route = route;
+            this.params = params;
+        }
+
+        Route route() {
+            return route;
+        }
+
+        String param(String name) {
+            String[] names = route.paramNames;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return params[i];
+                }
+            }
+            throw new IllegalStateException("No path variable " + name + " in " + route);
+        }
+
+        /** Set by the auth middleware. */
+        User user() {
+            return user;
+        }
+
+        void setUser(User user) {
+            this.user = user;
+        }
+
+        /** Set by the room middleware. */
+        Room room() {
+            return room;
+        }
+
+        void setRoom(Room room) {
+            this.room = room;
+        }
+    }
+
+    static final class Route {
+        private final String method;
+        private final String pattern;
+        private final String[] paramNames;
+        private final Handler handler;
+        private final List<Middleware> global;
+        private final List<Middleware> middleware = new ArrayList<>();
+        private RateLimiter.RouteClass limit = RateLimiter.RouteClass.LOBBY;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final Match noParams = new Match(this, NO_PARAMS, null);
+
+        private Route(String method, String pattern, String[] paramNames, Handler handler, List<Middleware> global) {
+            this.method = method;
+            this.pattern = pattern;
+            this.paramNames = paramNames;
+            this.handler = handler;
+            this.global = global;
+        }
+
+        /** Appends a middleware; they run in declaration order, after the table-wide ones. */
+        Route with(Middleware hook) {
+            middleware.add(hook);
+            return this;
+        }
+
+        /** Rate-limit class used before the route runs (default {@code LOBBY}). */
+        Route limit(RateLimiter.RouteClass routeClass) {
+            this.limit = routeClass;
+            return this;
+        }
+
+        RateLimiter.RouteClass limit() {
+            return limit;
+        }
+
+        void run(HttpExchange exchange, Call call) throws IOException {
+            proceed(exchange, call, 0);
+        }
+
+        private void proceed(HttpExchange exchange, Call call, int index) throws IOException {
+            int shared = global.size();
+            if (index == shared + middleware.size()) {
+                handler.handle(exchange, call);
+                return;
+            }
+            Middleware hook = index < shared ? global.get(index) : middleware.get(index - shared);
+            hook.apply(exchange, call, () -> proceed(exchange, call, index + 1));
+        }
+
+        void record(int status, long nanos) {
+            requests.increment();
+            if (status >= 500) {
+                serverErrors.increment();
+            } else if (status >= 400) {
+                clientErrors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> toDto() {
+            long count = requests.sum();
+            Map<String, Object> dto = new LinkedHashMap<>();
+            dto.put("requests", count);
+            dto.put("clientErrors", clientErrors.sum());
+            dto.put("serverErrors", serverErrors.sum());
+            dto.put("avgMs", count == 0 ? 0 : Math.round(totalNanos.sum() / (double) count / 10_000.0) / 100.0);
+            dto.put("maxMs", Math.round(maxNanos.get() / 10_000.0) / 100.0);
+            return dto;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + pattern;
+        }
+    }
+
+    /** Result of a lookup: a route, or the methods allowed on a path that exists. */
+    record Match(Route route, String[] params, String allowedMethods) {
+    }
+
+    private static final class Node {
+        private String[] literals = NO_PARAMS;
+        private Node[] children = new Node[0];
+        private Node variable;
+        private Route[] routes = new Route[0];
+        // 路徑存在但方法不符時回傳的固定結果（含 Allow）
+        private Match notAllowed;
+
+        Node literal(String segment) {
+            for (int i = 0; i < literals.length; i++) {
+                if (literals[i].equals(segment)) {
+                    return children[i];
+                }
+            }
+            literals = Arrays.copyOf(literals, literals.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            literals[literals.length - 1] = segment;
+            return children[children.length - 1] = new Node();
+        }
+    }
+
+    private final Node root = new Node();
+    private final List<Route> all = new ArrayList<>();
+    private final List<Middleware> global = new ArrayList<>();
+
+    /** Adds a middleware that runs first on every route, including routes added earlier. */
+    void use(Middleware hook) {
+        global.add(hook);
+    }
+
+    Route get(String pattern, Handler handler) {
+        return add("GET", pattern, handler);
+    }
+
+    Route post(String pattern, Handler handler) {
+        return add("POST", pattern, handler);
+    }
+
+    Route delete(String pattern, Handler handler) {
+        return add("DELETE", pattern, handler);
+    }
+
+    Route add(String method, String pattern, Handler handler) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route must start with '/': " + pattern);
+        }
+        Node node = root;
+        List<String> names = new ArrayList<>();
+        for (String segment : pattern.substring(1).split("/", -1)) {
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                names.add(segment.substring(1, segment.length() - 1));
+                if (node.variable == null) {
+                    node.variable = new Node();
+                }
+                node = node.variable;
+            } else {
+                node = node.literal(segment);
+            }
+        }
+        for (Route existing : node.routes) {
+            if (existing.method.equals(method)) {
+                throw new IllegalStateException("Duplicate route " + method + " " + pattern);
+            }
+        }
+        Route route = new Route(method, pattern, names.toArray(NO_PARAMS), handler, global);
+        node.routes = Arrays.copyOf(node.routes, node.routes.length + 1);
+        node.routes[node.routes.length - 1] = route;
+        StringBuilder allowed = new StringBuilder();
+        for (Route existing : node.routes) {
+            allowed.append(allowed.length() == 0 ? "" : ",").append(existing.method);
+        }
+        node.notAllowed = new Match(null, NO_PARAMS, allowed.toString());
+        all.add(route);
+        return route;
+    }
+
+    /** Looks up {@code path} (starting with '/'); null when no route has this path. */
+    Match match(String method, String path) {
+        return find(root, method, path, 1, 0);
+    }
+
+    // 逐段比對 path[start, end)，不切字串；只有變數段才 substring，參數陣列在葉節點依實際個數配置
+    private static Match find(Node node, String method, String path, int start, int depth) {
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        int length = end - start;
+        boolean last = end == path.length();
+        // 路徑相符但方法不符（共用的 notAllowed）先記著，另一條分支若有真正的路由仍以它為準
+        Match notAllowed = null;
+        String[] literals = node.literals;
+        for (int i = 0; i < literals.length; i++) {
+            if (literals[i].length() == length && path.regionMatches(start, literals[i], 0, length)) {
+                Match found = last ? leaf(node.children[i], method, depth) : find(node.children[i], method, path, end + 1, depth);
+                if (found != null && found.route() != null) {
+                    return found;
+                }
+                if (found != null && notAllowed == null) {
+                    notAllowed = found;
+                }
+            }
+        }
+        if (node.variable != null && length > 0) {
+            Match found = last ? leaf(node.variable, method, depth + 1) : find(node.variable, method, path, end + 1, depth + 1);
+            if (found != null && found.route() != null) {
+                found.params()[depth] = path.substring(start, end);
+                return found;
+            }
+            if (found != null && notAllowed == null) {
+                notAllowed = found;
+            }
+        }
+        return notAllowed;
+    }
+
+    private static Match leaf(Node node, String method, int variables) {
+        Route[] routes = node.routes;
+        if (routes.length == 0) {
+            return null;
+        }
+        for (Route route : routes) {
+            if (route.method.equals(method)) {
+                return variables == 0 ? route.noParams : new Match(route, new String[variables], null);
+            }
+        }
+        return node.notAllowed;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> dto = new LinkedHashMap<>();
+        for (Route route : all) {
+            dto.put(route.toString(), route.toDto());
+        }
+        return dto;
+    }
+}
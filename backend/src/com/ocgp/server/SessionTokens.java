@@ -0,0 +1,203 @@
+package com.ocgp.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stateless session tokens: {@code v1.<payload>.<signature>}, where the payload carries the user
+ * id, issue time, expiry and a random token id, and the signature is HMAC-SHA256 over the
+ * payload. Any node holding the secret can verify a token without a lookup.
+ *
+ * <p>Logout revokes a token id. Revocations are stored by the {@link StorageEngine} until the
+ * token would have expired anyway, and mirrored in a {@link BloomFilter} so that verification
+ * only reaches storage on a filter hit. The filter is rebuilt periodically, which drops expired
+ * revocations and picks up ones made on other nodes.
+ *
+ * <p>The secret comes from {@code OCGP_TOKEN_SECRET}; otherwise a random key is generated once
+ * and kept at {@code OCGP_TOKEN_KEY_PATH}. Nodes of a cluster must share the secret.
+ */
+public class SessionTokens {
+    private static final Logger LOGGER = Logger.getLogger(SessionTokens.class.getName());
+    static final String PREFIX = "v1.";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Duration DEFAULT_TTL = Duration.ofDays(7);
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_FILTER_CAPACITY = 1024;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /** Contents of a valid token. */
+    public record Claims(String userId, Instant issuedAt, Instant expiresAt, String tokenId) {
+    }
+
+    private final StorageEngine storage;
+    private final SecretKeySpec key;
+    private final Duration ttl;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;
+    private volatile BloomFilter revoked;
+    private volatile int revokedCount;
+
+    public static SessionTokens fromEnvironment(StorageEngine storage, boolean clustered) {
+        String secret = System.getenv("OCGP_TOKEN_SECRET");
+        byte[] key;
+        if (secret != null && !secret.isBlank()) {
+            key = secret.trim().getBytes(StandardCharsets.UTF_8);
+        } else {
+            if (clustered) {
+                LOGGER.warning("OCGP_TOKEN_SECRET is not set; tokens from other nodes verify only if they share OCGP_TOKEN_KEY_PATH");
+            }
+            key = loadOrCreateKey(DataStore.resolveDataPath("OCGP_TOKEN_KEY_PATH", "out/data/token.key"));
+        }
+        return new SessionTokens(storage, key, resolveTtl());
+    }
+
+    public SessionTokens(StorageEngine storage, byte[] secret, Duration ttl) {
+        if (secret.length < 16) {
+            throw new IllegalStateException("Token secret must be at least 16 bytes");
+        }
+        this.storage = storage;
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttl = ttl;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " unavailable", e);
+            }
+        });
+        refresh();
+    }
+
+    public static boolean isSigned(String token) {
+        return token.startsWith(PREFIX);
+    }
+
+    public Session issue(String userId) {
+        Instant now = Instant.now();
+        byte[] id = new byte[12];
+        random.nextBytes(id);
+        Claims claims = new Claims(userId, now, now.plus(ttl), ENCODER.encodeToString(id));
+        String payload = ENCODER.encodeToString((claims.userId() + "|" + claims.issuedAt().getEpochSecond() + "|"
+                + claims.expiresAt().getEpochSecond() + "|" + claims.tokenId()).getBytes(StandardCharsets.UTF_8));
+        return new Session(PREFIX + payload + "." + ENCODER.encodeToString(sign(payload)), userId, now);
+    }
+
+    /** Checks signature, expiry and revocation; throws 401 on any failure. */
+    public Claims verify(String token) {
+        int dot = token.lastIndexOf('.');
+        if (!isSigned(token) || dot <= PREFIX.length()) {
+            throw new HttpStatusException(401, "Invalid session");
+        }
+        String payload = token.substring(PREFIX.length(), dot);
+        Claims claims;
+        try {
+            if (!MessageDigest.isEqual(sign(payload), DECODER.decode(token.substring(dot + 1)))) {
+                throw new HttpStatusException(401, "Invalid session");
+            }
+            String[] parts = new String(DECODER.decode(payload), StandardCharsets.UTF_8).split("\\|");
+            claims = new Claims(parts[0], Instant.ofEpochSecond(Long.parseLong(parts[1])),
+                    Instant.ofEpochSecond(Long.parseLong(parts[2])), parts[3]);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new HttpStatusException(401, "Invalid session");
+        }
+        if (!Instant.now().isBefore(claims.expiresAt())) {
+            throw new HttpStatusException(401, "Session expired");
+        }
+        // 過濾器說「可能」時才查表確認
+        if (revoked.mightContain(claims.tokenId()) && storage.isTokenRevoked(claims.tokenId())) {
+            throw new HttpStatusException(401, "Session revoked");
+        }
+        return claims;
+    }
+
+    public synchronized void revoke(Claims claims) {
+        storage.insertRevocation(claims.tokenId(), claims.expiresAt());
+        revoked.add(claims.tokenId());
+        revokedCount++;
+    }
+
+    /**
+     * Prunes expired revocations and rebuilds the filter from storage. Holds the same lock as
+     * {@link #revoke}, so a revocation is never lost between the query and the swap.
+     */
+    public synchronized void refresh() {
+        Instant now = Instant.now();
+        storage.deleteExpiredRevocations(now);
+        List<String> ids = storage.loadRevocations(now);
+        BloomFilter filter = new BloomFilter(Math.max(MIN_FILTER_CAPACITY, ids.size() * 2), FALSE_POSITIVE_RATE);
+        for (String id : ids) {
+            filter.add(id);
+        }
+        revoked = filter;
+        revokedCount = ids.size();
+    }
+
+    public Map<String, Object> stats() {
+        BloomFilter filter = revoked;
+        Map<String, Object> dto = new LinkedHashMap<>();
+        dto.put("ttlHours", ttl.toHours());
+        dto.put("revoked", revokedCount);
+        dto.put("filterBits", filter.sizeInBits());
+        dto.put("filterHashes", filter.hashCount());
+        return dto;
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] loadOrCreateKey(Path path) {
+        try {
+            if (Files.exists(path)) {
+                return Files.readAllBytes(path);
+            }
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            Files.write(path, key);
+            try {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ignored) {
+                // 非 POSIX 檔案系統
+            }
+            LOGGER.info(() -> "Generated token signing key at " + path);
+            return key;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load token key " + path, e);
+        }
+    }
+
+    private static Duration resolveTtl() {
+        String env = System.getenv("OCGP_TOKEN_TTL_HOURS");
+        if (env == null || env.isBlank()) {
+            return DEFAULT_TTL;
+        }
+        try {
+            long hours = Long.parseLong(env.trim());
+            if (hours > 0) {
+                return Duration.ofHours(hours);
+            }
+        } catch (NumberFormatException ignored) {
+            // fall through
+        }
+        LOGGER.warning("Ignoring invalid OCGP_TOKEN_TTL_HOURS: " + env);
+        return DEFAULT_TTL;
+    }
+}
@@ -0,0 +1,290 @@
+package com.ocgp.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.server.WebSocketServer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fan-out of room updates to spectators, kept off the players' path.
+ *
+ * <p>Each room is pinned to one single-threaded "lane", so joins, updates and delayed deliveries
+ * for a room are applied in order without locking. Publishing only enqueues; the frame for an
+ * update is built once per draft and shared by every spectator socket in the group.
+ *
+ * <p>Spectators may ask for a delayed feed. Each lane keeps a short history of updates so a
+ * delayed spectator's join snapshot is the state as of {@code now - delay}, and later updates
+ * reach them {@code delay} seconds after the players. A delayed spectator never sees state newer
+ * than {@code now - delay}: when the history has nothing that old, the join sends nothing and the
+ * first state arrives when the oldest pending update falls due. A room keeps no state here while
+ * nobody watches it, and keeps history only while some spectator asked for a delay.
+ */
+public class SpectatorFanout implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(SpectatorFanout.class.getName());
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_MAX_DELAY_SECONDS = 120;
+
+    private final WebSocketServer server;
+    private final Backpressure backpressure;
+    private final Function<WebSocket, Backpressure.Outbox> outboxes;
+    private final ScheduledExecutorService[] lanes;
+    private final int maxDelaySeconds;
+    private final Map<String, Audience> audiences = new ConcurrentHashMap<>();
+
+    public SpectatorFanout(WebSocketServer server, Backpressure backpressure,
+                           Function<WebSocket, Backpressure.Outbox> outboxes) {
+        this.server = server;
+        this.backpressure = backpressure;
+        this.outboxes = outboxes;
+        this.maxDelaySeconds = resolveInt("OCGP_SPECTATOR_MAX_DELAY_SECONDS", DEFAULT_MAX_DELAY_SECONDS, 0);
+        int threads = resolveInt("OCGP_SPECTATOR_THREADS", DEFAULT_THREADS, 1);
+        this.lanes = new ScheduledExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            int lane = i;
+            lanes[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "spectator-fanout-" + lane);
+                t.setDaemon(true);
+                // CPU 吃緊時讓處理玩家請求的執行緒優先
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Subscribes {@code conn} to {@code roomId}. The join snapshot is sent from the room's lane,
+     * so the spectator sees it strictly before any update published after it. {@code
+     * currentSnapshot} is the live state; a delayed spectator only gets it {@code delay} seconds
+     * later, and only when no update of the room has been seen yet.
+     */
+    public void join(WebSocket conn, String roomId, int delaySeconds, Supplier<String> currentSnapshot) {
+        int delay = Math.max(0, Math.min(delaySeconds, maxDelaySeconds));
+        submit(roomId, () -> {
+            Audience audience = audiences.computeIfAbsent(roomId, k -> new Audience());
+            long now = System.nanoTime();
+            long delayNanos = TimeUnit.SECONDS.toNanos(delay);
+            String snapshot = audience.snapshotAt(now - delayNanos);
+            if (snapshot == null && audience.history.isEmpty()) {
+                // 沒有任何更新紀錄，無從得知現況有多舊：即時觀眾直接送；延遲觀眾把它記成剛發生的更新，
+                // 由下面的補送到期才送，之後加入的延遲觀眾也用得到
+                String current = currentSnapshot.get();
+                if (delay == 0) {
+                    snapshot = current;
+                } else if (current != null) {
+                    audience.remember(now, current, TimeUnit.SECONDS.toNanos(maxDelaySeconds));
+                }
+            }
+            if (snapshot != null && conn.isOpen()) {
+                send(conn, snapshot);
+            }
+            // 快照之後、尚未到期的更新：已排程的群組投遞不含這條新連線，這裡單獨補上
+            if (delay > 0) {
+                for (Frame frame : audience.history) {
+                    if (frame.at() <= now - delayNanos) continue;
+                    lane(roomId).schedule(() -> {
+                        if (conn.isOpen()) send(conn, frame.payload());
+                    }, frame.at() + delayNanos - now, TimeUnit.NANOSECONDS);
+                }
+            }
+            audience.groups.computeIfAbsent(delay, k -> Collections.newSetFromMap(new ConcurrentHashMap<>())).add(conn);
+        });
+    }
+
+    public void leave(WebSocket conn, String roomId) {
+        submit(roomId, () -> {
+            Audience audience = audiences.get(roomId);
+            if (audience == null) return;
+            audience.groups.values().forEach(set -> set.remove(conn));
+            audience.groups.values().removeIf(Set::isEmpty);
+            if (!audience.hasDelayedGroup()) {
+                // 沒人要延遲轉播了，留著的紀錄之後也接不上，直接丟掉
+                audience.history.clear();
+            }
+            if (audience.groups.isEmpty()) {
+                audiences.remove(roomId, audience);
+            }
+        });
+    }
+
+    /** 只排入佇列就返回，實際送出在該房間的 lane 上進行 */
+    public void publish(String roomId, String payload) {
+        // 沒人觀戰就連 lane 都不進；與 join 同時發生時，join 送的即時快照已含這筆更新
+        if (!audiences.containsKey(roomId)) return;
+        submit(roomId, () -> {
+            // 沒有觀眾的房間不留任何狀態；歷史只為延遲觀眾保留
+            Audience audience = audiences.get(roomId);
+            if (audience == null) return;
+            if (audience.hasDelayedGroup()) {
+                audience.remember(System.nanoTime(), payload, TimeUnit.SECONDS.toNanos(maxDelaySeconds));
+            }
+            for (Map.Entry<Integer, Set<WebSocket>> group : audience.groups.entrySet()) {
+                int delay = group.getKey();
+                Set<WebSocket> sockets = group.getValue();
+                if (delay == 0) {
+                    deliver(payload, sockets);
+                } else if (!sockets.isEmpty()) {
+                    // 以發布當下的成員為準，之後才加入的延遲觀眾由 join 自行補送
+                    List<WebSocket> recipients = List.copyOf(sockets);
+                    lane(roomId).schedule(() -> deliver(payload, recipients), delay, TimeUnit.SECONDS);
+                }
+            }
+        });
+    }
+
+    public void closeRoom(String roomId) {
+        submit(roomId, () -> {
+            Audience audience = audiences.remove(roomId);
+            if (audience == null) return;
+            for (Set<WebSocket> sockets : audience.groups.values()) {
+                for (WebSocket ws : sockets) {
+                    ws.close(1000, "Room closed");
+                }
+            }
+        });
+    }
+
+    public int spectatorCount(String roomId) {
+        Audience audience = audiences.get(roomId);
+        if (audience == null) return 0;
+        int count = 0;
+        for (Set<WebSocket> sockets : audience.groups.values()) {
+            count += sockets.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        for (ScheduledExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    private void deliver(String payload, Collection<WebSocket> sockets) {
+        if (sockets.isEmpty()) return;
+        // 送出緩衝未清空的觀眾改由 Backpressure 保留最新一筆，其餘共用同一份 frame
+        List<WebSocket> textReady = new ArrayList<>(sockets.size());
+        List<WebSocket> binaryReady = new ArrayList<>();
+        ByteBuffer binaryFrame = null;
+        for (WebSocket ws : sockets) {
+            Backpressure.Outbox outbox = outboxes.apply(ws);
+            Object frame = payload;
+            if (outbox.binary) {
+                if (binaryFrame == null) {
+                    binaryFrame = encode(payload);
+                }
+                frame = binaryFrame;
+            }
+            if (backpressure.admitUpdate(ws, outbox, frame)) {
+                (outbox.binary ? binaryReady : textReady).add(ws);
+            }
+        }
+        try {
+            if (!textReady.isEmpty()) {
+                server.broadcast(payload, textReady);
+            }
+            if (!binaryReady.isEmpty()) {
+                server.broadcast(binaryFrame.duplicate(), binaryReady);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Spectator broadcast failed", ex);
+        }
+    }
+
+    private void send(WebSocket conn, String payload) {
+        Backpressure.send(conn, outboxes.apply(conn).binary ? encode(payload) : payload);
+    }
+
+    private static ByteBuffer encode(String payload) {
+        return BinaryRoomCodec.encodeRoomUpdate(JsonUtil.parseObject(payload));
+    }
+
+    private void submit(String roomId, Runnable task) {
+        try {
+            lane(roomId).execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Spectator task failed for room " + roomId, ex);
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 關閉中
+        }
+    }
+
+    private ScheduledExecutorService lane(String roomId) {
+        return lanes[Math.floorMod(roomId.hashCode(), lanes.length)];
+    }
+
+    private static int resolveInt(String name, int defaultValue, int min) {
+        String env = System.getenv(name);
+        if (env == null || env.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(min, Integer.parseInt(env.trim()));
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /** 一個房間的觀眾，依延遲秒數分組；只在所屬 lane 上修改 */
+    private static final class Audience {
+        private final Map<Integer, Set<WebSocket>> groups = new ConcurrentHashMap<>();
+        private final Deque<Frame> history = new ArrayDeque<>();
+
+        boolean hasDelayedGroup() {
+            for (Integer delay : groups.keySet()) {
+                if (delay > 0) return true;
+            }
+            return false;
+        }
+
+        void remember(long at, String payload, long windowNanos) {
+            if (windowNanos <= 0) {
+                history.clear();
+                return;
+            }
+            history.addLast(new Frame(at, payload));
+            // 保留一筆早於視窗的紀錄，作為延遲觀眾加入時的快照
+            while (history.size() > 1) {
+                Iterator<Frame> it = history.iterator();
+                it.next();
+                if (at - it.next().at() < windowNanos) break;
+                history.pollFirst();
+            }
+        }
+
+        /** 最後一筆不晚於 cutoff 的狀態；沒有夠舊的紀錄時回傳 null，不拿較新的狀態充數 */
+        String snapshotAt(long cutoff) {
+            String latest = null;
+            for (Frame frame : history) {
+                if (frame.at() > cutoff) break;
+                latest = frame.payload();
+            }
+            return latest;
+        }
+    }
+
+    private record Frame(long at, String payload) {
+    }
+}
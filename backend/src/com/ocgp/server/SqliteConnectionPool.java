@@ -0,0 +1,195 @@
+package com.ocgp.server;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One writer connection plus a small pool of read-only connections to the same SQLite file.
+ * WAL mode lets readers run while the writer commits; every connection caches its prepared
+ * statements so SQL is compiled once per connection instead of once per call.
+ */
+public final class SqliteConnectionPool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(SqliteConnectionPool.class.getName());
+    private static final int DEFAULT_READERS = 4;
+
+    private final PooledConnection writer;
+    private final List<PooledConnection> readers = new ArrayList<>();
+    private final BlockingQueue<PooledConnection> idleReaders;
+
+    public SqliteConnectionPool(Path path) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("SQLite JDBC driver not found", e);
+        }
+        int readerCount = resolveReaderCount();
+        this.writer = open(path, false);
+        this.idleReaders = new ArrayBlockingQueue<>(readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            PooledConnection reader = open(path, true);
+            readers.add(reader);
+            idleReaders.add(reader);
+        }
+        LOGGER.info(() -> String.format("SQLite DB at %s (1 writer, %d readers)", path, readerCount));
+    }
+
+    /**
+     * Runs {@code work} on the single writer connection. SQLite allows one writer at a time,
+     * so this is the only place where DB access is serialized.
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        synchronized (writer) {
+            return work.run(writer);
+        }
+    }
+
+    /**
+     * Runs {@code work} on the writer inside one transaction, rolling back on failure.
+     */
+    public <T> T transaction(SqlWork<T> work) throws SQLException {
+        synchronized (writer) {
+            Connection c = writer.connection;
+            c.setAutoCommit(false);
+            try {
+                T result = work.run(writer);
+                c.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    c.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code work} on a read-only connection; blocks only when every reader is busy.
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection reader;
+        try {
+            reader = idleReaders.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+        try {
+            return work.run(reader);
+        } finally {
+            idleReaders.add(reader);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (writer) {
+            writer.close();
+        }
+        for (PooledConnection reader : readers) {
+            reader.close();
+        }
+    }
+
+    private static PooledConnection open(Path path, boolean readOnly) {
+        try {
+            Connection c = DriverManager.getConnection("jdbc:sqlite:" + path);
+            try (Statement st = c.createStatement()) {
+                st.execute("PRAGMA busy_timeout=5000;");
+                if (!readOnly) {
+                    st.execute("PRAGMA journal_mode=WAL;");
+                    // WAL + NORMAL 只在斷電時可能遺失最後一筆交易，不會損毀資料庫
+                    st.execute("PRAGMA synchronous=NORMAL;");
+                }
+                st.execute("PRAGMA foreign_keys=ON;");
+                st.execute("PRAGMA cache_size=-8000;");
+                st.execute("PRAGMA mmap_size=134217728;");
+                st.execute("PRAGMA temp_store=MEMORY;");
+                if (readOnly) {
+                    st.execute("PRAGMA query_only=ON;");
+                }
+            }
+            return new PooledConnection(c);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to open database connection", e);
+        }
+    }
+
+    private static int resolveReaderCount() {
+        String env = System.getenv("OCGP_DB_READERS");
+        if (env == null || env.isBlank()) {
+            return DEFAULT_READERS;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(env.trim()));
+        } catch (NumberFormatException ex) {
+            return DEFAULT_READERS;
+        }
+    }
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run(PooledConnection connection) throws SQLException;
+    }
+
+    /**
+     * A connection with its own prepared statement cache. Cached statements are owned by the
+     * pool: callers must not close them, only the result sets they produce.
+     */
+    public static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = connection.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                // 上次若在 addBatch 後、executeBatch 前失敗，殘留的批次不能帶到這次
+                ps.clearParameters();
+                ps.clearBatch();
+            }
+            return ps;
+        }
+
+        public Statement createStatement() throws SQLException {
+            return connection.createStatement();
+        }
+
+        private void close() {
+            for (PreparedStatement ps : statements.values()) {
+                try {
+                    ps.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Failed to close DB connection", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,778 @@
+package com.ocgp.server;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default {@link StorageEngine}: SQLite through {@link SqliteConnectionPool}.
+ */
+public class SqliteStorageEngine implements StorageEngine {
+    private static final Logger LOGGER = Logger.getLogger(SqliteStorageEngine.class.getName());
+
+    private static final String CHAT_TABLE_SQL = """
+            CREATE TABLE IF NOT EXISTS chat_messages(
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                room_id TEXT NOT NULL,
+                user_id TEXT NOT NULL,
+                content TEXT NOT NULL,
+                created_at TEXT NOT NULL,
+                FOREIGN KEY(room_id) REFERENCES rooms(id) ON DELETE CASCADE,
+                FOREIGN KEY(user_id) REFERENCES users(id) ON DELETE CASCADE
+            )
+            """;
+    private static final String UPSERT_ROOM_SQL = """
+            INSERT INTO rooms(id, name, game_type, host_user_id, private_room, invite_code, started, status, current_player_id, created_at, turn_deadline, started_at, time_control)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT(id) DO UPDATE SET
+                name=excluded.name,
+                game_type=excluded.game_type,
+                host_user_id=excluded.host_user_id,
+                private_room=excluded.private_room,
+                invite_code=excluded.invite_code,
+                started=excluded.started,
+                status=excluded.status,
+                current_player_id=excluded.current_player_id,
+                turn_deadline=excluded.turn_deadline,
+                started_at=excluded.started_at,
+                time_control=excluded.time_control
+            """;
+    private static final String USER_COLUMNS = "SELECT id, username, password_salt, password_hash, created_at FROM users";
+
+    private final SqliteConnectionPool db;
+    private final ChatGroupCommit chatCommit;
+
+    public SqliteStorageEngine(Path path) {
+        this.db = new SqliteConnectionPool(path);
+        initSchema();
+        this.chatCommit = ChatGroupCommit.fromEnvironment(db);
+    }
+
+    private void initSchema() {
+        try {
+            db.write(c -> {
+                try (Statement st = c.createStatement()) {
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS users(
+                                id TEXT PRIMARY KEY,
+                                username TEXT NOT NULL UNIQUE,
+                                password_salt TEXT NOT NULL,
+                                password_hash TEXT NOT NULL,
+                                created_at TEXT NOT NULL
+                            )
+                            """);
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS sessions(
+                                token TEXT PRIMARY KEY,
+                                user_id TEXT NOT NULL,
+                                created_at TEXT NOT NULL,
+                                FOREIGN KEY(user_id) REFERENCES users(id) ON DELETE CASCADE
+                            )
+                            """);
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS rooms(
+                                id TEXT PRIMARY KEY,
+                                name TEXT NOT NULL,
+                                game_type TEXT NOT NULL,
+                                host_user_id TEXT NOT NULL,
+                                private_room INTEGER NOT NULL,
+                                invite_code TEXT,
+                                started INTEGER NOT NULL DEFAULT 0,
+                                status TEXT,
+                                current_player_id TEXT,
+                                created_at TEXT NOT NULL,
+                                turn_deadline TEXT,
+                                started_at TEXT,
+                                time_control TEXT
+                            )
+                            """);
+                    try { st.execute("ALTER TABLE rooms ADD COLUMN invite_code TEXT"); } catch (SQLException ignored) {}
+                    try { st.execute("ALTER TABLE rooms ADD COLUMN turn_deadline TEXT"); } catch (SQLException ignored) {}
+                    try { st.execute("ALTER TABLE rooms ADD COLUMN started_at TEXT"); } catch (SQLException ignored) {}
+                    try { st.execute("ALTER TABLE rooms ADD COLUMN time_control TEXT"); } catch (SQLException ignored) {}
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS room_players(
+                                room_id TEXT NOT NULL,
+                                user_id TEXT NOT NULL,
+                                position INTEGER NOT NULL,
+                                PRIMARY KEY(room_id, user_id),
+                                FOREIGN KEY(room_id) REFERENCES rooms(id) ON DELETE CASCADE,
+                                FOREIGN KEY(user_id) REFERENCES users(id) ON DELETE CASCADE
+                            )
+                            """);
+                    st.execute(CHAT_TABLE_SQL);
+                    st.execute("CREATE INDEX IF NOT EXISTS idx_chat_messages_room ON chat_messages(room_id, id)");
+                    // 封存的對局不隨房間刪除，所以不掛 rooms 的外鍵
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS game_archive(
+                                id TEXT PRIMARY KEY,
+                                room_id TEXT NOT NULL,
+                                game_type TEXT NOT NULL,
+                                player_ids TEXT NOT NULL,
+                                winner_id TEXT,
+                                draw INTEGER NOT NULL,
+                                started_at TEXT,
+                                finished_at TEXT NOT NULL,
+                                moves BLOB NOT NULL
+                            )
+                            """);
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS game_archive_players(
+                                user_id TEXT NOT NULL,
+                                finished_at TEXT NOT NULL,
+                                game_id TEXT NOT NULL,
+                                PRIMARY KEY(user_id, finished_at, game_id),
+                                FOREIGN KEY(game_id) REFERENCES game_archive(id) ON DELETE CASCADE
+                            ) WITHOUT ROWID
+                            """);
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS ratings(
+                                user_id TEXT NOT NULL,
+                                game_type TEXT NOT NULL,
+                                rating REAL NOT NULL,
+                                deviation REAL NOT NULL,
+                                volatility REAL NOT NULL,
+                                games INTEGER NOT NULL,
+                                updated_at TEXT,
+                                PRIMARY KEY(user_id, game_type)
+                            ) WITHOUT ROWID
+                            """);
+                    // 登出的簽章 token；expires_at 為 epoch 秒，過期即可刪除
+                    st.execute("""
+                            CREATE TABLE IF NOT EXISTS revoked_tokens(
+                                token_id TEXT PRIMARY KEY,
+                                expires_at INTEGER NOT NULL
+                            ) WITHOUT ROWID
+                            """);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to initialize schema", e);
+        }
+    }
+
+    @Override
+    public List<User> loadUsers() {
+        List<User> users = new ArrayList<>();
+        try {
+            db.read(c -> {
+                try (ResultSet rs = c.prepare(USER_COLUMNS).executeQuery()) {
+                    while (rs.next()) {
+                        users.add(readUser(rs));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load users", e);
+        }
+        return users;
+    }
+
+    @Override
+    public List<Session> loadSessions() {
+        List<Session> sessions = new ArrayList<>();
+        try {
+            db.read(c -> {
+                try (ResultSet rs = c.prepare("SELECT token, user_id, created_at FROM sessions").executeQuery()) {
+                    while (rs.next()) {
+                        sessions.add(readSession(rs));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load sessions", e);
+        }
+        return sessions;
+    }
+
+    @Override
+    public List<RoomRecord> loadRooms() {
+        List<RoomRecord> rooms = new ArrayList<>();
+        String sql = "SELECT id, name, game_type, host_user_id, private_room, invite_code, started, status, current_player_id, created_at, turn_deadline, started_at, time_control FROM rooms";
+        try {
+            db.read(c -> {
+                Map<String, List<String>> players = loadRoomPlayers(c);
+                try (ResultSet rs = c.prepare(sql).executeQuery()) {
+                    while (rs.next()) {
+                        String id = rs.getString("id");
+                        rooms.add(new RoomRecord(
+                                id,
+                                rs.getString("name"),
+                                GameType.fromString(rs.getString("game_type")),
+                                rs.getString("host_user_id"),
+                                rs.getInt("private_room") == 1,
+                                rs.getString("invite_code"),
+                                rs.getInt("started") == 1,
+                                rs.getString("status"),
+                                rs.getString("current_player_id"),
+                                parseInstant(rs.getString("created_at")),
+                                parseInstant(rs.getString("turn_deadline")),
+                                parseInstant(rs.getString("started_at")),
+                                players.getOrDefault(id, List.of()),
+                                rs.getString("time_control")));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load rooms", e);
+        }
+        return rooms;
+    }
+
+    // 一次讀出所有房間的玩家（依房間、座位排序），避免每個房間各查一次
+    private static Map<String, List<String>> loadRoomPlayers(SqliteConnectionPool.PooledConnection c) throws SQLException {
+        Map<String, List<String>> players = new HashMap<>();
+        try (ResultSet rs = c.prepare("SELECT room_id, user_id FROM room_players ORDER BY room_id, position").executeQuery()) {
+            while (rs.next()) {
+                players.computeIfAbsent(rs.getString("room_id"), id -> new ArrayList<>(2)).add(rs.getString("user_id"));
+            }
+        }
+        return players;
+    }
+
+    @Override
+    public boolean insertUser(User user) {
+        try {
+            int inserted = db.write(c -> {
+                PreparedStatement ps = c.prepare("""
+                        INSERT INTO users(id, username, password_salt, password_hash, created_at)
+                        VALUES (?, ?, ?, ?, ?)
+                        ON CONFLICT(username) DO NOTHING
+                        """);
+                ps.setString(1, user.getId());
+                ps.setString(2, user.getUsername());
+                ps.setString(3, user.getPasswordSalt());
+                ps.setString(4, user.getPasswordHash());
+                ps.setString(5, user.getCreatedAt().toString());
+                return ps.executeUpdate();
+            });
+            return inserted > 0;
+        } catch (SQLException e) {
+            // false 只代表名稱已被占用；寫入失敗要讓呼叫端回 500，不能當成重名
+            throw new IllegalStateException("Failed to persist user " + user.getUsername(), e);
+        }
+    }
+
+    @Override
+    public User findUserById(String userId) {
+        return findUser(USER_COLUMNS + " WHERE id = ?", userId);
+    }
+
+    @Override
+    public User findUserByUsername(String username) {
+        return findUser(USER_COLUMNS + " WHERE lower(username) = ?", username.toLowerCase());
+    }
+
+    private User findUser(String sql, String value) {
+        try {
+            return db.read(c -> {
+                PreparedStatement ps = c.prepare(sql);
+                ps.setString(1, value);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? readUser(rs) : null;
+                }
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load user", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void insertSession(Session session) {
+        try {
+            db.write(c -> {
+                PreparedStatement ps = c.prepare("""
+                        INSERT INTO sessions(token, user_id, created_at)
+                        VALUES (?, ?, ?)
+                        ON CONFLICT(token) DO NOTHING
+                        """);
+                ps.setString(1, session.getToken());
+                ps.setString(2, session.getUserId());
+                ps.setString(3, session.getCreatedAt().toString());
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to persist session", e);
+        }
+    }
+
+    @Override
+    public Session findSession(String token) {
+        try {
+            return db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT token, user_id, created_at FROM sessions WHERE token = ?");
+                ps.setString(1, token);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? readSession(rs) : null;
+                }
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load session", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void deleteSession(String token) {
+        try {
+            db.write(c -> {
+                PreparedStatement ps = c.prepare("DELETE FROM sessions WHERE token = ?");
+                ps.setString(1, token);
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to delete session", e);
+        }
+    }
+
+    @Override
+    public void insertRevocation(String tokenId, Instant expiresAt) {
+        try {
+            db.write(c -> {
+                PreparedStatement ps = c.prepare("INSERT OR IGNORE INTO revoked_tokens(token_id, expires_at) VALUES (?, ?)");
+                ps.setString(1, tokenId);
+                ps.setLong(2, expiresAt.getEpochSecond());
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to persist token revocation", e);
+        }
+    }
+
+    @Override
+    public boolean isTokenRevoked(String tokenId) {
+        try {
+            return db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT 1 FROM revoked_tokens WHERE token_id = ?");
+                ps.setString(1, tokenId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
+                }
+            });
+        } catch (SQLException e) {
+            // 查不到時寧可拒絕：過濾器已經判定可能被撤銷
+            LOGGER.log(Level.WARNING, "Failed to check token revocation", e);
+            return true;
+        }
+    }
+
+    @Override
+    public List<String> loadRevocations(Instant now) {
+        List<String> ids = new ArrayList<>();
+        try {
+            db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT token_id FROM revoked_tokens WHERE expires_at > ?");
+                ps.setLong(1, now.getEpochSecond());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getString(1));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load token revocations", e);
+        }
+        return ids;
+    }
+
+    @Override
+    public void deleteExpiredRevocations(Instant now) {
+        try {
+            db.write(c -> {
+                PreparedStatement ps = c.prepare("DELETE FROM revoked_tokens WHERE expires_at <= ?");
+                ps.setLong(1, now.getEpochSecond());
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to prune token revocations", e);
+        }
+    }
+
+    @Override
+    public void saveRoom(RoomRecord row) {
+        try {
+            db.transaction(c -> {
+                PreparedStatement ps = c.prepare(UPSERT_ROOM_SQL);
+                ps.setString(1, row.id());
+                ps.setString(2, row.name());
+                ps.setString(3, row.gameType().name());
+                ps.setString(4, row.hostUserId());
+                ps.setInt(5, row.privateRoom() ? 1 : 0);
+                ps.setString(6, row.inviteCode());
+                ps.setInt(7, row.started() ? 1 : 0);
+                ps.setString(8, row.status());
+                ps.setString(9, row.currentPlayerId());
+                ps.setString(10, row.createdAt().toString());
+                ps.setString(11, row.turnDeadline() != null ? row.turnDeadline().toString() : null);
+                ps.setString(12, row.startedAt() != null ? row.startedAt().toString() : null);
+                ps.setString(13, row.timeControl());
+                ps.executeUpdate();
+
+                PreparedStatement del = c.prepare("DELETE FROM room_players WHERE room_id = ?");
+                del.setString(1, row.id());
+                del.executeUpdate();
+
+                List<String> players = row.playerIds();
+                if (!players.isEmpty()) {
+                    PreparedStatement ins = c.prepare("INSERT INTO room_players(room_id, user_id, position) VALUES (?, ?, ?)");
+                    for (int i = 0; i < players.size(); i++) {
+                        ins.setString(1, row.id());
+                        ins.setString(2, players.get(i));
+                        ins.setInt(3, i);
+                        ins.addBatch();
+                    }
+                    ins.executeBatch();
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to persist room " + row.id(), e);
+        }
+    }
+
+    @Override
+    public void deleteRoom(String roomId) {
+        try {
+            db.write(c -> {
+                PreparedStatement ps = c.prepare("DELETE FROM rooms WHERE id = ?");
+                ps.setString(1, roomId);
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to delete room " + roomId, e);
+        }
+    }
+
+    @Override
+    public ChatMessage appendChatMessage(String roomId, String userId, String content) {
+        return chatCommit.append(roomId, userId, content);
+    }
+
+    @Override
+    public List<ChatMessage> getChatMessages(String roomId, long sinceId) {
+        List<ChatMessage> result = new ArrayList<>();
+        String sql = "SELECT id, room_id, user_id, content, created_at FROM chat_messages WHERE room_id = ? AND id > ? ORDER BY id ASC";
+        try {
+            // 聊天紀錄走唯讀連線，不會排在房間寫入之後
+            db.read(c -> {
+                PreparedStatement ps = c.prepare(sql);
+                ps.setString(1, roomId);
+                ps.setLong(2, sinceId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new ChatMessage(
+                                rs.getLong("id"),
+                                rs.getString("room_id"),
+                                rs.getString("user_id"),
+                                rs.getString("content"),
+                                parseInstant(rs.getString("created_at"))));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to load chat messages", e);
+            throw new HttpStatusException(500, "Failed to load chat messages");
+        }
+        return result;
+    }
+
+    // 訊息 id 隨時間遞增：在唯讀連線上由最舊的往後找出過期的連續區段，寫入端只做一次 id 範圍刪除
+    @Override
+    public int deleteChatBefore(Instant cutoff, int limit) {
+        try {
+            long upToId = db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT id, created_at FROM chat_messages ORDER BY id LIMIT ?");
+                ps.setInt(1, limit);
+                long last = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next() && parseInstant(rs.getString("created_at")).isBefore(cutoff)) {
+                        last = rs.getLong("id");
+                    }
+                }
+                return last;
+            });
+            if (upToId == 0) {
+                return 0;
+            }
+            return db.write(c -> {
+                PreparedStatement ps = c.prepare("DELETE FROM chat_messages WHERE id <= ?");
+                ps.setLong(1, upToId);
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to prune old chat messages", e);
+            return 0;
+        }
+    }
+
+    @Override
+    public List<String> findRoomsWithChatOver(int max) {
+        List<String> rooms = new ArrayList<>();
+        try {
+            db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT room_id FROM chat_messages GROUP BY room_id HAVING COUNT(*) > ?");
+                ps.setInt(1, max);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rooms.add(rs.getString("room_id"));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to count chat messages per room", e);
+        }
+        return rooms;
+    }
+
+    @Override
+    public int trimChat(String roomId, int keep, int limit) {
+        try {
+            // 要保留的最舊一則之前，最多 limit 則裡最大的 id
+            long upToId = db.read(c -> {
+                PreparedStatement ps = c.prepare("""
+                        SELECT MAX(id) FROM (
+                            SELECT id FROM chat_messages
+                            WHERE room_id = ?
+                              AND id < (SELECT id FROM chat_messages WHERE room_id = ? ORDER BY id DESC LIMIT 1 OFFSET ?)
+                            ORDER BY id LIMIT ?)
+                        """);
+                ps.setString(1, roomId);
+                ps.setString(2, roomId);
+                ps.setInt(3, keep - 1);
+                ps.setInt(4, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+            if (upToId == 0) {
+                return 0;
+            }
+            return db.write(c -> {
+                PreparedStatement ps = c.prepare("DELETE FROM chat_messages WHERE room_id = ? AND id <= ?");
+                ps.setString(1, roomId);
+                ps.setLong(2, upToId);
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to trim chat of room " + roomId, e);
+            return 0;
+        }
+    }
+
+    @Override
+    public void saveGameArchive(GameArchive archive) {
+        try {
+            db.transaction(c -> {
+                insertGameArchive(c, archive);
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to archive game " + archive.id(), e);
+        }
+    }
+
+    private static void insertGameArchive(SqliteConnectionPool.PooledConnection c, GameArchive archive) throws SQLException {
+        PreparedStatement ps = c.prepare("""
+                INSERT INTO game_archive(id, room_id, game_type, player_ids, winner_id, draw, started_at, finished_at, moves)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                ON CONFLICT(id) DO NOTHING
+                """);
+        ps.setString(1, archive.id());
+        ps.setString(2, archive.roomId());
+        ps.setString(3, archive.gameType().name());
+        ps.setString(4, String.join(",", archive.playerIds()));
+        ps.setString(5, archive.winnerId());
+        ps.setInt(6, archive.draw() ? 1 : 0);
+        ps.setString(7, archive.startedAt() != null ? archive.startedAt().toString() : null);
+        ps.setString(8, archive.finishedAt().toString());
+        ps.setBytes(9, archive.data());
+        if (ps.executeUpdate() == 0) {
+            return;
+        }
+        PreparedStatement ins = c.prepare("INSERT INTO game_archive_players(user_id, finished_at, game_id) VALUES (?, ?, ?)");
+        for (String playerId : archive.playerIds()) {
+            ins.setString(1, playerId);
+            ins.setString(2, archive.finishedAt().toString());
+            ins.setString(3, archive.id());
+            ins.addBatch();
+        }
+        ins.executeBatch();
+    }
+
+    @Override
+    public GameArchive findGameArchive(String gameId) {
+        try {
+            return db.read(c -> {
+                PreparedStatement ps = c.prepare("""
+                        SELECT id, room_id, game_type, player_ids, winner_id, draw, started_at, finished_at, moves
+                        FROM game_archive WHERE id = ?
+                        """);
+                ps.setString(1, gameId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    String startedAt = rs.getString("started_at");
+                    return new GameArchive(rs.getString("id"), rs.getString("room_id"),
+                            GameType.fromString(rs.getString("game_type")), List.of(rs.getString("player_ids").split(",")),
+                            rs.getString("winner_id"), rs.getInt("draw") == 1,
+                            parseInstant(startedAt), parseInstant(rs.getString("finished_at")), rs.getBytes("moves"));
+                }
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load game " + gameId, e);
+            return null;
+        }
+    }
+
+    @Override
+    public List<String> findGameIdsByUser(String userId) {
+        List<String> ids = new ArrayList<>();
+        try {
+            db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT game_id FROM game_archive_players WHERE user_id = ? ORDER BY finished_at ASC");
+                ps.setString(1, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getString("game_id"));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to list games of user " + userId, e);
+        }
+        return ids;
+    }
+
+    @Override
+    public List<PlayerRating> loadRatings() {
+        List<PlayerRating> ratings = new ArrayList<>();
+        try {
+            db.read(c -> {
+                PreparedStatement ps = c.prepare("SELECT user_id, game_type, rating, deviation, volatility, games, updated_at FROM ratings");
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String updatedAt = rs.getString("updated_at");
+                        ratings.add(new PlayerRating(rs.getString("user_id"), GameType.fromString(rs.getString("game_type")),
+                                rs.getDouble("rating"), rs.getDouble("deviation"), rs.getDouble("volatility"),
+                                rs.getInt("games"), parseInstant(updatedAt)));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to load ratings", e);
+        }
+        return ratings;
+    }
+
+    @Override
+    public void saveRatings(List<PlayerRating> ratings) {
+        try {
+            db.transaction(c -> {
+                PreparedStatement ps = c.prepare("""
+                        INSERT INTO ratings(user_id, game_type, rating, deviation, volatility, games, updated_at)
+                        VALUES (?, ?, ?, ?, ?, ?, ?)
+                        ON CONFLICT(user_id, game_type) DO UPDATE SET rating = excluded.rating,
+                            deviation = excluded.deviation, volatility = excluded.volatility,
+                            games = excluded.games, updated_at = excluded.updated_at
+                        """);
+                for (PlayerRating rating : ratings) {
+                    ps.setString(1, rating.userId());
+                    ps.setString(2, rating.gameType().name());
+                    ps.setDouble(3, rating.rating());
+                    ps.setDouble(4, rating.deviation());
+                    ps.setDouble(5, rating.volatility());
+                    ps.setInt(6, rating.games());
+                    ps.setString(7, rating.updatedAt() != null ? rating.updatedAt().toString() : null);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return null;
+            });
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to save ratings", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        chatCommit.close();
+        db.close();
+    }
+
+    private static User readUser(ResultSet rs) throws SQLException {
+        return new User(rs.getString("id"), rs.getString("username"), rs.getString("password_salt"),
+                rs.getString("password_hash"), parseInstant(rs.getString("created_at")));
+    }
+
+    private static Session readSession(ResultSet rs) throws SQLException {
+        return new Session(rs.getString("token"), rs.getString("user_id"), parseInstant(rs.getString("created_at")));
+    }
+
+    /**
+     * Parses the TEXT timestamps this engine writes ({@link Instant#toString()}, e.g.
+     * {@code 2024-05-01T12:00:00.123456Z}) by hand; anything else goes through
+     * {@link Instant#parse}. Null or blank gives null.
+     */
+    static Instant parseInstant(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        int length = text.length();
+        int fraction = length - 21;
+        if (length < 20 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':' || text.charAt(length - 1) != 'Z'
+                || (length > 20 && (text.charAt(19) != '.' || fraction < 1 || fraction > 9))) {
+            return Instant.parse(text);
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        int nanos = length == 20 ? 0 : digits(text, 20, fraction);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59 || nanos < 0) {
+            return Instant.parse(text);
+        }
+        for (int i = fraction; i < 9; i++) {
+            nanos *= 10;
+        }
+        long days = LocalDate.of(year, month, day).toEpochDay();
+        return Instant.ofEpochSecond(days * 86_400 + hour * 3_600 + minute * 60 + second, nanos);
+    }
+
+    // 非數字回傳 -1
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,114 @@
+package com.ocgp.server;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Persistence SPI behind {@link DataStore}. DataStore owns the in-memory model and locking;
+ * an engine only stores and returns rows. Implementations must be safe for concurrent callers.
+ */
+public interface StorageEngine extends AutoCloseable {
+
+    List<User> loadUsers();
+
+    List<Session> loadSessions();
+
+    /**
+     * All rooms with their player lists in seat order.
+     */
+    List<RoomRecord> loadRooms();
+
+    /**
+     * @return {@code false} when the username is already taken; a storage failure throws instead
+     */
+    boolean insertUser(User user);
+
+    User findUserById(String userId);
+
+    User findUserByUsername(String username);
+
+    void insertSession(Session session);
+
+    Session findSession(String token);
+
+    /**
+     * Removes a legacy (pre-signed-token) session on logout.
+     */
+    void deleteSession(String token);
+
+    /**
+     * Records a revoked signed token; the row is only needed until {@code expiresAt}.
+     */
+    void insertRevocation(String tokenId, Instant expiresAt);
+
+    boolean isTokenRevoked(String tokenId);
+
+    /**
+     * Ids of revoked tokens that have not expired at {@code now}.
+     */
+    List<String> loadRevocations(Instant now);
+
+    void deleteExpiredRevocations(Instant now);
+
+    /**
+     * Inserts or replaces the room row and its player list atomically.
+     */
+    void saveRoom(RoomRecord room);
+
+    /**
+     * Deletes the room together with its players and chat history.
+     */
+    void deleteRoom(String roomId);
+
+    ChatMessage appendChatMessage(String roomId, String userId, String content);
+
+    List<ChatMessage> getChatMessages(String roomId, long sinceId);
+
+    /**
+     * Deletes up to {@code limit} of the oldest chat messages created before {@code cutoff} and
+     * returns how many were deleted. Retention calls this repeatedly, so each call stays short.
+     */
+    int deleteChatBefore(Instant cutoff, int limit);
+
+    /** Rooms holding more than {@code max} chat messages. */
+    List<String> findRoomsWithChatOver(int max);
+
+    /** Deletes up to {@code limit} of the room's messages older than its newest {@code keep}. */
+    int trimChat(String roomId, int keep, int limit);
+
+    /**
+     * Stores a finished game. Archives outlive their room.
+     */
+    void saveGameArchive(GameArchive archive);
+
+    GameArchive findGameArchive(String gameId);
+
+    /**
+     * Ids of the games {@code userId} played, oldest first.
+     */
+    List<String> findGameIdsByUser(String userId);
+
+    /**
+     * Every stored rating, for rebuilding the leaderboard on startup.
+     */
+    List<PlayerRating> loadRatings();
+
+    /**
+     * Inserts or replaces the given ratings (keyed by user and game type) atomically.
+     */
+    void saveRatings(List<PlayerRating> ratings);
+
+    @Override
+    void close();
+
+    static StorageEngine fromEnvironment() {
+        String env = System.getenv("OCGP_STORAGE");
+        String kind = env == null || env.isBlank() ? "sqlite" : env.trim().toLowerCase();
+        return switch (kind) {
+            case "sqlite" -> new SqliteStorageEngine(DataStore.resolveDataPath("OCGP_DB_PATH", "out/data/ocgp.sqlite"));
+            case "memory" -> new InMemoryStorageEngine();
+            case "log" -> new LogStructuredStorageEngine(DataStore.resolveDataPath("OCGP_LOG_STORE_PATH", "out/data/ocgp.aol"));
+            default -> throw new IllegalStateException("Unsupported OCGP_STORAGE: " + env);
+        };
+    }
+}
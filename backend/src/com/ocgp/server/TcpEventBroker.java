@@ -0,0 +1,167 @@
+package com.ocgp.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal broker for running several server processes. Each connected node sends
+ * newline-delimited {@link RoomEvent} JSON; every line is relayed to all connected nodes, the
+ * sender included.
+ *
+ * <p>Listens on loopback unless another bind address is given. With a {@link ClusterSecret} every
+ * connection must first answer a {@code CHALLENGE <nonce>} line with {@code AUTH <hmac>} before
+ * it may send or receive events; a non-loopback broker refuses to start without one.
+ */
+public class TcpEventBroker implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(TcpEventBroker.class.getName());
+    static final String CHALLENGE = "CHALLENGE ";
+    static final String AUTH = "AUTH ";
+    private static final String HANDSHAKE_LABEL = "ocgp-event-bus";
+    static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
+    private final ServerSocket serverSocket;
+    private final Set<Peer> peers = ConcurrentHashMap.newKeySet();
+    private final ClusterSecret secret;
+    private final SecureRandom random = new SecureRandom();
+    private volatile boolean running = true;
+
+    public TcpEventBroker(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, null);
+    }
+
+    TcpEventBroker(InetAddress bindAddress, int port, ClusterSecret secret) throws IOException {
+        if (!bindAddress.isLoopbackAddress() && secret == null) {
+            throw new IllegalStateException("OCGP_CLUSTER_SECRET is required for an event broker not bound to loopback");
+        }
+        this.secret = secret;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        Thread acceptor = new Thread(this::acceptLoop, "ocgp-event-broker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info(() -> String.format("Event broker listening on %s:%d%s", bindAddress.getHostAddress(), port,
+                secret != null ? " (authenticated)" : ""));
+    }
+
+    /** Signature a node sends back for a broker challenge. */
+    static String answer(ClusterSecret secret, String nonce) {
+        return secret.sign(HANDSHAKE_LABEL, nonce);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Peer peer = new Peer(socket);
+                Thread reader = new Thread(() -> readLoop(peer), "ocgp-event-broker-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.log(Level.WARNING, "Event broker accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Peer peer) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(peer.socket.getInputStream(), StandardCharsets.UTF_8))) {
+            if (secret != null && !handshake(peer, in)) {
+                LOGGER.warning(() -> "Event broker rejected unauthenticated peer " + peer.socket.getRemoteSocketAddress());
+                return;
+            }
+            peers.add(peer);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                for (Peer target : peers) {
+                    if (!target.send(line)) {
+                        drop(target);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.fine(() -> "Event broker peer closed: " + e.getMessage());
+        } finally {
+            drop(peer);
+        }
+    }
+
+    // 驗證通過前不轉送也不接收事件
+    private boolean handshake(Peer peer, BufferedReader in) throws IOException {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String nonce = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        if (!peer.send(CHALLENGE + nonce)) {
+            return false;
+        }
+        peer.socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        String reply = in.readLine();
+        peer.socket.setSoTimeout(0);
+        return reply != null && reply.startsWith(AUTH)
+                && secret.verify(reply.substring(AUTH.length()), HANDSHAKE_LABEL, nonce);
+    }
+
+    private void drop(Peer peer) {
+        peers.remove(peer);
+        peer.close();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Peer peer : peers) {
+            drop(peer);
+        }
+    }
+
+    private static final class Peer {
+        private final Socket socket;
+        private final BufferedWriter out;
+
+        Peer(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        synchronized boolean send(String line) {
+            try {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
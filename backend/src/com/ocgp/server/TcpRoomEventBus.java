@@ -0,0 +1,165 @@
+package com.ocgp.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link RoomEventBus} client for {@link TcpEventBroker}. Reconnects in the background; while
+ * the broker is unreachable, events are delivered to local subscribers only so this node's own
+ * sockets keep receiving updates. With a {@link ClusterSecret} the connection answers the
+ * broker's challenge before any event is sent.
+ */
+public class TcpRoomEventBus implements RoomEventBus {
+    private static final Logger LOGGER = Logger.getLogger(TcpRoomEventBus.class.getName());
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final ClusterSecret secret;
+    private final List<Consumer<RoomEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final Object writeLock = new Object();
+    private volatile Socket socket;
+    private volatile BufferedWriter out;
+    private volatile boolean running = true;
+
+    public TcpRoomEventBus(String host, int port) {
+        this(host, port, null);
+    }
+
+    TcpRoomEventBus(String host, int port, ClusterSecret secret) {
+        this.host = host;
+        this.port = port;
+        this.secret = secret;
+        Thread reader = new Thread(this::connectLoop, "ocgp-event-bus");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void publish(RoomEvent event) {
+        String line = event.toJson();
+        synchronized (writeLock) {
+            BufferedWriter writer = out;
+            if (writer != null) {
+                try {
+                    writer.write(line);
+                    writer.write('\n');
+                    writer.flush();
+                    return;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Event bus write failed, delivering locally", e);
+                    disconnect();
+                }
+            }
+        }
+        dispatch(event);
+    }
+
+    @Override
+    public void subscribe(Consumer<RoomEvent> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        disconnect();
+    }
+
+    private void connectLoop() {
+        while (running) {
+            try {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(host, port), (int) RECONNECT_DELAY_MS);
+                s.setTcpNoDelay(true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                synchronized (writeLock) {
+                    socket = s;
+                }
+                if (secret != null) {
+                    answerChallenge(s, in, writer);
+                }
+                synchronized (writeLock) {
+                    out = writer;
+                }
+                LOGGER.info(() -> String.format("Connected to event broker %s:%d", host, port));
+                readLoop(in);
+            } catch (IOException e) {
+                LOGGER.fine(() -> "Event broker unavailable: " + e.getMessage());
+            } finally {
+                disconnect();
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void answerChallenge(Socket s, BufferedReader in, BufferedWriter writer) throws IOException {
+        s.setSoTimeout(TcpEventBroker.HANDSHAKE_TIMEOUT_MS);
+        String line = in.readLine();
+        s.setSoTimeout(0);
+        if (line == null || !line.startsWith(TcpEventBroker.CHALLENGE)) {
+            LOGGER.warning(() -> String.format("Event broker %s:%d did not ask for authentication; is OCGP_CLUSTER_SECRET set there?", host, port));
+            throw new IOException("Event broker did not send an authentication challenge");
+        }
+        writer.write(TcpEventBroker.AUTH + TcpEventBroker.answer(secret, line.substring(TcpEventBroker.CHALLENGE.length())));
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private void readLoop(BufferedReader in) throws IOException {
+        String line;
+        while (running && (line = in.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                dispatch(RoomEvent.fromJson(line));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Dropping malformed room event: " + e.getMessage());
+            }
+        }
+    }
+
+    private void dispatch(RoomEvent event) {
+        for (Consumer<RoomEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Room event listener failed for " + event.type(), e);
+            }
+        }
+    }
+
+    private void disconnect() {
+        synchronized (writeLock) {
+            Socket s = socket;
+            socket = null;
+            out = null;
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
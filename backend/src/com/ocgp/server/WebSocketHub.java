@@ -1,29 +1,54 @@
 package com.ocgp.server;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
 
 public class WebSocketHub extends WebSocketServer {
     private static final Logger LOGGER = Logger.getLogger(WebSocketHub.class.getName());
+    private static final int DEFAULT_HEARTBEAT_SECONDS = 20;
 
     private final DataStore dataStore;
+    private final RoomEventBus eventBus;
     private final Map<String, Set<WebSocket>> roomSockets = new ConcurrentHashMap<>();
+    // 大廳連線（channel=lobby）：不屬於任何房間，只收給該玩家的通知，例如配對成功
+    private final Map<String, Set<WebSocket>> lobbySockets = new ConcurrentHashMap<>();
+    private final LatencyTracker latency = new LatencyTracker();
+    private final Backpressure backpressure = Backpressure.fromEnvironment();
+    private final SpectatorFanout spectators = new SpectatorFanout(this, backpressure, WebSocketHub::outboxOf);
 
-    public WebSocketHub(int port, DataStore dataStore) {
-        super(new InetSocketAddress(port));
+    public WebSocketHub(int port, DataStore dataStore, RoomEventBus eventBus) {
+        // 預設 JSON；client 在握手時要求 ocgp.bin.v1 時改送二進位房間狀態
+        super(new InetSocketAddress(port), List.of(new Draft_6455(Collections.emptyList(),
+                List.of(new Protocol(BinaryRoomCodec.SUBPROTOCOL), new Protocol("")))));
         this.dataStore = dataStore;
+        this.eventBus = eventBus;
+        // 每 N 秒送 ping，約 1.5 個週期內沒回 pong 的半開連線會被關閉並觸發 onClose；0 表示停用
+        setConnectionLostTimeout(resolveHeartbeatSeconds());
+        // 所有節點（包含自己）發布的房間事件都由這裡轉送給本機連線
+        eventBus.subscribe(this::onRoomEvent);
     }
 
     @Override
@@ -31,15 +56,38 @@ public class WebSocketHub extends WebSocketServer {
         Map<String, String> params = parseQuery(handshake.getResourceDescriptor());
         String roomId = params.get("roomId");
         String token = params.get("token");
-        if (roomId == null || token == null) {
+        boolean lobby = "lobby".equals(params.get("channel"));
+        if ((roomId == null && !lobby) || token == null) {
             conn.close(1008, "Missing roomId or token");
             return;
         }
         try {
             User user = dataStore.findUserByToken(token);
-            Room room = dataStore.findRoom(roomId);
-            room.ensurePlayer(user.getId());
-            roomSockets.computeIfAbsent(roomId, k -> Collections.newSetFromMap(new ConcurrentHashMap<>())).add(conn);
+            Backpressure.Outbox outbox = new Backpressure.Outbox(isBinary(conn));
+            if (lobby) {
+                conn.setAttachment(new Subscription(null, user.getId(), new LatencyTracker.RttWindow(), false, outbox));
+                lobbySockets.compute(user.getId(), (k, set) -> {
+                    Set<WebSocket> sockets = set != null ? set : Collections.newSetFromMap(new ConcurrentHashMap<>());
+                    sockets.add(conn);
+                    return sockets;
+                });
+                LOGGER.fine(() -> "WS lobby: user " + user.getId());
+                return;
+            }
+            if ("spectator".equals(params.get("role"))) {
+                dataStore.ensureRoomViewable(roomId, user.getId(), params.get("inviteCode"));
+                conn.setAttachment(new Subscription(roomId, user.getId(), new LatencyTracker.RttWindow(), true, outbox));
+                spectators.join(conn, roomId, parseDelay(params.get("delay")), () -> snapshotFrame(roomId));
+                LOGGER.fine(() -> "WS spectator: user " + user.getId() + " room " + roomId);
+                return;
+            }
+            dataStore.ensureRoomMember(roomId, user.getId());
+            conn.setAttachment(new Subscription(roomId, user.getId(), new LatencyTracker.RttWindow(), false, outbox));
+            roomSockets.compute(roomId, (k, set) -> {
+                Set<WebSocket> sockets = set != null ? set : Collections.newSetFromMap(new ConcurrentHashMap<>());
+                sockets.add(conn);
+                return sockets;
+            });
             LOGGER.info(() -> "WS connected: user " + user.getId() + " room " + roomId);
         } catch (HttpStatusException ex) {
             conn.close(1008, ex.getMessage());
@@ -48,12 +96,104 @@ public class WebSocketHub extends WebSocketServer {
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        roomSockets.values().forEach(set -> set.remove(conn));
+        Subscription sub = conn.getAttachment();
+        if (sub == null) return;
+        if (sub.spectator()) {
+            spectators.leave(conn, sub.roomId());
+            return;
+        }
+        if (sub.roomId() == null) {
+            lobbySockets.computeIfPresent(sub.userId(), (k, set) -> {
+                set.remove(conn);
+                return set.isEmpty() ? null : set;
+            });
+            return;
+        }
+        // 最後一條連線離開時一併移除房間項目，避免空集合累積
+        roomSockets.computeIfPresent(sub.roomId(), (k, set) -> {
+            set.remove(conn);
+            return set.isEmpty() ? null : set;
+        });
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        // No-op: server only pushes updates
+        long receivedAt = System.currentTimeMillis();
+        Map<String, Object> payload;
+        try {
+            payload = JsonUtil.parseObject(message);
+        } catch (RuntimeException ex) {
+            return;
+        }
+        // NTP 式對時：client 帶 t0，server 回 t1(收到)/t2(送出)，client 用 t3 算 offset 與 RTT
+        if ("timeSync".equals(payload.get("type")) && payload.get("t0") instanceof Number t0) {
+            Map<String, Object> reply = new LinkedHashMap<>();
+            reply.put("type", "timeSync");
+            reply.put("t0", t0);
+            reply.put("t1", receivedAt);
+            reply.put("t2", System.currentTimeMillis());
+            conn.send(JsonUtil.stringify(reply));
+        }
+    }
+
+    /**
+     * 心跳 ping 帶一個隨機 nonce，送出時間只記在伺服器端；pong 必須帶回最近一次 ping 的 nonce
+     * 才計入 RTT，client 無法自行捏造或縮短量測值
+     */
+    @Override
+    public PingFrame onPreparePing(WebSocket conn) {
+        PingFrame ping = new PingFrame();
+        Subscription sub = conn.getAttachment();
+        if (sub == null) {
+            return ping;
+        }
+        long nonce = ThreadLocalRandom.current().nextLong();
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES);
+        payload.putLong(nonce).flip();
+        ping.setPayload(payload);
+        sub.rtt().pingSent(nonce, System.nanoTime());
+        return ping;
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        super.onWebsocketPong(conn, f);
+        Subscription sub = conn.getAttachment();
+        ByteBuffer payload = f.getPayloadData();
+        if (sub == null || payload.remaining() != Long.BYTES) return;
+        long rtt = sub.rtt().pongReceived(payload.getLong(payload.position()), System.nanoTime());
+        if (rtt < 0) return;
+        sub.rtt().add(rtt);
+        if (!sub.spectator()) {
+            latency.record(sub.userId(), sub.roomId(), rtt);
+        }
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latency;
+    }
+
+    /**
+     * 本節點目前每條連線的 RTT 視窗；{@code userId} 為 null 時列出全部連線並附上遠端位址（僅供本機維運），
+     * 否則只列該使用者自己的連線
+     */
+    public List<Map<String, Object>> connectionLatency(String userId) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (WebSocket conn : getConnections()) {
+            Subscription sub = conn.getAttachment();
+            if (sub == null || (userId != null && !userId.equals(sub.userId()))) continue;
+            Map<String, Object> dto = new LinkedHashMap<>();
+            dto.put("userId", sub.userId());
+            dto.put("roomId", sub.roomId());
+            dto.put("spectator", sub.spectator());
+            dto.put("bufferedBytes", Backpressure.bufferedBytes(conn));
+            if (userId == null) {
+                dto.put("remote", String.valueOf(conn.getRemoteSocketAddress()));
+            }
+            dto.put("rtt", sub.rtt().toDto());
+            result.add(dto);
+        }
+        return result;
     }
 
     @Override
@@ -67,20 +207,130 @@ public class WebSocketHub extends WebSocketServer {
     }
 
     public void broadcastRoom(Room room) {
-        String json = JsonUtil.stringify(Map.of("type", "roomUpdate", "room", room.toDto(dataStore)));
-        broadcastToRoom(room.getId(), json);
+        Map<String, Object> message = Map.of("type", "roomUpdate", "room", room.toDto(dataStore));
+        eventBus.publish(new RoomEvent(RoomEvent.ROOM_UPDATE, room.getId(), dataStore.getCluster().getNodeId(),
+                JsonUtil.stringify(message), message));
     }
 
     public void broadcastChat(String roomId, Map<String, Object> message) {
         String json = JsonUtil.stringify(Map.of("type", "chatMessage", "message", message));
-        broadcastToRoom(roomId, json);
+        eventBus.publish(new RoomEvent(RoomEvent.CHAT_MESSAGE, roomId, dataStore.getCluster().getNodeId(), json));
     }
 
-    private void broadcastToRoom(String roomId, String payload) {
-        Set<WebSocket> targets = roomSockets.get(roomId);
+    /** Sends {@code message} to the user's lobby connections on this node; false if there are none. */
+    public boolean notifyUser(String userId, Map<String, Object> message) {
+        Set<WebSocket> targets = lobbySockets.get(userId);
+        if (targets == null) return false;
+        String payload = JsonUtil.stringify(message);
+        boolean sent = false;
+        for (WebSocket ws : targets) {
+            try {
+                ws.send(payload);
+                sent = true;
+            } catch (WebsocketNotConnectedException ignored) {
+                // 連線剛關閉，onClose 會處理
+            }
+        }
+        return sent;
+    }
+
+    private void onRoomEvent(RoomEvent event) {
+        if (RoomEvent.ROOM_DELETED.equals(event.type())) {
+            latency.forgetRoom(event.roomId());
+            spectators.closeRoom(event.roomId());
+        }
+        if (RoomEvent.ROOM_UPDATE.equals(event.type())) {
+            broadcastToRoom(event, true);
+        } else if (RoomEvent.CHAT_MESSAGE.equals(event.type())) {
+            broadcastToRoom(event, false);
+        }
+        // 觀眾只收房間狀態，不收玩家聊天；先送玩家，再把觀眾的份排進 fan-out 執行緒
+        if (RoomEvent.ROOM_UPDATE.equals(event.type())) {
+            spectators.publish(event.roomId(), event.payload());
+        }
+    }
+
+    public int spectatorCount(String roomId) {
+        return spectators.spectatorCount(roomId);
+    }
+
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        try {
+            super.stop(timeout, closeMessage);
+        } finally {
+            spectators.close();
+            backpressure.close();
+        }
+    }
+
+    private String snapshotFrame(String roomId) {
+        Map<String, Object> room = dataStore.roomSnapshot(roomId);
+        return room == null ? null : JsonUtil.stringify(Map.of("type", "roomUpdate", "room", room));
+    }
+
+    private static int parseDelay(String raw) {
+        if (raw == null || raw.isBlank()) return 0;
+        try {
+            return Integer.parseInt(raw.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private void broadcastToRoom(RoomEvent event, boolean roomUpdate) {
+        Set<WebSocket> targets = roomSockets.get(event.roomId());
         if (targets == null) return;
+        String payload = event.payload();
+        ByteBuffer binaryFrame = null;
         for (WebSocket ws : targets) {
-            ws.send(payload);
+            Backpressure.Outbox outbox = outboxOf(ws);
+            Object frame = payload;
+            if (roomUpdate && outbox.binary) {
+                // 同一份更新只編碼一次，所有二進位連線共用；本機發布的事件直接用 DTO，跨節點來的才解析 JSON
+                if (binaryFrame == null) {
+                    binaryFrame = BinaryRoomCodec.encodeRoomUpdate(
+                            event.message() != null ? event.message() : JsonUtil.parseObject(payload));
+                }
+                frame = binaryFrame;
+            }
+            boolean admitted = roomUpdate
+                    ? backpressure.admitUpdate(ws, outbox, frame)
+                    : backpressure.admitChat(ws, outbox);
+            if (!admitted) continue;
+            try {
+                Backpressure.send(ws, frame);
+            } catch (WebsocketNotConnectedException ignored) {
+                // 連線剛關閉，onClose 會處理
+            }
+        }
+    }
+
+    private static Backpressure.Outbox outboxOf(WebSocket conn) {
+        Subscription sub = conn.getAttachment();
+        return sub != null ? sub.outbox() : new Backpressure.Outbox(false);
+    }
+
+    private static boolean isBinary(WebSocket conn) {
+        IProtocol protocol = conn.getProtocol();
+        return protocol != null && BinaryRoomCodec.SUBPROTOCOL.equals(protocol.getProvidedProtocol());
+    }
+
+    public Map<String, Object> sendStats() {
+        Map<String, Object> dto = backpressure.toDto();
+        dto.put("connections", getConnections().size());
+        return dto;
+    }
+
+    private static int resolveHeartbeatSeconds() {
+        String env = System.getenv("OCGP_WS_HEARTBEAT_SECONDS");
+        if (env == null || env.isBlank()) {
+            return DEFAULT_HEARTBEAT_SECONDS;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(env.trim()));
+        } catch (NumberFormatException ex) {
+            return DEFAULT_HEARTBEAT_SECONDS;
         }
     }
 
@@ -104,4 +354,9 @@ public class WebSocketHub extends WebSocketServer {
         }
         return map;
     }
+
+    /** 連線建立時掛在 WebSocket 上，關閉時不必掃描所有房間就能找到它訂閱的房間 */
+    private record Subscription(String roomId, String userId, LatencyTracker.RttWindow rtt, boolean spectator,
+                                Backpressure.Outbox outbox) {
+    }
 }
@@ -0,0 +1,129 @@
+package com.ocgp.server;
+
+import java.util.Arrays;
+
+/**
+ * Per-square move tables for Chinese chess, built once. Squares are {@code row * 9 + col}
+ * with Black on rows 0-2 and Red on rows 7-9; tables indexed by side use 0 for Red, 1 for
+ * Black. Each entry lists the destination squares a piece could reach on an empty board, so
+ * move generation only has to check occupancy: the blocking square of a horse or elephant
+ * sits at the same index in {@link #HORSE_LEGS} / {@link #ELEPHANT_EYES}, and chariots and
+ * cannons walk {@link #RAYS} outward until they hit something.
+ */
+final class XiangqiTables {
+    static final int ROWS = 10;
+    static final int COLS = 9;
+    static final int SQUARES = ROWS * COLS;
+
+    static final int[][][] GENERAL_TARGETS = new int[2][SQUARES][];
+    static final int[][][] ADVISOR_TARGETS = new int[2][SQUARES][];
+    static final int[][][] ELEPHANT_TARGETS = new int[2][SQUARES][];
+    static final int[][][] ELEPHANT_EYES = new int[2][SQUARES][];
+    static final int[][] HORSE_TARGETS = new int[SQUARES][];
+    static final int[][] HORSE_LEGS = new int[SQUARES][];
+    static final int[][][] SOLDIER_TARGETS = new int[2][SQUARES][];
+    // 上、下、左、右四條射線，由近到遠
+    static final int[][][] RAYS = new int[SQUARES][4][];
+
+    private static final int[][] ORTHOGONAL = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+    private static final int[][] DIAGONAL = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+    private static final int[][] HORSE_STEPS = {
+            {-2, -1}, {-2, 1}, {2, -1}, {2, 1}, {-1, -2}, {1, -2}, {-1, 2}, {1, 2}
+    };
+
+    static {
+        for (int side = 0; side < 2; side++) {
+            for (int sq = 0; sq < SQUARES; sq++) {
+                int row = sq / COLS;
+                int col = sq % COLS;
+                GENERAL_TARGETS[side][sq] = steps(side, row, col, ORTHOGONAL, 1, true);
+                ADVISOR_TARGETS[side][sq] = steps(side, row, col, DIAGONAL, 1, true);
+                ELEPHANT_TARGETS[side][sq] = steps(side, row, col, DIAGONAL, 2, false);
+                int[] eyes = new int[ELEPHANT_TARGETS[side][sq].length];
+                for (int i = 0; i < eyes.length; i++) {
+                    int target = ELEPHANT_TARGETS[side][sq][i];
+                    eyes[i] = (sq + target) / 2;
+                }
+                ELEPHANT_EYES[side][sq] = eyes;
+                SOLDIER_TARGETS[side][sq] = soldierTargets(side, row, col);
+            }
+        }
+        for (int sq = 0; sq < SQUARES; sq++) {
+            int row = sq / COLS;
+            int col = sq % COLS;
+            int[] targets = new int[HORSE_STEPS.length];
+            int[] legs = new int[HORSE_STEPS.length];
+            int count = 0;
+            for (int[] step : HORSE_STEPS) {
+                int toRow = row + step[0];
+                int toCol = col + step[1];
+                if (onBoard(toRow, toCol)) {
+                    targets[count] = square(toRow, toCol);
+                    // 馬腳在長邊方向的第一格
+                    legs[count++] = Math.abs(step[0]) == 2 ? square(row + step[0] / 2, col) : square(row, col + step[1] / 2);
+                }
+            }
+            HORSE_TARGETS[sq] = Arrays.copyOf(targets, count);
+            HORSE_LEGS[sq] = Arrays.copyOf(legs, count);
+            for (int dir = 0; dir < ORTHOGONAL.length; dir++) {
+                int[] ray = new int[Math.max(ROWS, COLS)];
+                int length = 0;
+                for (int r = row + ORTHOGONAL[dir][0], c = col + ORTHOGONAL[dir][1]; onBoard(r, c);
+                     r += ORTHOGONAL[dir][0], c += ORTHOGONAL[dir][1]) {
+                    ray[length++] = square(r, c);
+                }
+                RAYS[sq][dir] = Arrays.copyOf(ray, length);
+            }
+        }
+    }
+
+    private XiangqiTables() {
+    }
+
+    static int square(int row, int col) {
+        return row * COLS + col;
+    }
+
+    static boolean inPalace(int side, int row, int col) {
+        return col >= 3 && col <= 5 && (side == 0 ? row >= 7 : row <= 2);
+    }
+
+    static boolean onOwnSide(int side, int row) {
+        return side == 0 ? row >= 5 : row <= 4;
+    }
+
+    private static boolean onBoard(int row, int col) {
+        return row >= 0 && row < ROWS && col >= 0 && col < COLS;
+    }
+
+    // 將、士限九宮；象不過河
+    private static int[] steps(int side, int row, int col, int[][] directions, int distance, boolean palace) {
+        int[] targets = new int[directions.length];
+        int count = 0;
+        for (int[] dir : directions) {
+            int toRow = row + dir[0] * distance;
+            int toCol = col + dir[1] * distance;
+            if (!onBoard(toRow, toCol)) {
+                continue;
+            }
+            if (palace ? inPalace(side, toRow, toCol) : onOwnSide(side, toRow)) {
+                targets[count++] = square(toRow, toCol);
+            }
+        }
+        return Arrays.copyOf(targets, count);
+    }
+
+    private static int[] soldierTargets(int side, int row, int col) {
+        int[] targets = new int[3];
+        int count = 0;
+        int forward = side == 0 ? row - 1 : row + 1;
+        if (onBoard(forward, col)) {
+            targets[count++] = square(forward, col);
+        }
+        if (!onOwnSide(side, row)) {
+            if (col > 0) targets[count++] = square(row, col - 1);
+            if (col < COLS - 1) targets[count++] = square(row, col + 1);
+        }
+        return Arrays.copyOf(targets, count);
+    }
+}
@@ -0,0 +1,135 @@
+package com.ocgp.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Login latency while other threads keep persisting rooms, with and without a single global
+ * monitor around every DataStore call (the "coarse" run reproduces the old
+ * {@code synchronized} DataStore). Uses the SQLite engine on a temporary file.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * OCGP_SNAPSHOT_SECONDS=0 java -cp "out/test:lib/*" com.ocgp.server.DataStoreContentionBench [seconds]
+ * </pre>
+ */
+public final class DataStoreContentionBench {
+    private static final int WRITERS = 4;
+    private static final int LOGINS = 4;
+    private static final int USERS = 200;
+
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        System.out.printf("%-7s %12s %10s %10s %10s %12s%n", "mode", "logins/s", "p50 ms", "p99 ms", "max ms", "persists/s");
+        for (boolean coarse : new boolean[]{true, false}) {
+            run(coarse, seconds);
+        }
+    }
+
+    private static void run(boolean coarse, long seconds) throws Exception {
+        Path dir = Files.createTempDirectory("ocgp-bench");
+        Object global = new Object();
+        try (DataStore store = new DataStore(new ClusterRouter("bench", Map.of()),
+                new SqliteStorageEngine(dir.resolve("bench.sqlite")))) {
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < USERS; i++) {
+                users.add(store.register("bench" + i, "pw" + i));
+            }
+            List<Room> rooms = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                rooms.add(store.createRoom(users.get(i), "bench room " + i, GameType.GOBANG, false));
+            }
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicLong persists = new AtomicLong();
+            List<long[]> samples = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int w = 0; w < WRITERS; w++) {
+                Room room = rooms.get(w);
+                threads.add(new Thread(() -> {
+                    await(start);
+                    while (running.get()) {
+                        call(coarse, global, () -> store.persistRoom(room));
+                        persists.incrementAndGet();
+                    }
+                }));
+            }
+            for (int l = 0; l < LOGINS; l++) {
+                long[] latencies = new long[1 << 20];
+                samples.add(latencies);
+                int offset = l;
+                threads.add(new Thread(() -> {
+                    await(start);
+                    int n = 0;
+                    while (running.get() && n < latencies.length - 1) {
+                        int u = (offset + n * LOGINS) % USERS;
+                        long t = System.nanoTime();
+                        call(coarse, global, () -> store.createSession(store.authenticate("bench" + u, "pw" + u).getId()));
+                        latencies[++n] = System.nanoTime() - t;
+                    }
+                    latencies[0] = n;
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            TimeUnit.SECONDS.sleep(seconds);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            report(coarse ? "coarse" : "fine", samples, persists.get(), seconds);
+        }
+    }
+
+    private static void report(String mode, List<long[]> samples, long persists, long seconds) {
+        int total = 0;
+        for (long[] s : samples) {
+            total += (int) s[0];
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] s : samples) {
+            System.arraycopy(s, 1, all, pos, (int) s[0]);
+            pos += (int) s[0];
+        }
+        Arrays.sort(all);
+        System.out.printf("%-7s %12.0f %10.3f %10.3f %10.3f %12.0f%n", mode, total / (double) seconds,
+                percentile(all, 0.50), percentile(all, 0.99), all.length == 0 ? 0 : all[all.length - 1] / 1e6,
+                persists / (double) seconds);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * p)] / 1e6;
+    }
+
+    private static void call(boolean coarse, Object global, Runnable action) {
+        if (coarse) {
+            synchronized (global) {
+                action.run();
+            }
+        } else {
+            action.run();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
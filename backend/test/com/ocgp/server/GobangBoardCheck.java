@@ -0,0 +1,144 @@
+package com.ocgp.server;
+
+import java.util.Random;
+
+/**
+ * Compares {@link GobangBoard}'s bitboard win detection with the direction scan it replaced,
+ * on random games. Each game fills the whole board in random order (so overlines and positions
+ * past the first five are covered too); after every move the placed cell's run lengths and
+ * five-in-a-row result must match the scan, and every cell must read back the same stone.
+ * Along the way a copy is checked for independence and {@code remove} for undoing a move.
+ * Exits with status 1 on the first mismatch.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * java -cp "out/test:lib/*" com.ocgp.server.GobangBoardCheck [games] [seed]
+ * </pre>
+ */
+public final class GobangBoardCheck {
+    private static final int SIZE = GobangBoard.SIZE;
+    // 與 GobangBoard 的 ROW、COLUMN、DIAGONAL、ANTI_DIAGONAL 同順序的 (dx, dy)
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        Random random = new Random(seed);
+        long moves = 0;
+        long firstFivePlies = 0;
+        for (int game = 0; game < games; game++) {
+            int[][] scan = new int[SIZE][SIZE];
+            GobangBoard board = new GobangBoard();
+            int[] order = shuffledCells(random);
+            boolean won = false;
+            for (int ply = 0; ply < order.length; ply++) {
+                int x = order[ply] / SIZE;
+                int y = order[ply] % SIZE;
+                int stone = ply % 2 == 0 ? 1 : -1;
+                scan[x][y] = stone;
+                board.place(x, y, stone);
+                moves++;
+                String where = "game " + game + " ply " + ply + " (" + x + "," + y + ") seed " + seed;
+                for (int direction = GobangBoard.ROW; direction <= GobangBoard.ANTI_DIAGONAL; direction++) {
+                    int expected = runLength(scan, x, y, DIRECTIONS[direction], stone);
+                    int actual = board.runLengthThrough(direction, x, y, stone);
+                    if (actual != expected) {
+                        fail(where + ": run length in direction " + direction + " is " + actual + ", scan says " + expected);
+                    }
+                }
+                boolean five = hasFiveInRow(scan, x, y, stone);
+                if (board.hasFiveThrough(x, y, stone) != five) {
+                    fail(where + ": hasFiveThrough is " + !five + ", scan says " + five);
+                }
+                if (five && !won) {
+                    won = true;
+                    firstFivePlies += ply + 1;
+                }
+                if (board.stoneCount() != ply + 1) {
+                    fail(where + ": stone count " + board.stoneCount());
+                }
+                if (random.nextInt(16) == 0) {
+                    checkCopyAndRemove(board, scan, x, y, where);
+                }
+            }
+            checkCells(board, scan, "game " + game + " seed " + seed);
+        }
+        System.out.printf("OK: %d games, %d moves, first five after %.1f moves on average (seed %d)%n", games, moves,
+                firstFivePlies / (double) games, seed);
+    }
+
+    // 在副本上悔一步，原盤不能受影響，副本其餘格子不變
+    private static void checkCopyAndRemove(GobangBoard board, int[][] scan, int x, int y, String where) {
+        GobangBoard copy = board.copy();
+        copy.remove(x, y);
+        if (!copy.isEmpty(x, y) || copy.stoneCount() != board.stoneCount() - 1) {
+            fail(where + ": remove did not clear the cell");
+        }
+        if (board.stoneAt(x, y) != scan[x][y]) {
+            fail(where + ": removing from a copy changed the original");
+        }
+        int stone = scan[x][y];
+        scan[x][y] = 0;
+        checkCells(copy, scan, where + " after remove");
+        scan[x][y] = stone;
+    }
+
+    private static void checkCells(GobangBoard board, int[][] scan, String where) {
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (board.stoneAt(x, y) != scan[x][y] || board.isEmpty(x, y) != (scan[x][y] == 0)) {
+                    fail(where + ": cell (" + x + "," + y + ") reads " + board.stoneAt(x, y) + ", expected " + scan[x][y]);
+                }
+            }
+        }
+    }
+
+    private static int[] shuffledCells(Random random) {
+        int[] cells = new int[SIZE * SIZE];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i;
+        }
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = cells[i];
+            cells[i] = cells[j];
+            cells[j] = t;
+        }
+        return cells;
+    }
+
+    // 以下是 GobangGameSession 改用 GobangBoard 前的逐格掃描
+    private static boolean hasFiveInRow(int[][] board, int x, int y, int stone) {
+        for (int[] dir : DIRECTIONS) {
+            if (runLength(board, x, y, dir, stone) >= 5) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int runLength(int[][] board, int x, int y, int[] dir, int stone) {
+        if (board[x][y] != stone) {
+            return 0;
+        }
+        return 1 + countDirection(board, x, y, dir[0], dir[1], stone) + countDirection(board, x, y, -dir[0], -dir[1], stone);
+    }
+
+    private static int countDirection(int[][] board, int x, int y, int dx, int dy, int stone) {
+        int count = 0;
+        int cx = x + dx;
+        int cy = y + dy;
+        while (cx >= 0 && cx < SIZE && cy >= 0 && cy < SIZE && board[cx][cy] == stone) {
+            count++;
+            cx += dx;
+            cy += dy;
+        }
+        return count;
+    }
+
+    private static void fail(String message) {
+        System.err.println("MISMATCH " + message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,169 @@
+package com.ocgp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Enqueues players into a {@link Matchmaker} from several threads while the main thread ticks
+ * it (no background ticker, {@code tickMillis = 0}), with a share of the players cancelling
+ * right after they join. Reports enqueue time and per-tick pairing time, then checks every
+ * match: nobody paired twice, both players of the same game type, and the rating and latency
+ * gaps within the band (including the widening for time spent waiting). Exits with status 1
+ * on the first violation.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * java -cp "out/test:lib/*" com.ocgp.server.MatchmakerLoadBench [players] [threads] [cancelPercent]
+ * </pre>
+ */
+public final class MatchmakerLoadBench {
+    // 與 Matchmaker 的配對範圍一致
+    private static final int RATING_BAND = 100;
+    private static final int RATING_BAND_PER_STEP = 50;
+    private static final long LATENCY_BAND_MS = 80;
+    private static final long LATENCY_BAND_PER_STEP_MS = 40;
+    private static final long WIDEN_STEP_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final GameType[] TYPES = GameType.values();
+
+    private record Player(GameType type, int rating, long rttMillis) {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int cancelPercent = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        Map<String, Player> roster = new ConcurrentHashMap<>();
+        Map<String, String> pairedWith = new ConcurrentHashMap<>();
+        Map<String, Boolean> cancelled = new ConcurrentHashMap<>();
+        long started = System.nanoTime();
+        Matchmaker.Pairing pairing = (type, first, second) -> {
+            String roomId = "room-" + first.userId() + "-" + second.userId();
+            check(type, first.userId(), second.userId(), roster, pairedWith, System.nanoTime() - started);
+            return roomId;
+        };
+        Matchmaker matchmaker = new Matchmaker(pairing, ticket -> { }, 0);
+
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] enqueueNanos = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(thread);
+                try {
+                    ready.await();
+                    long begin = System.nanoTime();
+                    for (int i = thread; i < players; i += threads) {
+                        String userId = "u" + i;
+                        Player player = new Player(TYPES[random.nextInt(TYPES.length)],
+                                (int) Math.round(1500 + random.nextGaussian() * 300),
+                                random.nextInt(10) == 0 ? -1 : 10 + random.nextInt(200));
+                        roster.put(userId, player);
+                        matchmaker.enqueue(userId, player.type(), player.rating(), player.rttMillis());
+                        if (random.nextInt(100) < cancelPercent && matchmaker.cancel(userId)) {
+                            cancelled.put(userId, Boolean.TRUE);
+                        }
+                    }
+                    enqueueNanos[thread] = System.nanoTime() - begin;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "enqueue-" + t);
+            worker.start();
+        }
+
+        // 入列期間照樣 tick，跟實際的配對執行緒一樣和 request 執行緒並行
+        List<long[]> ticks = new ArrayList<>();
+        AtomicBoolean enqueuing = new AtomicBoolean(true);
+        ready.countDown();
+        int idle = 0;
+        while (enqueuing.get() || idle < 2) {
+            if (done.getCount() == 0) {
+                enqueuing.set(false);
+            }
+            long t = System.nanoTime();
+            int matches = matchmaker.tick();
+            ticks.add(new long[]{matches, System.nanoTime() - t});
+            idle = !enqueuing.get() && matches == 0 ? idle + 1 : 0;
+            if (enqueuing.get()) {
+                Thread.sleep(5);
+            }
+        }
+        matchmaker.close();
+
+        int pooled = 0;
+        for (Object size : matchmaker.stats().values()) {
+            pooled += (Integer) size;
+        }
+        int cancelledPaired = 0;
+        for (String userId : cancelled.keySet()) {
+            if (pairedWith.containsKey(userId)) {
+                cancelledPaired++;
+            }
+        }
+        long enqueueMax = 0;
+        for (long nanos : enqueueNanos) {
+            enqueueMax = Math.max(enqueueMax, nanos);
+        }
+
+        System.out.printf("%d players, %d threads, %d cancelled (%d%%)%n", players, threads, cancelled.size(), cancelPercent);
+        System.out.printf("enqueue: %.1f ms (slowest thread)%n", enqueueMax / 1e6);
+        System.out.printf("%-6s %8s %10s%n", "tick", "matches", "ms");
+        int shown = 0;
+        for (int i = 0; i < ticks.size(); i++) {
+            long[] tick = ticks.get(i);
+            if (tick[0] > 0 || i == ticks.size() - 1) {
+                System.out.printf("%-6d %8d %10.2f%n", i, tick[0], tick[1] / 1e6);
+                if (++shown >= 20 && i < ticks.size() - 1) {
+                    System.out.printf("... %d more ticks%n", ticks.size() - 1 - i);
+                    break;
+                }
+            }
+        }
+        System.out.printf("paired %d players, %d still queued, %d cancelled after the tick had already paired them%n",
+                pairedWith.size(), pooled, cancelledPaired);
+
+        int expected = players - cancelled.size() + cancelledPaired;
+        if (pairedWith.size() + pooled != expected) {
+            fail("paired + queued = " + (pairedWith.size() + pooled) + ", expected " + expected);
+        }
+        System.out.println("OK: no player paired twice, all pairs within the rating and latency band");
+    }
+
+    private static void check(GameType type, String first, String second, Map<String, Player> roster,
+                              Map<String, String> pairedWith, long elapsedNanos) {
+        if (pairedWith.putIfAbsent(first, second) != null || pairedWith.putIfAbsent(second, first) != null) {
+            fail(first + " or " + second + " paired twice");
+        }
+        Player a = roster.get(first);
+        Player b = roster.get(second);
+        if (a.type() != type || b.type() != type) {
+            fail(first + " (" + a.type() + ") and " + second + " (" + b.type() + ") paired for " + type);
+        }
+        // 兩人最多等了整段 bench 的時間，範圍以此放寬
+        long steps = elapsedNanos / WIDEN_STEP_NANOS;
+        int gap = Math.abs(a.rating() - b.rating());
+        if (gap > RATING_BAND + steps * RATING_BAND_PER_STEP) {
+            fail(first + " and " + second + " paired with rating gap " + gap);
+        }
+        if (a.rttMillis() >= 0 && b.rttMillis() >= 0
+                && Math.abs(a.rttMillis() - b.rttMillis()) > LATENCY_BAND_MS + steps * LATENCY_BAND_PER_STEP_MS) {
+            fail(first + " and " + second + " paired with latency gap " + Math.abs(a.rttMillis() - b.rttMillis()));
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println("VIOLATION " + message);
+        System.exit(1);
+    }
+}
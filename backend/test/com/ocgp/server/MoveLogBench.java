@@ -0,0 +1,189 @@
+package com.ocgp.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Bytes per move of a session's move history and the cost of {@code toDto()}, before and after
+ * {@link MoveLog}. "Before" is the old layout rebuilt from the same games: one {@code HashMap}
+ * of boxed values per move, copied into a new list on every {@code toDto()}. Retained heap is
+ * measured after full GCs; allocation with the per-thread allocation counter.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * java -Xmx1g -cp "out/test:lib/*" com.ocgp.server.MoveLogBench [sessions] [moves]
+ * </pre>
+ */
+public final class MoveLogBench {
+    private static final List<String> PLAYERS = List.of("red", "black");
+    private static final int DTO_CALLS = 20_000;
+
+    public static void main(String[] args) {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int moves = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        System.out.printf("%d sessions x %d moves%n", sessions, moves);
+        System.out.printf("%-8s %-7s %12s %12s %14s %18s%n", "game", "layout", "heap B/move", "toDto us",
+                "toDto KB alloc", "toDto+JSON KB alloc");
+        Random random = new Random(1);
+        for (GameType type : new GameType[]{GameType.GOBANG, GameType.CHINESE_CHESS}) {
+            run(type, sessions, moves, random);
+        }
+    }
+
+    private static void run(GameType type, int count, int moves, Random random) {
+        List<GameSession> sessions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sessions.add(play(type, moves, random));
+        }
+        long plies = (long) count * moves;
+        String name = type == GameType.GOBANG ? "gobang" : "xiangqi";
+
+        long played = usedHeap();
+        List<List<Map<String, Object>>> legacy = new ArrayList<>(count);
+        for (GameSession session : sessions) {
+            legacy.add(materialize(session));
+        }
+        double legacyBytes = (usedHeap() - played) / (double) plies;
+        Cost legacyCost = measure(sessions, i -> {
+            Map<String, Object> dto = sessions.get(i).toDto();
+            dto.put("moves", new ArrayList<>(legacy.get(i)));
+            return dto;
+        });
+        Reference.reachabilityFence(legacy);
+        legacy.clear();
+
+        long withMoves = usedHeap();
+        Cost packedCost = measure(sessions, i -> sessions.get(i).toDto());
+        for (GameSession session : sessions) {
+            session.discardMoves();
+        }
+        double packedBytes = (withMoves - usedHeap()) / (double) plies;
+        Reference.reachabilityFence(sessions);
+
+        print(name, "before", legacyBytes, legacyCost);
+        print(name, "after", packedBytes, packedCost);
+    }
+
+    // 舊版 session 的存法：每步一個 HashMap，值都是 boxed
+    private static List<Map<String, Object>> materialize(GameSession session) {
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> view = (List<Map<String, Object>>) session.toDto().get("moves");
+        List<Map<String, Object>> copy = new ArrayList<>();
+        for (Map<String, Object> move : view) {
+            copy.add(new HashMap<>(move));
+        }
+        return copy;
+    }
+
+    @FunctionalInterface
+    private interface DtoCall {
+        Map<String, Object> call(int index);
+    }
+
+    private record Cost(double micros, double kilobytes, double withJsonKilobytes) {
+    }
+
+    private static Cost measure(List<GameSession> sessions, DtoCall call) {
+        for (int i = 0; i < DTO_CALLS; i++) {
+            JsonUtil.stringify(call.call(i % sessions.size()));
+        }
+        long bytes = allocatedBytes();
+        long t = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < DTO_CALLS; i++) {
+            sink += call.call(i % sessions.size()).size();
+        }
+        long nanos = System.nanoTime() - t;
+        long dtoBytes = allocatedBytes() - bytes;
+        bytes = allocatedBytes();
+        for (int i = 0; i < DTO_CALLS; i++) {
+            sink += JsonUtil.stringify(call.call(i % sessions.size())).length();
+        }
+        long jsonBytes = allocatedBytes() - bytes;
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return new Cost(nanos / 1e3 / DTO_CALLS, dtoBytes / 1024.0 / DTO_CALLS, jsonBytes / 1024.0 / DTO_CALLS);
+    }
+
+    private static void print(String game, String layout, double bytesPerMove, Cost cost) {
+        System.out.printf("%-8s %-7s %12.1f %12.1f %14.1f %18.1f%n", game, layout, bytesPerMove, cost.micros(),
+                cost.kilobytes(), cost.withJsonKilobytes());
+    }
+
+    private static GameSession play(GameType type, int moves, Random random) {
+        while (true) {
+            GameSession session = type == GameType.GOBANG ? new GobangGameSession() : new ChineseChessGameSession();
+            session.start(PLAYERS);
+            if (type == GameType.GOBANG ? playGobang(session, moves) : playXiangqi(session, moves, random)) {
+                return session;
+            }
+        }
+    }
+
+    // 兩方各取互不相連的格子，不會提前連成五子
+    private static boolean playGobang(GameSession session, int moves) {
+        int[] next = new int[2];
+        for (int ply = 0; ply < moves; ply++) {
+            int side = ply % 2;
+            int[] cell = gobangCell(next[side]++, side == 0);
+            session.makeMove(session.getCurrentPlayerId(), new HashMap<>(Map.of("x", cell[0], "y", cell[1])));
+        }
+        return "IN_PROGRESS".equals(session.getStatus());
+    }
+
+    private static int[] gobangCell(int index, boolean first) {
+        int seen = 0;
+        for (int y = 0; y < GobangBoard.SIZE; y++) {
+            for (int x = 0; x < GobangBoard.SIZE; x++) {
+                if (((x / 2 + y) % 2 == 0) == first && seen++ == index) {
+                    return new int[]{x, y};
+                }
+            }
+        }
+        throw new IllegalArgumentException("No cell " + index);
+    }
+
+    // 盡量走不吃子的步，讓對局撐到指定步數；提前結束就重下一盤
+    @SuppressWarnings("unchecked")
+    private static boolean playXiangqi(GameSession session, int moves, Random random) {
+        for (int ply = 0; ply < moves; ply++) {
+            if (!"IN_PROGRESS".equals(session.getStatus())) {
+                return false;
+            }
+            List<Map<String, Object>> legal = (List<Map<String, Object>>) session.legalMoves(null).get("moves");
+            List<Map<String, Object>> quiet = new ArrayList<>();
+            for (Map<String, Object> move : legal) {
+                if (!Boolean.TRUE.equals(move.get("capture"))) {
+                    quiet.add(move);
+                }
+            }
+            List<Map<String, Object>> pool = quiet.isEmpty() ? legal : quiet;
+            if (pool.isEmpty()) {
+                return false;
+            }
+            Map<String, Object> move = new HashMap<>(pool.get(random.nextInt(pool.size())));
+            move.remove("capture");
+            session.makeMove(session.getCurrentPlayerId(), move);
+        }
+        return "IN_PROGRESS".equals(session.getStatus());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
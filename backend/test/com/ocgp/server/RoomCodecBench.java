@@ -0,0 +1,148 @@
+package com.ocgp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Frame size and encode time of a {@code roomUpdate} for the JSON text frame and the
+ * {@link BinaryRoomCodec} frame, on Gobang and Xiangqi rooms at several move counts. JSON is
+ * {@code JsonUtil.stringify} plus the UTF-8 conversion the socket does on send; "binary" encodes
+ * the local DTO, "binary relay" first parses the JSON payload the way updates from other nodes
+ * are handled.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * java -cp "out/test:lib/*" com.ocgp.server.RoomCodecBench [iterations]
+ * </pre>
+ */
+public final class RoomCodecBench {
+    private static final int[] PLIES = {0, 20, 60, 100};
+
+    public static void main(String[] args) {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        System.out.printf("%-8s %6s %11s %11s %8s %10s %10s %14s%n", "game", "moves", "JSON bytes", "bin bytes",
+                "ratio", "JSON ns", "bin ns", "bin relay ns");
+        try (DataStore store = new DataStore(new ClusterRouter("bench", Map.of()), new InMemoryStorageEngine())) {
+            User red = store.register("codec1", "pw");
+            User black = store.register("codec2", "pw");
+            Random random = new Random(1);
+            for (GameType type : new GameType[]{GameType.GOBANG, GameType.CHINESE_CHESS}) {
+                for (int plies : PLIES) {
+                    Room room = play(store, red, black, type, plies, random);
+                    Map<String, Object> message = Map.of("type", "roomUpdate", "room", room.toDto(store));
+                    run(type == GameType.GOBANG ? "gobang" : "xiangqi", plies, message, iterations);
+                }
+            }
+        }
+    }
+
+    private static void run(String game, int plies, Map<String, Object> message, int iterations) {
+        String payload = JsonUtil.stringify(message);
+        int jsonBytes = payload.getBytes(StandardCharsets.UTF_8).length;
+        int binaryBytes = BinaryRoomCodec.encodeRoomUpdate(message).remaining();
+        long jsonNanos = time(iterations, () -> JsonUtil.stringify(message).getBytes(StandardCharsets.UTF_8).length);
+        long binaryNanos = time(iterations, () -> BinaryRoomCodec.encodeRoomUpdate(message).remaining());
+        long relayNanos = time(iterations, () -> BinaryRoomCodec.encodeRoomUpdate(JsonUtil.parseObject(payload)).remaining());
+        System.out.printf("%-8s %6d %11d %11d %8.2f %10d %10d %14d%n", game, plies, jsonBytes, binaryBytes,
+                binaryBytes / (double) jsonBytes, jsonNanos, binaryNanos, relayNanos);
+    }
+
+    @FunctionalInterface
+    private interface Encode {
+        int bytes();
+    }
+
+    // 先跑一輪暖機，回傳每次編碼的平均 ns
+    private static long time(int iterations, Encode encode) {
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += encode.bytes();
+        }
+        long t = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += encode.bytes();
+        }
+        long nanos = (System.nanoTime() - t) / iterations;
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return nanos;
+    }
+
+    private static Room play(DataStore store, User red, User black, GameType type, int plies, Random random) {
+        while (true) {
+            Room room = store.createRoom(red, "codec bench", type, false);
+            room.addPlayer(black.getId());
+            room.startGame();
+            if (type == GameType.GOBANG ? playGobang(store, room, plies) : playXiangqi(store, room, plies, random)) {
+                return room;
+            }
+        }
+    }
+
+    // 兩方各取互不相連的格子，不會提前連成五子
+    private static boolean playGobang(DataStore store, Room room, int plies) {
+        int[] next = new int[2];
+        for (int ply = 0; ply < plies; ply++) {
+            int side = ply % 2;
+            int[] cell = gobangCell(next[side]++, side == 0);
+            room.submitMove(currentPlayer(store, room), new HashMap<>(Map.of("x", cell[0], "y", cell[1])),
+                    System.nanoTime());
+        }
+        return "IN_PROGRESS".equals(status(store, room));
+    }
+
+    private static int[] gobangCell(int index, boolean first) {
+        int seen = 0;
+        for (int y = 0; y < GobangBoard.SIZE; y++) {
+            for (int x = 0; x < GobangBoard.SIZE; x++) {
+                if (((x / 2 + y) % 2 == 0) == first && seen++ == index) {
+                    return new int[]{x, y};
+                }
+            }
+        }
+        throw new IllegalArgumentException("No cell " + index);
+    }
+
+    // 盡量走不吃子的步；提前結束就重下一盤
+    @SuppressWarnings("unchecked")
+    private static boolean playXiangqi(DataStore store, Room room, int plies, Random random) {
+        for (int ply = 0; ply < plies; ply++) {
+            if (!"IN_PROGRESS".equals(status(store, room))) {
+                return false;
+            }
+            List<Map<String, Object>> legal = (List<Map<String, Object>>) room.legalMoves(null).get("moves");
+            List<Map<String, Object>> quiet = new ArrayList<>();
+            for (Map<String, Object> move : legal) {
+                if (!Boolean.TRUE.equals(move.get("capture"))) {
+                    quiet.add(move);
+                }
+            }
+            List<Map<String, Object>> pool = quiet.isEmpty() ? legal : quiet;
+            if (pool.isEmpty()) {
+                return false;
+            }
+            Map<String, Object> move = new HashMap<>(pool.get(random.nextInt(pool.size())));
+            move.remove("capture");
+            room.submitMove(currentPlayer(store, room), move, System.nanoTime());
+        }
+        return "IN_PROGRESS".equals(status(store, room));
+    }
+
+    private static String currentPlayer(DataStore store, Room room) {
+        return (String) room.toDto(store).get("currentPlayerId");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String status(DataStore store, Room room) {
+        return (String) ((Map<String, Object>) room.toDto(store).get("gameState")).get("status");
+    }
+}
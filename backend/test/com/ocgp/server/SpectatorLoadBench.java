@@ -0,0 +1,230 @@
+package com.ocgp.server;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Player move latency with thousands of spectators on the same room, against a running server.
+ * Players and viewers are separate processes so the viewer sockets can be run at a lower CPU
+ * priority (or on another machine) and do not compete with the measured path.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * java -cp "out/test:lib/*" com.ocgp.server.SpectatorLoadBench players http://localhost:8080 /tmp/load.room &amp;
+ * nice -n 19 java -cp "out/test:lib/*" com.ocgp.server.SpectatorLoadBench viewers ws://localhost:8081 /tmp/load.room 5000
+ * </pre>
+ *
+ * The players process measures 30 moves in a room without spectators, then opens a second room,
+ * writes its id and a viewer token to the room file and waits for {@code <room file>.ready}. The
+ * viewers process connects the spectators, writes the ready file, and once the players write
+ * {@code <room file>.done} reports how many updates arrived and how many spectators ended on the
+ * final position.
+ */
+public final class SpectatorLoadBench {
+    private static final int MOVES = 30;
+    private static final long MOVE_INTERVAL_MS = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && "players".equals(args[0])) {
+            players(args[1], Path.of(args[2]));
+        } else if (args.length >= 4 && "viewers".equals(args[0])) {
+            viewers(args[1], Path.of(args[2]), Integer.parseInt(args[3]));
+        } else {
+            System.err.println("usage: players <http base> <room file> | viewers <ws base> <room file> <count>");
+            System.exit(2);
+        }
+    }
+
+    private static void players(String base, Path roomFile) throws Exception {
+        Api api = new Api(base + "/api");
+        String suffix = Long.toString(System.nanoTime(), 36);
+        String first = api.token("/register", null, "{\"username\":\"lp1" + suffix + "\",\"password\":\"pw\"}");
+        String second = api.token("/register", null, "{\"username\":\"lp2" + suffix + "\",\"password\":\"pw\"}");
+        String viewer = api.token("/register", null, "{\"username\":\"lv" + suffix + "\",\"password\":\"pw\"}");
+
+        String room = api.openRoom(first, second, "load baseline");
+        api.post("/rooms/" + room + "/start", first, "{}");
+        api.moves(room, first, second, 0, 10);
+        long[] baseline = api.moves(room, first, second, 10, MOVES);
+        System.out.println("without spectators: " + percentiles(baseline));
+
+        room = api.openRoom(first, second, "load spectators");
+        Files.deleteIfExists(ready(roomFile));
+        Files.deleteIfExists(done(roomFile));
+        Files.writeString(roomFile, room + "\n" + viewer + "\n");
+        while (!Files.exists(ready(roomFile))) {
+            Thread.sleep(200);
+        }
+        api.post("/rooms/" + room + "/start", first, "{}");
+        Thread.sleep(2000);
+        long[] loaded = api.moves(room, first, second, 0, MOVES);
+        System.out.println("with spectators:    " + percentiles(loaded));
+        Files.writeString(done(roomFile), String.valueOf(MOVES + 1));
+    }
+
+    private static void viewers(String wsBase, Path roomFile, int count) throws Exception {
+        while (!Files.exists(roomFile) || Files.readAllLines(roomFile).size() < 2) {
+            Thread.sleep(200);
+        }
+        List<String> lines = Files.readAllLines(roomFile);
+        String room = lines.get(0);
+        String token = lines.get(1);
+        AtomicInteger open = new AtomicInteger();
+        AtomicLong received = new AtomicLong();
+        Map<WebSocket, String> latest = new ConcurrentHashMap<>();
+        HttpClient client = HttpClient.newHttpClient();
+        List<CompletableFuture<WebSocket>> sockets = new ArrayList<>();
+        URI uri = URI.create(wsBase + "/?role=spectator&roomId=" + room + "&token=" + token);
+        for (int i = 0; i < count; i++) {
+            sockets.add(client.newWebSocketBuilder().buildAsync(uri, new WebSocket.Listener() {
+                private final StringBuilder partial = new StringBuilder();
+
+                @Override
+                public void onOpen(WebSocket ws) {
+                    open.incrementAndGet();
+                    ws.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+                    partial.append(data);
+                    if (last) {
+                        received.incrementAndGet();
+                        latest.put(ws, partial.toString());
+                        partial.setLength(0);
+                    }
+                    return null;
+                }
+            }));
+            if (i % 500 == 499) {
+                Thread.sleep(200);
+            }
+        }
+        for (CompletableFuture<WebSocket> socket : sockets) {
+            try {
+                socket.get(60, TimeUnit.SECONDS);
+            } catch (Exception ignored) {
+                // 連不上的不計入
+            }
+        }
+        Thread.sleep(2000);
+        long snapshots = received.get();
+        System.out.println("open spectators: " + open.get() + ", join snapshots: " + snapshots);
+        Files.writeString(ready(roomFile), "ready");
+        while (!Files.exists(done(roomFile))) {
+            Thread.sleep(200);
+        }
+        long updates = Long.parseLong(Files.readString(done(roomFile)).trim());
+        Thread.sleep(5000);
+        int current = 0;
+        for (String message : latest.values()) {
+            if (moveCount(message) == updates - 1) {
+                current++;
+            }
+        }
+        // 跟不上的觀眾由 Backpressure 只保留最新一筆，所以送達數可少於更新數，但最後都應停在終局狀態
+        System.out.printf("updates delivered: %d of %d, spectators on the final position: %d of %d%n",
+                received.get() - snapshots, updates * open.get(), current, open.get());
+        System.exit(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int moveCount(String message) {
+        Object room = JsonUtil.parseObject(message).get("room");
+        Object game = room instanceof Map<?, ?> map ? map.get("gameState") : null;
+        Object moves = game instanceof Map<?, ?> map ? map.get("moves") : null;
+        return moves instanceof List<?> list ? list.size() : -1;
+    }
+
+    private static Path ready(Path roomFile) {
+        return roomFile.resolveSibling(roomFile.getFileName() + ".ready");
+    }
+
+    private static Path done(Path roomFile) {
+        return roomFile.resolveSibling(roomFile.getFileName() + ".done");
+    }
+
+    private static String percentiles(long[] sorted) {
+        return String.format("p50=%.2fms p95=%.2fms max=%.2fms", sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.95)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static final class Api {
+        private final HttpClient http = HttpClient.newHttpClient();
+        private final String base;
+
+        Api(String base) {
+            this.base = base;
+        }
+
+        Map<String, Object> post(String path, String token, String body) throws Exception {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(base + path))
+                    .POST(HttpRequest.BodyPublishers.ofString(body));
+            if (token != null) {
+                builder.header("X-Auth-Token", token);
+            }
+            String response = http.send(builder.build(), HttpResponse.BodyHandlers.ofString()).body();
+            return response.isBlank() ? Map.of() : JsonUtil.parseObject(response);
+        }
+
+        String token(String path, String token, String body) throws Exception {
+            return String.valueOf(post(path, token, body).get("token"));
+        }
+
+        @SuppressWarnings("unchecked")
+        String openRoom(String host, String guest, String name) throws Exception {
+            Map<String, Object> room = (Map<String, Object>) post("/rooms", host,
+                    "{\"name\":\"" + name + "\",\"gameType\":\"GOBANG\"}").get("room");
+            String id = String.valueOf(room.get("id"));
+            post("/rooms/" + id + "/join", guest, "{}");
+            return id;
+        }
+
+        // 兩方各取棋盤上互不相連的格子，30 手內不會連成五子
+        long[] moves(String room, String first, String second, int start, int count) throws Exception {
+            long[] latencies = new long[count];
+            for (int i = 0; i < count; i++) {
+                int k = start + i;
+                int[] cell = cell(k / 2, k % 2 == 0);
+                long started = System.nanoTime();
+                Map<String, Object> result = post("/rooms/" + room + "/move", k % 2 == 0 ? first : second,
+                        "{\"x\":" + cell[0] + ",\"y\":" + cell[1] + "}");
+                latencies[i] = System.nanoTime() - started;
+                if (result.containsKey("error")) {
+                    System.out.println("move failed: " + result.get("error"));
+                }
+                Thread.sleep(MOVE_INTERVAL_MS);
+            }
+            Arrays.sort(latencies);
+            return latencies;
+        }
+
+        private static int[] cell(int index, boolean firstPlayer) {
+            int seen = 0;
+            for (int y = 0; y < 15; y++) {
+                for (int x = 0; x < 15; x++) {
+                    if (((x / 2 + y) % 2 == 0) == firstPlayer && seen++ == index) {
+                        return new int[]{x, y};
+                    }
+                }
+            }
+            throw new IllegalArgumentException("No cell " + index);
+        }
+    }
+}
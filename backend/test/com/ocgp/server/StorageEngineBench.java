@@ -0,0 +1,137 @@
+package com.ocgp.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write throughput and recovery time of the three {@link StorageEngine}s on the same workload:
+ * users, repeated room saves, chat from one and from several senders, then room deletes.
+ * Recovery is the time to reopen the engine and load users and rooms, which is what startup
+ * needs before serving; the log store is also measured after a compaction.
+ *
+ * <pre>
+ * cd backend
+ * javac -encoding UTF-8 -cp "lib/*" -d out/test $(find src test -name "*.java")
+ * java -cp "out/test:lib/*" com.ocgp.server.StorageEngineBench [users] [chat]
+ * </pre>
+ */
+public final class StorageEngineBench {
+    private static final int ROOM_SAVES = 5;
+    private static final int CHAT_THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int chat = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Path dir = Files.createTempDirectory("ocgp-storage-bench");
+        System.out.printf("%d users, %d rooms x %d saves, %d chat messages%n", users, users, ROOM_SAVES, chat);
+        System.out.printf("%-14s %10s %10s %12s %12s %10s %12s%n", "engine", "users/s", "rooms/s", "chat 1x/s",
+                "chat " + CHAT_THREADS + "x/s", "deletes/s", "recovery ms");
+        Path sqlite = dir.resolve("bench.sqlite");
+        Path log = dir.resolve("bench.aol");
+        run("memory", InMemoryStorageEngine::new, null, users, chat);
+        run("sqlite", () -> new SqliteStorageEngine(sqlite), () -> new SqliteStorageEngine(sqlite), users, chat);
+        run("log", () -> new LogStructuredStorageEngine(log), () -> new LogStructuredStorageEngine(log), users, chat);
+
+        try (LogStructuredStorageEngine engine = new LogStructuredStorageEngine(log)) {
+            engine.compact();
+        }
+        System.out.printf("%-14s %10s %10s %12s %12s %10s %12.0f%n", "log compacted", "-", "-", "-", "-", "-",
+                recover(() -> new LogStructuredStorageEngine(log)));
+    }
+
+    private static void run(String name, Supplier<StorageEngine> open, Supplier<StorageEngine> reopen,
+                            int userCount, int chatCount) throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User("bench" + i, "pw"));
+        }
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            Room room = new Room("room-" + i, "bench room " + i, GameType.GOBANG, users.get(i).getId(), false, null,
+                    Instant.now());
+            room.restorePlayers(List.of(users.get(i).getId(), users.get((i + 1) % userCount).getId()));
+            rooms.add(room);
+        }
+
+        double userRate;
+        double roomRate;
+        double chatRate;
+        double parallelChatRate;
+        double deleteRate;
+        try (StorageEngine engine = open.get()) {
+            long t = System.nanoTime();
+            for (User user : users) {
+                engine.insertUser(user);
+            }
+            userRate = rate(users.size(), t);
+
+            t = System.nanoTime();
+            for (int pass = 0; pass < ROOM_SAVES; pass++) {
+                for (Room room : rooms) {
+                    engine.saveRoom(RoomRecord.capture(room));
+                }
+            }
+            roomRate = rate((long) rooms.size() * ROOM_SAVES, t);
+
+            int half = chatCount / 2;
+            t = System.nanoTime();
+            for (int i = 0; i < half; i++) {
+                engine.appendChatMessage(rooms.get(i % rooms.size()).getId(), users.get(i % users.size()).getId(), "message " + i);
+            }
+            chatRate = rate(half, t);
+
+            ExecutorService senders = Executors.newFixedThreadPool(CHAT_THREADS);
+            List<Future<?>> done = new ArrayList<>();
+            t = System.nanoTime();
+            for (int s = 0; s < CHAT_THREADS; s++) {
+                int sender = s;
+                done.add(senders.submit(() -> {
+                    for (int i = sender; i < half; i += CHAT_THREADS) {
+                        engine.appendChatMessage(rooms.get(i % rooms.size()).getId(), users.get(i % users.size()).getId(),
+                                "message " + i);
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+            parallelChatRate = rate(half, t);
+            senders.shutdown();
+            senders.awaitTermination(1, TimeUnit.MINUTES);
+
+            int deletes = rooms.size() / 4;
+            t = System.nanoTime();
+            for (int i = 0; i < deletes; i++) {
+                engine.deleteRoom(rooms.get(i).getId());
+            }
+            deleteRate = rate(deletes, t);
+        }
+        String recovery = reopen == null ? "-" : String.format("%.0f", recover(reopen));
+        System.out.printf("%-14s %10.0f %10.0f %12.0f %12.0f %10.0f %12s%n", name, userRate, roomRate, chatRate,
+                parallelChatRate, deleteRate, recovery);
+    }
+
+    private static double recover(Supplier<StorageEngine> reopen) throws Exception {
+        long t = System.nanoTime();
+        try (StorageEngine engine = reopen.get()) {
+            engine.loadUsers();
+            engine.loadRooms();
+            return (System.nanoTime() - t) / 1e6;
+        }
+    }
+
+    private static double rate(long count, long startedNanos) {
+        return count / ((System.nanoTime() - startedNanos) / 1e9);
+    }
+}
@@ -12,8 +12,11 @@ const state = {
     chatMessages: [],
     chatSinceId: 0,
     ws: null,
+    spectating: false,     // 觀戰模式：只收房間狀態，不可操作
     pingTimer: null,
     lastPingMs: null,
+    clockOffsetMs: 0,      // 伺服器時間 - 本機時間
+    syncSamples: [],
     turnTimer: null,
     turnDeadline: null,
     totalTimer: null,
@@ -31,6 +34,7 @@ const dom = {
     createRoomForm: document.getElementById("create-room-form"),
     roomNameInput: document.getElementById("room-name"),
     roomGameTypeSelect: document.getElementById("room-game-type"),
+    roomTimeControlInput: document.getElementById("room-time-control"),
     roomPrivateCheckbox: document.getElementById("room-private"),
     roomsList: document.getElementById("rooms-list"),
     backToLobbyBtn: document.getElementById("back-to-lobby"),
@@ -62,6 +66,11 @@ const dom = {
 const CHINESE_ROWS = 10;
 const CHINESE_COLS = 9;
 
+// 連珠與五子棋共用棋盤與顯示
+function isGobangFamily(gameType) {
+    return gameType === "GOBANG" || gameType === "RENJU";
+}
+
 function isChinesePerspectiveFlipped(room) {
     if (!room || room.gameType !== "CHINESE_CHESS") return false;
     if (!state.user?.id) return false;
@@ -182,16 +191,20 @@ function bindEvents() {
         const name = dom.roomNameInput.value.trim();
         const gameType = dom.roomGameTypeSelect.value;
         const isPrivate = dom.roomPrivateCheckbox.checked;
+        const timeControl = dom.roomTimeControlInput?.value.trim();
         if (!name || !gameType) {
             return;
         }
         try {
+            const body = { name, gameType, private: isPrivate };
+            if (timeControl) body.timeControl = timeControl;
             const response = await apiRequest("/api/rooms", {
                 method: "POST",
-                body: JSON.stringify({ name, gameType, private: isPrivate })
+                body: JSON.stringify(body)
             });
             showToast("已建立房間");
             dom.roomNameInput.value = "";
+            if (dom.roomTimeControlInput) dom.roomTimeControlInput.value = "";
             dom.roomPrivateCheckbox.checked = false;
             await enterRoom(response.room.id);
         } catch (error) {
@@ -277,8 +290,13 @@ function establishSession(response) {
 }
 
 function logout() {
-    // 登出前若在房內，嘗試通知後端離房
-    requestLeaveActiveRoom();
+    // 登出前若在房內，嘗試通知後端離房；離房送出後再撤銷 token，失敗也照常登出
+    const token = state.token;
+    void requestLeaveActiveRoom().then(() => {
+        if (token) {
+            return fetch("/api/logout", { method: "POST", headers: { "X-Auth-Token": token } });
+        }
+    }).catch(() => {});
 
     state.token = null;
     state.user = null;
@@ -429,6 +447,20 @@ function renderRoomList() {
         }
         actions.appendChild(button);
 
+        if (room.started && !alreadyInRoom && state.user) {
+            const watchBtn = document.createElement("button");
+            watchBtn.textContent = "觀戰";
+            watchBtn.addEventListener("click", () => {
+                let code = "";
+                if (room.private) {
+                    code = prompt("請輸入邀請碼");
+                    if (code === null) return;
+                }
+                spectateRoom(room.id, code.trim());
+            });
+            actions.appendChild(watchBtn);
+        }
+
         card.appendChild(info);
         card.appendChild(actions);
         dom.roomsList.appendChild(card);
@@ -446,7 +478,27 @@ async function joinRoom(roomId, inviteCode = "") {
     }
 }
 
+async function spectateRoom(roomId, inviteCode = "") {
+    clearRoomPoller();
+    clearLobbyPoller();
+    disconnectWebSocket();
+    state.spectating = true;
+    state.lastRoomStatus = null;
+    state.chatMessages = [];
+    state.chatSinceId = 0;
+    // 觀戰者的房間狀態由 WS 加入時的快照提供，之後只收更新
+    connectWebSocket(roomId, { role: "spectator", inviteCode });
+    if (!state.ws) {
+        showToast("無法觀戰", true);
+        leaveRoom();
+        return;
+    }
+    dom.lobbySection.classList.add("hidden");
+    dom.roomSection.classList.remove("hidden");
+}
+
 async function enterRoom(roomId) {
+    state.spectating = false;
     try {
         clearRoomPoller();
         clearLobbyPoller(); // ✅ 進房後停止大廳輪詢
@@ -476,16 +528,19 @@ async function enterRoom(roomId) {
 
 function requestLeaveActiveRoom() {
     if (!state.token || !state.user || !state.activeRoom) {
-        return;
+        return Promise.resolve();
     }
     const roomId = state.activeRoom.id;
     // 不阻塞 UI，盡力通知後端即可
-    void apiRequest(`/api/rooms/${roomId}/leave`, { method: "POST" }).catch(() => {});
+    return apiRequest(`/api/rooms/${roomId}/leave`, { method: "POST" }).catch(() => {});
 }
 
 function leaveRoom() {
     // ✅ 離開房間時通知後端：更新人數；若全員離開後端會刪房
-    requestLeaveActiveRoom();
+    if (!state.spectating) {
+        requestLeaveActiveRoom();
+    }
+    state.spectating = false;
 
     state.activeRoom = null;
     state.chatMessages = [];
@@ -515,7 +570,9 @@ function startRoomFallback() {
             const update = await apiRequest(`/api/rooms/${state.activeRoom.id}`);
             state.activeRoom = update.room;
             renderActiveRoom();
-            await loadChat(state.activeRoom.id);
+            if (!state.spectating) {
+                await loadChat(state.activeRoom.id);
+            }
         } catch (error) {
             showToast("房間已關閉或不存在，已返回大廳", true);
             leaveRoom();
@@ -527,13 +584,15 @@ function startPingMonitor() {
     clearPingMonitor();
     if (!state.token) return;
     const pingOnce = async () => {
-        const start = performance.now();
+        // WebSocket 連著時走 WS 對時，不另發 HTTP 請求
+        if (state.ws && state.ws.readyState === WebSocket.OPEN) {
+            sendTimeSync();
+            return;
+        }
+        const t0 = Date.now();
         try {
-            await apiRequest("/api/ping");
-            state.lastPingMs = Math.round(performance.now() - start);
-            if (dom.pingDisplay) {
-                dom.pingDisplay.textContent = `延遲：約 ${state.lastPingMs} ms`;
-            }
+            const resp = await apiRequest(`/api/ping?t0=${t0}`);
+            applyTimeSync(resp.t0, resp.t1, resp.t2, Date.now());
         } catch (_) {
             if (dom.pingDisplay) {
                 dom.pingDisplay.textContent = "延遲：--";
@@ -544,6 +603,36 @@ function startPingMonitor() {
     state.pingTimer = setInterval(pingOnce, 4000);
 }
 
+function sendTimeSync() {
+    try {
+        state.ws.send(JSON.stringify({ type: "timeSync", t0: Date.now() }));
+    } catch (_) {
+        // 連線剛好關閉，下次改走 HTTP
+    }
+}
+
+// NTP 式計算：rtt = (t3 - t0) - (t2 - t1)，offset = ((t1 - t0) + (t2 - t3)) / 2
+// 取最近幾次中 RTT 最小的樣本，其 offset 受非對稱延遲影響最小
+function applyTimeSync(t0, t1, t2, t3) {
+    if (typeof t0 !== "number" || typeof t1 !== "number" || typeof t2 !== "number") return;
+    const rtt = Math.max(0, (t3 - t0) - (t2 - t1));
+    const offset = ((t1 - t0) + (t2 - t3)) / 2;
+    state.syncSamples.push({ rtt, offset });
+    if (state.syncSamples.length > 8) {
+        state.syncSamples.shift();
+    }
+    const best = state.syncSamples.reduce((a, b) => (b.rtt < a.rtt ? b : a));
+    state.clockOffsetMs = best.offset;
+    state.lastPingMs = Math.round(rtt);
+    if (dom.pingDisplay) {
+        dom.pingDisplay.textContent = `延遲：約 ${state.lastPingMs} ms`;
+    }
+}
+
+function serverNow() {
+    return Date.now() + state.clockOffsetMs;
+}
+
 function clearPingMonitor() {
     if (state.pingTimer) {
         clearInterval(state.pingTimer);
@@ -586,6 +675,8 @@ function renderActiveRoom() {
     if (room.started) {
         if (currentStatus === "FINISHED") {
             statusText = "對戰結束";
+        } else if (state.spectating) {
+            statusText = "觀戰中";
         } else {
             statusText = isMyTurnNow ? "對戰進行中（輪到你了）" : "對戰進行中（等待對手）";
         }
@@ -618,7 +709,7 @@ function triggerGameOverModal(room) {
         if (room.gameType === "CHINESE_CHESS") {
             if (winnerId === playerOrder[0]) winnerColorCode = "RED";
             else if (winnerId === playerOrder[1]) winnerColorCode = "BLACK";
-        } else if (room.gameType === "GOBANG") {
+        } else if (isGobangFamily(room.gameType)) {
             if (winnerId === playerOrder[0]) winnerColorCode = "BLACK";
             else if (winnerId === playerOrder[1]) winnerColorCode = "WHITE";
         }
@@ -635,7 +726,7 @@ function triggerGameOverModal(room) {
 
 function renderRoomActions(room) {
     dom.roomActions.innerHTML = "";
-    if (!state.user) {
+    if (!state.user || state.spectating) {
         return;
     }
 
@@ -707,7 +798,8 @@ function renderPlayerList(room) {
                 colorLabel = getColorLabel(room.gameType, 1);
             }
         }
-        chip.textContent = `${player.username}${colorLabel ? ` ｜ ${colorLabel}` : ""}`;
+        const clockText = formatPlayerClock(room.clock?.players?.[player.id]);
+        chip.textContent = `${player.username}${colorLabel ? ` ｜ ${colorLabel}` : ""}${clockText ? ` ｜ ${clockText}` : ""}`;
         if (player.id === currentPlayerId) {
             chip.style.background = "#254a8b";
             chip.style.color = "#fff";
@@ -716,8 +808,19 @@ function renderPlayerList(room) {
     });
 }
 
+// 房間更新當下的剩餘時間；輪到方的即時倒數看 turn-timer
+function formatPlayerClock(entry) {
+    if (!entry) return "";
+    const total = Math.floor(entry.remainingMs / 1000);
+    let text = `${Math.floor(total / 60)}:${String(total % 60).padStart(2, "0")}`;
+    if (entry.periods !== undefined) {
+        text += ` + ${entry.periods}×${Math.round(entry.periodMs / 1000)}s`;
+    }
+    return text;
+}
+
 function getColorLabel(gameType, index) {
-    if (gameType === "GOBANG") {
+    if (isGobangFamily(gameType)) {
         return index === 0 ? "黑方" : "白方";
     }
     if (gameType === "CHINESE_CHESS") {
@@ -733,7 +836,7 @@ function renderBoard(room) {
         dom.boardContainer.innerHTML = "<p>等待對戰開始</p>";
         return;
     }
-    if (room.gameType === "GOBANG") {
+    if (isGobangFamily(room.gameType)) {
         renderGobangBoard(room);
     } else if (room.gameType === "CHINESE_CHESS") {
         renderChineseBoard(room);
@@ -780,6 +883,7 @@ function renderGobangBoard(room) {
 }
 
 async function submitGobangMove(room, x, y) {
+    if (state.spectating) return;
     try {
         await apiRequest(`/api/rooms/${room.id}/move`, {
             method: "POST",
@@ -922,7 +1026,7 @@ function renderMoveHistory(room) {
     }
     moves.forEach((move) => {
         const li = document.createElement("li");
-        if (room.gameType === "GOBANG") {
+        if (isGobangFamily(room.gameType)) {
             li.textContent = `${move.moveNumber}. (${move.x}, ${move.y})`;
         } else if (room.gameType === "CHINESE_CHESS") {
             li.textContent = `${move.moveNumber}. (${move.fromRow},${move.fromCol}) → (${move.toRow},${move.toCol})`;
@@ -972,7 +1076,7 @@ function updateTurnDeadline(isMyTurnNow, currentPlayerId, prevPlayerId, serverDe
     if (serverDeadline) {
         state.turnDeadline = serverDeadline;
     } else if (prevPlayerId !== currentPlayerId) {
-        state.turnDeadline = Date.now() + 15000; // fallback
+        state.turnDeadline = serverNow() + 15000; // fallback
     }
     startTurnTimer();
 }
@@ -985,7 +1089,7 @@ function startTurnTimer() {
             setTurnTimerText("--");
             return;
         }
-        const remaining = Math.max(0, state.turnDeadline - Date.now());
+        const remaining = Math.max(0, state.turnDeadline - serverNow());
         const seconds = (remaining / 1000).toFixed(1);
         setTurnTimerText(`${seconds}s`);
         if (remaining <= 0) {
@@ -1023,7 +1127,7 @@ function startTotalTimerFromRoom(room) {
     state.startedAt = startedAt;
     const startMs = Date.parse(startedAt);
     const tick = () => {
-        const elapsed = Math.max(0, Date.now() - startMs);
+        const elapsed = Math.max(0, serverNow() - startMs);
         const seconds = Math.floor(elapsed / 1000);
         const mins = Math.floor(seconds / 60);
         const secs = seconds % 60;
@@ -1088,19 +1192,29 @@ async function loadChat(roomId) {
     }
 }
 
-function connectWebSocket(roomId) {
+function connectWebSocket(roomId, options = {}) {
     disconnectWebSocket();
 
     const scheme = location.protocol === "https:" ? "wss" : "ws";
     const host = location.host; // ⭐ 包含 domain + port
-    const url = `${scheme}://${host}/?roomId=${roomId}&token=${state.token}`;
+    let url = `${scheme}://${host}/?roomId=${roomId}&token=${state.token}`;
+    if (options.role === "spectator") {
+        url += "&role=spectator";
+        if (options.inviteCode) url += `&inviteCode=${encodeURIComponent(options.inviteCode)}`;
+        if (options.delay) url += `&delay=${options.delay}`;
+    }
 
     try {
-        const ws = new WebSocket(url);
+        // localStorage.ocgpBinaryWs = "1" 時改用二進位房間狀態（ocgp.bin.v1）
+        const binary = localStorage.getItem("ocgpBinaryWs") === "1";
+        const ws = binary ? new WebSocket(url, [BINARY_SUBPROTOCOL]) : new WebSocket(url);
+        ws.binaryType = "arraybuffer";
 
         ws.onmessage = (event) => {
             try {
-                const payload = JSON.parse(event.data);
+                const payload = event.data instanceof ArrayBuffer
+                    ? decodeBinaryFrame(event.data)
+                    : JSON.parse(event.data);
 
                 if (payload.type === "roomUpdate" && payload.room) {
                     state.activeRoom = payload.room;
@@ -1109,18 +1223,34 @@ function connectWebSocket(roomId) {
                     state.chatMessages.push(payload.message);
                     state.chatSinceId = payload.message.id || state.chatSinceId;
                     renderChat();
+                } else if (payload.type === "resync") {
+                    // 伺服器因網路壅塞略過了部分聊天，補抓一次
+                    if (!state.spectating && state.activeRoom) {
+                        loadChat(state.activeRoom.id);
+                    }
+                } else if (payload.type === "timeSync") {
+                    applyTimeSync(payload.t0, payload.t1, payload.t2, Date.now());
                 }
             } catch (err) {
                 console.warn("WS message parse error", err);
             }
         };
 
+        ws.onopen = () => {
+            sendTimeSync();
+        };
+
         ws.onerror = () => {
             showToast("WebSocket 連線失敗，改用輪詢", true);
             startRoomFallback();
         };
 
-        ws.onclose = () => {
+        ws.onclose = (event) => {
+            if (state.spectating && !state.activeRoom) {
+                showToast(event.reason || "無法觀戰", true);
+                leaveRoom();
+                return;
+            }
             if (state.activeRoom) {
                 startRoomFallback();
             }
@@ -1133,6 +1263,105 @@ function connectWebSocket(roomId) {
 }
 
 
+const BINARY_SUBPROTOCOL = "ocgp.bin.v1";
+const XIANGQI_PIECES = ["GENERAL", "ADVISOR", "ELEPHANT", "HORSE", "CHARIOT", "CANNON", "SOLDIER"];
+const XIANGQI_SYMBOLS = ["GEN", "ADV", "ELE", "HOR", "CAR", "CAN", "SOL"];
+
+// 還原成與 JSON 版本相同結構的 room，版面程式不需區分格式（格式見 BinaryRoomCodec.java）
+function decodeBinaryFrame(buffer) {
+    const view = new DataView(buffer);
+    const bytes = new Uint8Array(buffer);
+    let pos = 0;
+    const kind = view.getUint8(pos++);
+    if (kind !== 1) {
+        throw new Error(`Unknown binary frame kind ${kind}`);
+    }
+    const metaLength = view.getUint32(pos);
+    pos += 4;
+    const room = JSON.parse(new TextDecoder().decode(bytes.subarray(pos, pos + metaLength)));
+    pos += metaLength;
+    const game = view.getUint8(pos++);
+    const state = room.gameState;
+    const order = state?.playerOrder || [];
+    if (game === 1) {
+        const size = view.getUint8(pos++);
+        const board = [];
+        for (let x = 0; x < size; x++) {
+            const row = [];
+            for (let y = 0; y < size; y++) {
+                const cell = x * size + y;
+                const code = (bytes[pos + (cell >> 2)] >> ((cell & 3) * 2)) & 3;
+                row.push(code === 1 ? 1 : code === 2 ? -1 : 0);
+            }
+            board.push(row);
+        }
+        pos += Math.ceil((size * size * 2) / 8);
+        const count = view.getUint16(pos);
+        pos += 2;
+        const moves = [];
+        for (let i = 0; i < count; i++) {
+            const v = bytes[pos++];
+            moves.push({
+                playerId: order[i % 2],
+                x: Math.floor(v / size),
+                y: v % size,
+                stone: i % 2 === 0 ? 1 : -1,
+                moveNumber: i + 1
+            });
+        }
+        state.board = board;
+        state.moves = moves;
+    } else if (game === 2) {
+        const board = [];
+        for (let r = 0; r < 10; r++) {
+            const row = [];
+            for (let c = 0; c < 9; c++) {
+                const v = bytes[pos++];
+                if (!v) {
+                    row.push(null);
+                    continue;
+                }
+                const black = (v >> 3) & 1;
+                const t = (v & 7) - 1;
+                row.push({
+                    type: XIANGQI_PIECES[t],
+                    color: black ? "BLACK" : "RED",
+                    symbol: (black ? "B-" : "R-") + XIANGQI_SYMBOLS[t]
+                });
+            }
+            board.push(row);
+        }
+        const count = view.getUint16(pos);
+        pos += 2;
+        const moves = [];
+        for (let i = 0; i < count; i++) {
+            const from = bytes[pos++];
+            const to = bytes[pos++];
+            const flags = bytes[pos++];
+            const move = {
+                playerId: order[i % 2],
+                fromRow: Math.floor(from / 9),
+                fromCol: from % 9,
+                toRow: Math.floor(to / 9),
+                toCol: to % 9,
+                piece: XIANGQI_PIECES[flags & 7],
+                color: i % 2 === 0 ? "RED" : "BLACK",
+                moveNumber: i + 1,
+                isCheck: ((flags >> 6) & 1) === 1
+            };
+            const captured = (flags >> 3) & 7;
+            if (captured) {
+                move.captured = XIANGQI_PIECES[captured - 1];
+                move.capturedColor = i % 2 === 0 ? "BLACK" : "RED";
+            }
+            moves.push(move);
+        }
+        state.board = board;
+        state.moves = moves;
+    }
+    return { type: "roomUpdate", room };
+}
+
 function disconnectWebSocket() {
     if (state.ws) {
         state.ws.close();